@@ -0,0 +1,118 @@
+package Map;
+
+/**
+ * Labels every walkable cell of a {@link GridSnapshot} with the connected component it belongs to, using the
+ * same four neighbors the path search moves between.
+ *
+ * Two cells with different labels can never be joined by a path, so a search between them can be answered
+ * straight away instead of flooding the whole component of the start. The labels describe exactly one
+ * snapshot; check {@link #getVersion()} against the current snapshot before trusting them.
+ */
+public final class ConnectedComponents {
+
+	/**
+	 * Label of blocked cells. Components are numbered from 1.
+	 */
+	public static final int BLOCKED = 0;
+
+	private final long version;
+	private final int rows;
+	private final int cols;
+	private final int[] labels;
+	private final int componentCount;
+
+	private ConnectedComponents(long version, int rows, int cols, int[] labels, int componentCount) {
+		this.version = version;
+		this.rows = rows;
+		this.cols = cols;
+		this.labels = labels;
+		this.componentCount = componentCount;
+	}
+
+	/**
+	 * Flood fill every component of the snapshot, one after the other.
+	 */
+	public static ConnectedComponents label(GridSnapshot snapshot) {
+		return label(snapshot, snapshot.getVersion());
+	}
+
+	/**
+	 * Label any grid, recording the given version as the snapshot the grid is equivalent to.
+	 */
+	public static ConnectedComponents label(WalkableGrid grid, long version) {
+		int rows = grid.getRows();
+		int cols = grid.getCols();
+		int[] labels = new int[rows * cols];
+		int[] stack = new int[rows * cols];
+		int component = 0;
+
+		for (int start = 0; start < labels.length; start++) {
+			if (labels[start] != BLOCKED || !grid.isWalkable(start / cols, start % cols))
+				continue;
+
+			component++;
+			labels[start] = component;
+			int size = 0;
+			stack[size++] = start;
+			while (size > 0) {
+				int cell = stack[--size];
+				int row = cell / cols;
+				int col = cell % cols;
+				if (row > 0 && labels[cell - cols] == BLOCKED && grid.isWalkable(row - 1, col)) {
+					labels[cell - cols] = component;
+					stack[size++] = cell - cols;
+				}
+				if (row + 1 < rows && labels[cell + cols] == BLOCKED && grid.isWalkable(row + 1, col)) {
+					labels[cell + cols] = component;
+					stack[size++] = cell + cols;
+				}
+				if (col > 0 && labels[cell - 1] == BLOCKED && grid.isWalkable(row, col - 1)) {
+					labels[cell - 1] = component;
+					stack[size++] = cell - 1;
+				}
+				if (col + 1 < cols && labels[cell + 1] == BLOCKED && grid.isWalkable(row, col + 1)) {
+					labels[cell + 1] = component;
+					stack[size++] = cell + 1;
+				}
+			}
+		}
+		return new ConnectedComponents(version, rows, cols, labels, component);
+	}
+
+	/**
+	 * The same labels, marked as describing another version of the grid with exactly the same walkability.
+	 */
+	public ConnectedComponents forVersion(long version) {
+		return new ConnectedComponents(version, rows, cols, labels, componentCount);
+	}
+
+	/**
+	 * Version of the snapshot these labels were computed from.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int getComponentCount() {
+		return componentCount;
+	}
+
+	/**
+	 * Component of the cell, or {@link #BLOCKED}.
+	 */
+	public int getLabel(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			return BLOCKED;
+		return labels[row * cols + col];
+	}
+
+	/**
+	 * Returns true if both cells are walkable and no path joins them. A blocked cell can still be the start of
+	 * a search (it steps straight onto its walkable neighbors), so nothing is claimed about those.
+	 */
+	public boolean areSeparated(int row1, int col1, int row2, int col2) {
+		int first = getLabel(row1, col1);
+		int second = getLabel(row2, col2);
+		return first != BLOCKED && second != BLOCKED && first != second;
+	}
+}
@@ -0,0 +1,308 @@
+package Map;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Builds the grid of nodes from the image used for generating nodes, splitting the rows of the grid
+ * across the fork/join pool.
+ *
+ * Building happens in phases: pixels are first classified into a {@link WalkabilityBitmap}, then the
+ * nodes are created, and finally neighbors are linked. In every phase a task only ever writes to the
+ * rows it was given (a node only sets its own neighbor references), so no locking is needed.
+ *
+ * When classifying a file, the image is decoded in horizontal strips with
+ * {@link ImageReadParam#setSourceRegion(Rectangle)}. Each strip is classified and then dropped, so the
+ * decoded pixels held in memory at any one time are bounded by {@link #getStripMemoryBudget()} no matter
+ * how large the image is. Formats that can't jump straight to a row (PNG, baseline JPEG) re-scan the rows
+ * before each strip, so a smaller budget trades decoding time for memory; with the default budget the
+ * campus map is decoded as a single strip.
+ */
+public class GridBuilder {
+
+	/**
+	 * A pixel is walkable when its 24-bit RGB value is at least this. This is the same test as the original
+	 * (argbValue >= -8777216) check, with the opaque alpha channel taken out: -8777216 - (255 << 24) = 8000000.
+	 */
+	public static final int WALKABLE_RGB_THRESHOLD = 8000000;
+
+	/**
+	 * Rows are split up until a task has no more than this many.
+	 */
+	private static final int ROWS_PER_TASK = 16;
+
+	/**
+	 * Work done on a range of rows [rowStart, rowEnd).
+	 */
+	private interface RowWork {
+		void run(int rowStart, int rowEnd);
+	}
+
+	/**
+	 * Default amount of memory a decoded strip may use (assuming 4 bytes per pixel).
+	 */
+	public static final long DEFAULT_STRIP_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+	/**
+	 * Strips are never made shorter than this, to keep the number of re-scans down.
+	 */
+	private static final int MIN_STRIP_HEIGHT = 32;
+
+	private final ForkJoinPool pool;
+
+	private long stripMemoryBudget = DEFAULT_STRIP_MEMORY_BUDGET;
+
+	public GridBuilder() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public GridBuilder(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public long getStripMemoryBudget() {
+		return stripMemoryBudget;
+	}
+
+	public void setStripMemoryBudget(long bytes) {
+		if (bytes <= 0)
+			throw new IllegalArgumentException("The strip memory budget must be positive.");
+		this.stripMemoryBudget = bytes;
+	}
+
+	/**
+	 * Everything that changes how pixels are classified, for keying cached grids.
+	 */
+	public static String getClassifierParameters() {
+		return "rgb>=" + WALKABLE_RGB_THRESHOLD;
+	}
+
+	/**
+	 * The classified source image of a {@link GridCache}, stored run-length encoded.
+	 */
+	public GridCache.Artifact<RunLengthTerrain> terrainArtifact() {
+		return new GridCache.StoredArtifact<RunLengthTerrain>("terrain", 1) {
+			protected RunLengthTerrain build(GridCache cache) throws IOException {
+				long start = System.nanoTime();
+				WalkabilityBitmap walkable = classify(cache.getSourceImage());
+				long classified = System.nanoTime();
+				RunLengthTerrain terrain = RunLengthTerrain.fromBitmap(walkable);
+				long encoded = System.nanoTime();
+
+				System.out.println("Terrain built using " + pool.getParallelism() + " thread(s): decode and classify " + millis(classified - start)
+						+ " ms, run-length encode " + millis(encoded - classified) + " ms.");
+				return terrain;
+			}
+
+			protected void write(RunLengthTerrain value, DataOutput out) throws IOException {
+				value.writeTo(out);
+			}
+
+			protected RunLengthTerrain read(DataInput in) throws IOException {
+				return RunLengthTerrain.readFrom(in);
+			}
+		};
+	}
+
+	public static boolean isWalkable(int rgb) {
+		return (rgb & 0xFFFFFF) >= WALKABLE_RGB_THRESHOLD;
+	}
+
+	/**
+	 * Build the grid of nodes from pixels that were already classified, e.g. loaded from a {@link GridCache},
+	 * printing how long each phase took.
+	 */
+	public Node[][] build(WalkabilityBitmap walkable) {
+		long start = System.nanoTime();
+		Node[][] nodes = createNodes(walkable);
+		long created = System.nanoTime();
+		linkNodes(nodes);
+		long linked = System.nanoTime();
+
+		System.out.println("Grid built using " + pool.getParallelism() + " thread(s): create nodes " + millis(created - start)
+				+ " ms, link neighbors " + millis(linked - created) + " ms.");
+		return nodes;
+	}
+
+	/**
+	 * Decode the image file in strips and classify every pixel as walkable or blocked.
+	 * Only one decoded strip is held in memory at a time.
+	 */
+	public WalkabilityBitmap classify(File imageFile) throws IOException {
+		ImageInputStream input = ImageIO.createImageInputStream(imageFile);
+		if (input == null)
+			throw new IOException("Unable to open " + imageFile + ".");
+
+		ImageReader reader = null;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext())
+				throw new IOException("No image reader available for " + imageFile + ".");
+			reader = readers.next();
+			reader.setInput(input, false, true);
+
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			int stripHeight = (int) Math.min(height, Math.max(MIN_STRIP_HEIGHT, stripMemoryBudget / (4L * width)));
+			WalkabilityBitmap walkable = new WalkabilityBitmap(height, width);
+
+			for (int stripStart = 0; stripStart < height; stripStart += stripHeight) {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(new Rectangle(0, stripStart, width, Math.min(stripHeight, height - stripStart)));
+				BufferedImage strip = reader.read(0, param);
+				classify(strip, walkable, stripStart);
+			}
+			return walkable;
+		} finally {
+			if (reader != null)
+				reader.dispose();
+			input.close();
+		}
+	}
+
+	/**
+	 * Classify every pixel of the image as walkable or blocked.
+	 */
+	public WalkabilityBitmap classify(BufferedImage image) {
+		WalkabilityBitmap walkable = new WalkabilityBitmap(image.getHeight(), image.getWidth());
+		classify(image, walkable, 0);
+		return walkable;
+	}
+
+	/**
+	 * Classify the pixels of an image (or a strip of one) into the rows of the bitmap starting at firstRow.
+	 */
+	private void classify(final BufferedImage image, final WalkabilityBitmap walkable, final int firstRow) {
+		final Raster raster = image.getRaster();
+
+		if (image.getType() == BufferedImage.TYPE_3BYTE_BGR && raster.getParent() == null
+				&& raster.getSampleModel() instanceof ComponentSampleModel) {
+			// Fast path: read the interleaved BGR bytes straight out of the raster.
+			final byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+			final int rowStride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+			forEachRows(image.getHeight(), new RowWork() {
+				public void run(int rowStart, int rowEnd) {
+					for (int row = rowStart; row < rowEnd; row++)
+						PixelClassifier.classifyBgrRow(pixels, row * rowStride, walkable, firstRow + row);
+				}
+			});
+		}
+		else {
+			// Any other kind of image: let the color model decode one row at a time.
+			forEachRows(image.getHeight(), new RowWork() {
+				public void run(int rowStart, int rowEnd) {
+					int width = image.getWidth();
+					int[] rgb = new int[width];
+					for (int row = rowStart; row < rowEnd; row++) {
+						image.getRGB(0, row, width, 1, rgb, 0, width);
+						classifyRgbRow(rgb, walkable, firstRow + row);
+					}
+				}
+			});
+		}
+	}
+
+	static void classifyRgbRow(int[] rgb, WalkabilityBitmap walkable, int row) {
+		int cols = walkable.getCols();
+		for (int wordIndex = 0, col = 0; col < cols; wordIndex++) {
+			long word = 0;
+			int end = Math.min(col + 64, cols);
+			for (int bit = 0; col < end; col++, bit++) {
+				if (isWalkable(rgb[col]))
+					word |= 1L << bit;
+			}
+			walkable.setWord(row, wordIndex, word);
+		}
+	}
+
+	/**
+	 * Create one node per cell. Node ids are assigned in row-major order.
+	 */
+	public Node[][] createNodes(final WalkabilityBitmap walkable) {
+		final int cols = walkable.getCols();
+		final Node[][] nodes = new Node[walkable.getRows()][];
+		forEachRows(nodes.length, new RowWork() {
+			public void run(int rowStart, int rowEnd) {
+				for (int row = rowStart; row < rowEnd; row++) {
+					Node[] nodeRow = new Node[cols];
+					int nodeID = row * cols;
+					for (int col = 0; col < cols; col++, nodeID++) {
+						boolean valid = walkable.isWalkable(row, col);
+						nodeRow[col] = new Node(nodeID, "Node " + nodeID, valid, (valid) ? Terrain.WALKABLE : Terrain.BLOCKED,
+								row, col, null, null, null, null);
+					}
+					nodes[row] = nodeRow;
+				}
+			}
+		});
+		return nodes;
+	}
+
+	/**
+	 * Set the top, left, right and bottom neighbor of every node.
+	 */
+	public void linkNodes(final Node[][] nodes) {
+		forEachRows(nodes.length, new RowWork() {
+			public void run(int rowStart, int rowEnd) {
+				for (int row = rowStart; row < rowEnd; row++) {
+					Node[] above = (row > 0) ? nodes[row - 1] : null;
+					Node[] current = nodes[row];
+					Node[] below = (row + 1 < nodes.length) ? nodes[row + 1] : null;
+					for (int col = 0; col < current.length; col++) {
+						Node n = current[col];
+						n.setTopNode((above != null) ? above[col] : null);
+						n.setBottomNode((below != null) ? below[col] : null);
+						n.setLeftNode((col > 0) ? current[col - 1] : null);
+						n.setRightNode((col + 1 < current.length) ? current[col + 1] : null);
+					}
+				}
+			}
+		});
+	}
+
+	private void forEachRows(int rows, RowWork work) {
+		pool.invoke(new RowTask(work, 0, rows));
+	}
+
+	@SuppressWarnings("serial")
+	private static class RowTask extends RecursiveAction {
+		private final RowWork work;
+		private final int rowStart;
+		private final int rowEnd;
+
+		RowTask(RowWork work, int rowStart, int rowEnd) {
+			this.work = work;
+			this.rowStart = rowStart;
+			this.rowEnd = rowEnd;
+		}
+
+		@Override
+		protected void compute() {
+			if (rowEnd - rowStart <= ROWS_PER_TASK) {
+				work.run(rowStart, rowEnd);
+				return;
+			}
+			int middle = (rowStart + rowEnd) >>> 1;
+			invokeAll(new RowTask(work, rowStart, middle), new RowTask(work, middle, rowEnd));
+		}
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+}
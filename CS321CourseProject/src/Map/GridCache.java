@@ -0,0 +1,431 @@
+package Map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import Util.BlockCompressedStore;
+
+/**
+ * On-disk cache of the grid and of the data derived from it (components, clearance, ...), tied to the
+ * image the grid was generated from.
+ *
+ * Every artifact is stored in its own file, headed by a key: a SHA-256 hash of the source image, the
+ * classifier parameters, the artifact's name and version, and the keys of the artifacts it was computed
+ * from. When the image, the classifier or an input changes, the key no longer matches and the artifact is
+ * rebuilt; artifacts whose inputs didn't change keep being loaded from disk. Nothing is read until it is
+ * asked for with {@link #get(Artifact)}.
+ *
+ * Artifacts can also be parameterized ({@link Artifact#getParameters()}), e.g. by the areas the user has
+ * blocked off, in which case only the artifacts downstream of the changed parameters are rebuilt.
+ *
+ * After the key, the artifact is stored as a {@link BlockCompressedStore}, so large artifacts can also be
+ * read a piece at a time with {@link #openReader(Artifact)}.
+ */
+public class GridCache {
+
+	/**
+	 * Written at the start of every cache file, so we don't try to decode something else.
+	 */
+	private static final int MAGIC = 0x47434832; // "GCH2"
+
+	/**
+	 * Something that is computed from the source image (and possibly other artifacts). Artifacts that are
+	 * cheaper to compute than to read back extend this directly and are only kept in memory; the ones worth
+	 * storing extend {@link StoredArtifact}.
+	 *
+	 * @param <T> type of the computed value.
+	 */
+	public static abstract class Artifact<T> {
+		private final String name;
+		private final int version;
+		private final Artifact<?>[] inputs;
+
+		/**
+		 * @param name unique name of the artifact, also used as its file name.
+		 * @param version bump this whenever the computation or the encoding changes, so old files are rebuilt.
+		 * @param inputs artifacts that {@link #build(GridCache)} reads through the cache.
+		 */
+		protected Artifact(String name, int version, Artifact<?>... inputs) {
+			this.name = name;
+			this.version = version;
+			this.inputs = inputs;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		public Artifact<?>[] getInputs() {
+			return inputs.clone();
+		}
+
+		/**
+		 * Anything besides the inputs that changes the value, e.g. the blocked areas applied to the terrain. Part
+		 * of the key, so changing it rebuilds this artifact and everything computed from it.
+		 */
+		public String getParameters() {
+			return "";
+		}
+
+		/**
+		 * Compute the value from scratch. Inputs should be fetched with {@link GridCache#get(Artifact)}.
+		 */
+		protected abstract T build(GridCache cache) throws IOException;
+
+		/**
+		 * Artifacts are identified by their name, which is also their file name.
+		 */
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Artifact && ((Artifact<?>) other).name.equals(name);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+
+	/**
+	 * An artifact that is written to disk, and read back instead of being rebuilt as long as its key matches.
+	 *
+	 * @param <T> type of the computed value.
+	 */
+	public static abstract class StoredArtifact<T> extends Artifact<T> {
+
+		protected StoredArtifact(String name, int version, Artifact<?>... inputs) {
+			super(name, version, inputs);
+		}
+
+		protected abstract void write(T value, DataOutput out) throws IOException;
+
+		protected abstract T read(DataInput in) throws IOException;
+	}
+
+	private final File directory;
+	private final File sourceImage;
+	private final String classifierParameters;
+
+	private String sourceKey = null;
+
+	/**
+	 * The latest value of every artifact, by name, together with the key it was built for.
+	 */
+	private final HashMap<String, Loaded> loaded = new HashMap<>();
+
+	/**
+	 * One lock per artifact name, so the same artifact is never built twice at once while different artifacts
+	 * can be built in parallel.
+	 */
+	private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+
+	private static class Loaded {
+		final String key;
+		final Object value;
+
+		Loaded(String key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private int hits = 0;
+	private int rebuilds = 0;
+
+	/**
+	 * @param directory where the artifacts are stored, created when the first artifact is written. If null,
+	 *        artifacts are only kept in memory.
+	 * @param sourceImage the image the grid is generated from.
+	 * @param classifierParameters anything that changes how pixels are classified, e.g. the threshold.
+	 */
+	public GridCache(File directory, File sourceImage, String classifierParameters) {
+		this.directory = directory;
+		this.sourceImage = sourceImage;
+		this.classifierParameters = classifierParameters;
+	}
+
+	public File getSourceImage() {
+		return sourceImage;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Number of artifacts that were loaded from disk instead of being built.
+	 */
+	public synchronized int getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Number of artifacts that had to be built because they were missing, stale or unreadable.
+	 */
+	public synchronized int getRebuildCount() {
+		return rebuilds;
+	}
+
+	/**
+	 * Return the artifact, loading it from disk if the stored copy was made from the same inputs and
+	 * building (and storing) it otherwise. The latest value of every artifact is kept in memory.
+	 * Different artifacts may be fetched from different threads at the same time.
+	 */
+	public <T> T get(Artifact<T> artifact) throws IOException {
+		String key = getKey(artifact);
+		synchronized (lockFor(artifact)) {
+			T value = getLoaded(artifact, key);
+			if (value != null)
+				return value;
+
+			File file = getFile(artifact);
+			if (file != null && file.exists()) {
+				try {
+					value = read((StoredArtifact<T>) artifact, file, key);
+				} catch (IOException e) {
+					System.out.println("Unable to read cached " + artifact.getName() + ": " + e.getMessage());
+				}
+			}
+
+			if (value != null) {
+				countHit();
+				System.out.println("Loaded " + artifact.getName() + " from the grid cache.");
+			}
+			else {
+				countRebuild();
+				System.out.println("Building " + artifact.getName() + ((file != null && file.exists()) ? " (cached copy is stale)..." : "..."));
+				value = artifact.build(this);
+				if (file != null)
+					write((StoredArtifact<T>) artifact, value, file, key);
+			}
+			synchronized (this) {
+				loaded.put(artifact.getName(), new Loaded(key, value));
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Use an already computed value for the artifact, as if it had just been built. It is written to disk
+	 * like a built artifact would be.
+	 */
+	public <T> void put(Artifact<T> artifact, T value) throws IOException {
+		String key = getKey(artifact);
+		synchronized (lockFor(artifact)) {
+			File file = getFile(artifact);
+			if (file != null)
+				write((StoredArtifact<T>) artifact, value, file, key);
+			synchronized (this) {
+				loaded.put(artifact.getName(), new Loaded(key, value));
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized <T> T getLoaded(Artifact<T> artifact, String key) {
+		Loaded entry = loaded.get(artifact.getName());
+		return (entry != null && entry.key.equals(key)) ? (T) entry.value : null;
+	}
+
+	private Object lockFor(Artifact<?> artifact) {
+		Object lock = locks.get(artifact.getName());
+		if (lock == null) {
+			Object created = new Object();
+			lock = locks.putIfAbsent(artifact.getName(), created);
+			if (lock == null)
+				lock = created;
+		}
+		return lock;
+	}
+
+	private synchronized void countHit() {
+		hits++;
+	}
+
+	private synchronized void countRebuild() {
+		rebuilds++;
+	}
+
+	/**
+	 * Returns true if the artifact can be loaded from disk without being rebuilt. Only the header of the file
+	 * is read.
+	 */
+	public boolean isValid(Artifact<?> artifact) throws IOException {
+		File file = getFile(artifact);
+		if (file == null || !file.exists())
+			return false;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return readHeader(in, getKey(artifact));
+		} catch (IOException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Forget the values held in memory (and the hash of the source image, in case it changed). Files on disk
+	 * are left alone and are checked again on the next {@link #get(Artifact)}.
+	 */
+	public synchronized void reset() {
+		sourceKey = null;
+		loaded.clear();
+	}
+
+	/**
+	 * Key of the inputs an artifact is computed from. Two artifacts with the same key are interchangeable.
+	 */
+	public String getKey(Artifact<?> artifact) throws IOException {
+		StringBuilder description = new StringBuilder();
+		description.append(getSourceKey()).append('\n');
+		description.append(artifact.getName()).append('\n').append(artifact.getVersion()).append('\n');
+		description.append(artifact.getParameters()).append('\n');
+		for (Artifact<?> input : artifact.inputs)
+			description.append(getKey(input)).append('\n');
+		return toHex(digest().digest(description.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private synchronized String getSourceKey() throws IOException {
+		if (sourceKey != null)
+			return sourceKey;
+
+		MessageDigest digest = digest();
+		if (directory == null) {
+			// Nothing is stored, so the key only has to tell this run's values apart. A file that changes while
+			// we're running changes its size or modification time, which is enough without reading all of it.
+			digest.update((sourceImage.getAbsolutePath() + "\n" + sourceImage.length() + "\n" + sourceImage.lastModified() + "\n"
+					+ classifierParameters).getBytes(StandardCharsets.UTF_8));
+			sourceKey = toHex(digest.digest());
+			return sourceKey;
+		}
+
+		InputStream in = new FileInputStream(sourceImage);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+		digest.update(classifierParameters.getBytes(StandardCharsets.UTF_8));
+		sourceKey = toHex(digest.digest());
+		return sourceKey;
+	}
+
+	/**
+	 * File of a stored artifact, or null if the artifact is only kept in memory.
+	 */
+	private File getFile(Artifact<?> artifact) {
+		if (directory == null || !(artifact instanceof StoredArtifact))
+			return null;
+		return new File(directory, artifact.getName() + ".cache");
+	}
+
+	private static <T> T read(StoredArtifact<T> artifact, File file, String key) throws IOException {
+		BlockCompressedStore.Reader reader = openReader(file, key);
+		if (reader == null)
+			return null;
+		try {
+			return artifact.read(new DataInputStream(new BufferedInputStream(reader.openStream())));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Random access to the stored bytes of an artifact, without decoding all of it. Returns null if there is
+	 * no up-to-date copy on disk; call {@link #get(Artifact)} first to make sure there is one. The caller
+	 * must close the reader.
+	 */
+	public BlockCompressedStore.Reader openReader(Artifact<?> artifact) throws IOException {
+		File file = getFile(artifact);
+		if (file == null || !file.exists())
+			return null;
+		return openReader(file, getKey(artifact));
+	}
+
+	private static BlockCompressedStore.Reader openReader(File file, String key) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (!readHeader(in, key)) {
+				in.close();
+				return null;
+			}
+			return new BlockCompressedStore.Reader(in);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	private static boolean readHeader(DataInput in, String key) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a grid cache file.");
+		return key.equals(in.readUTF());
+	}
+
+	/**
+	 * Write to a temporary file first and move it into place, so a crash never leaves a half-written
+	 * artifact behind a valid header.
+	 */
+	private static <T> void write(StoredArtifact<T> artifact, T value, File file, String key) throws IOException {
+		File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create " + directory + ".");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bytes);
+		artifact.write(value, body);
+		body.flush();
+
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeUTF(key);
+			BlockCompressedStore.write(bytes.toByteArray(), out);
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+}
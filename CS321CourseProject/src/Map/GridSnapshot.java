@@ -0,0 +1,238 @@
+package Map;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable, versioned view of the walkability of every node in the grid.
+ *
+ * The grid is split into square tiles of {@link #TILE_SIZE} x {@link #TILE_SIZE} cells. Each tile is stored
+ * as one long per tile row, where bit c of word r is set when the cell is walkable. Snapshots never change
+ * once built. Edits go through an {@link Editor}, which copies only the tiles it touches and shares every
+ * other tile with the snapshot it was created from.
+ *
+ * A snapshot is only referenced by the {@link VersionedGrid} that published it and by whatever searches
+ * are currently reading it, so old versions (and the tiles that only they used) are reclaimed by the
+ * garbage collector as soon as the last reader drops them.
+ */
+public final class GridSnapshot implements WalkableGrid, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Width and height of a tile, in cells. One tile row fits exactly into a long.
+	 */
+	public static final int TILE_SIZE = 64;
+
+	private static final int TILE_SHIFT = 6;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+
+	/**
+	 * Monotonically increasing version number. The first snapshot of a grid is version 0.
+	 */
+	private final long version;
+
+	private final int rows;
+	private final int cols;
+
+	/**
+	 * Number of tiles along each axis.
+	 */
+	private final int tileRows;
+	private final int tileCols;
+
+	/**
+	 * Tiles in row-major order. A tile is shared between snapshots until an editor writes to it.
+	 */
+	private final long[][] tiles;
+
+	private GridSnapshot(long version, int rows, int cols, long[][] tiles) {
+		this.version = version;
+		this.rows = rows;
+		this.cols = cols;
+		this.tileRows = (rows + TILE_MASK) >> TILE_SHIFT;
+		this.tileCols = (cols + TILE_MASK) >> TILE_SHIFT;
+		this.tiles = tiles;
+	}
+
+	/**
+	 * Build the first version of a snapshot from the terrain currently stored in the given grid of nodes.
+	 */
+	public static GridSnapshot fromNodes(Node[][] nodes) {
+		int rows = nodes.length;
+		int cols = nodes[0].length;
+		Editor editor = new Editor(empty(rows, cols));
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				if (nodes[row][col].getTerrain() == Terrain.WALKABLE)
+					editor.setWalkable(row, col, true);
+			}
+		}
+		return editor.build(0);
+	}
+
+	/**
+	 * A snapshot with the walkability of the bitmap. Both store a tile row as one long per 64 columns, so the
+	 * words are taken over as they are; tiles without any walkable cell share one blank tile.
+	 */
+	public static GridSnapshot fromBitmap(WalkabilityBitmap bitmap, long version) {
+		GridSnapshot snapshot = empty(bitmap.getRows(), bitmap.getCols());
+		long[][] tiles = new long[snapshot.tiles.length][];
+		for (int tileRow = 0; tileRow < snapshot.tileRows; tileRow++) {
+			for (int tileCol = 0; tileCol < snapshot.tileCols; tileCol++) {
+				long[] tile = null;
+				for (int row = tileRow << TILE_SHIFT; row < Math.min(snapshot.rows, (tileRow + 1) << TILE_SHIFT); row++) {
+					long word = bitmap.getWord(row, tileCol);
+					if (word == 0)
+						continue;
+					if (tile == null)
+						tile = new long[TILE_SIZE];
+					tile[row & TILE_MASK] = word;
+				}
+				int index = tileRow * snapshot.tileCols + tileCol;
+				tiles[index] = (tile != null) ? tile : snapshot.tiles[index];
+			}
+		}
+		return new GridSnapshot(version, snapshot.rows, snapshot.cols, tiles);
+	}
+
+	/**
+	 * A snapshot where every cell is blocked.
+	 */
+	public static GridSnapshot empty(int rows, int cols) {
+		if (rows <= 0 || cols <= 0)
+			throw new IllegalArgumentException("A grid must have at least one row and one column.");
+		int tileRows = (rows + TILE_MASK) >> TILE_SHIFT;
+		int tileCols = (cols + TILE_MASK) >> TILE_SHIFT;
+		long[] blank = new long[TILE_SIZE];
+		long[][] tiles = new long[tileRows * tileCols][];
+		for (int i = 0; i < tiles.length; i++)
+			tiles[i] = blank;
+		return new GridSnapshot(0, rows, cols, tiles);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public boolean isWalkable(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			return false;
+		long[] tile = tiles[(row >> TILE_SHIFT) * tileCols + (col >> TILE_SHIFT)];
+		return (tile[row & TILE_MASK] & (1L << (col & TILE_MASK))) != 0;
+	}
+
+	/**
+	 * Copy of the walkability of this snapshot, as one bitmap.
+	 */
+	public WalkabilityBitmap toBitmap() {
+		WalkabilityBitmap bitmap = new WalkabilityBitmap(rows, cols);
+		for (int row = 0; row < rows; row++)
+			for (int tileCol = 0; tileCol < tileCols; tileCol++)
+				bitmap.setWord(row, tileCol, tiles[(row >> TILE_SHIFT) * tileCols + tileCol][row & TILE_MASK]);
+		return bitmap;
+	}
+
+	public Terrain getTerrain(int row, int col) {
+		return isWalkable(row, col) ? Terrain.WALKABLE : Terrain.BLOCKED;
+	}
+
+	/**
+	 * Returns true if this snapshot and the other one use the very same tile for the given cell.
+	 * Mostly useful for checking that edits did not copy more than they had to.
+	 */
+	public boolean sharesTileWith(GridSnapshot other, int row, int col) {
+		int index = (row >> TILE_SHIFT) * tileCols + (col >> TILE_SHIFT);
+		return other.tiles.length == tiles.length && other.tiles[index] == tiles[index];
+	}
+
+	/**
+	 * Start a set of edits based on this snapshot. The snapshot itself is left untouched.
+	 */
+	public Editor edit() {
+		return new Editor(this);
+	}
+
+	/**
+	 * Collects changes to a snapshot, copying a tile the first time one of its cells is written.
+	 * An editor is meant to be used by a single thread.
+	 */
+	public static final class Editor {
+
+		private final GridSnapshot base;
+		private final long[][] tiles;
+
+		/**
+		 * Marks which tiles have already been copied by this editor.
+		 */
+		private final boolean[] copied;
+
+		private int copiedTileCount = 0;
+
+		private Editor(GridSnapshot base) {
+			this.base = base;
+			this.tiles = base.tiles.clone();
+			this.copied = new boolean[tiles.length];
+		}
+
+		public GridSnapshot getBase() {
+			return base;
+		}
+
+		public void setWalkable(int row, int col, boolean walkable) {
+			if (row < 0 || row >= base.rows || col < 0 || col >= base.cols)
+				throw new IndexOutOfBoundsException("(" + row + "," + col + ") is outside of the grid.");
+
+			int index = (row >> TILE_SHIFT) * base.tileCols + (col >> TILE_SHIFT);
+			long bit = 1L << (col & TILE_MASK);
+			long word = tiles[index][row & TILE_MASK];
+
+			// Don't copy the tile if the write wouldn't change anything.
+			if (((word & bit) != 0) == walkable)
+				return;
+
+			if (!copied[index]) {
+				tiles[index] = tiles[index].clone();
+				copied[index] = true;
+				copiedTileCount++;
+			}
+
+			if (walkable)
+				tiles[index][row & TILE_MASK] = word | bit;
+			else
+				tiles[index][row & TILE_MASK] = word & ~bit;
+		}
+
+		public void setTerrain(int row, int col, Terrain terrain) {
+			setWalkable(row, col, terrain == Terrain.WALKABLE);
+		}
+
+		/**
+		 * Number of tiles that were copied because of the edits so far.
+		 */
+		public int getCopiedTileCount() {
+			return copiedTileCount;
+		}
+
+		/**
+		 * Produce the next version of the base snapshot.
+		 */
+		public GridSnapshot build() {
+			return build(base.version + 1);
+		}
+
+		private GridSnapshot build(long version) {
+			// The new snapshot now owns the copied tiles, so any further edit has to copy them again.
+			Arrays.fill(copied, false);
+			return new GridSnapshot(version, base.rows, base.cols, tiles.clone());
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package Map;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Turns rows of raw interleaved blue, green, red bytes into packed walkability words, eight pixels at a time.
+ *
+ * The threshold test (rgb >= {@link GridBuilder#WALKABLE_RGB_THRESHOLD}, i.e. rgb >= 0x7A1200) never looks at
+ * the blue byte: a pixel is walkable when its red byte is above 0x7A, blocked when it is below, and only when it
+ * is exactly 0x7A does the green byte decide (green >= 0x12). Eight pixels are 24 bytes, which are read as three
+ * longs; the red and green bytes of all eight are compared at once with SWAR (SIMD within a register) arithmetic,
+ * without any branches. Pixels at the end of a row that don't fill a group use the scalar test.
+ */
+public final class PixelClassifier {
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	/**
+	 * Adding these to a byte that has its high bit cleared carries into the high bit when the byte is at least
+	 * 0x7B (0x80 - 0x05), 0x7A (0x80 - 0x06) or 0x12 (0x80 - 0x6E). The sums never exceed 0xFF, so no carry leaks into the next byte.
+	 */
+	private static final long ADD_AT_LEAST_7B = 0x0505050505050505L;
+	private static final long ADD_AT_LEAST_7A = 0x0606060606060606L;
+	private static final long ADD_AT_LEAST_12 = 0x6E6E6E6E6E6E6E6EL;
+
+	/**
+	 * High bit of every red byte within the three longs holding eight pixels (bytes 2 and 5, 8, 11 and 14,
+	 * then 17, 20 and 23 of the group).
+	 */
+	private static final long RED_MASK_0 = 0x0000800000800000L;
+	private static final long RED_MASK_1 = 0x0080000080000080L;
+	private static final long RED_MASK_2 = 0x8000008000008000L;
+
+	/**
+	 * Red and green of the threshold: a pixel is walkable when (red << 8 | green) is at least this.
+	 */
+	private static final int RED_GREEN_THRESHOLD = GridBuilder.WALKABLE_RGB_THRESHOLD >>> 8;
+
+	private PixelClassifier() {
+	}
+
+	/**
+	 * Classify one row of interleaved blue, green, red bytes starting at the given offset into the row of the
+	 * bitmap.
+	 */
+	public static void classifyBgrRow(byte[] pixels, int offset, WalkabilityBitmap walkable, int row) {
+		int cols = walkable.getCols();
+		int lastGroupStart = pixels.length - 24;
+		for (int wordIndex = 0, col = 0; col < cols; wordIndex++) {
+			long word = 0;
+			int end = Math.min(col + 64, cols);
+			int bit = 0;
+			for (; col + 8 <= end && offset <= lastGroupStart; col += 8, bit += 8, offset += 24)
+				word |= (long) classifyGroup(pixels, offset) << bit;
+			for (; col < end; col++, bit++, offset += 3)
+				if (isWalkable(pixels, offset))
+					word |= 1L << bit;
+			walkable.setWord(row, wordIndex, word);
+		}
+	}
+
+	/**
+	 * Same as {@link #classifyBgrRow(byte[], int, WalkabilityBitmap, int)}, testing one pixel at a time.
+	 */
+	public static void classifyBgrRowScalar(byte[] pixels, int offset, WalkabilityBitmap walkable, int row) {
+		int cols = walkable.getCols();
+		for (int wordIndex = 0, col = 0; col < cols; wordIndex++) {
+			long word = 0;
+			int end = Math.min(col + 64, cols);
+			for (int bit = 0; col < end; col++, bit++, offset += 3)
+				if (isWalkable(pixels, offset))
+					word |= 1L << bit;
+			walkable.setWord(row, wordIndex, word);
+		}
+	}
+
+	/**
+	 * Classify the eight pixels starting at offset, returning one bit per pixel.
+	 */
+	private static int classifyGroup(byte[] pixels, int offset) {
+		long first = (long) LONGS.get(pixels, offset);
+		long second = (long) LONGS.get(pixels, offset + 8);
+		long third = (long) LONGS.get(pixels, offset + 16);
+
+		// The green byte of a pixel sits just below its red byte; the green of the third pixel is the last byte
+		// of the first long.
+		long green0 = atLeast(first, ADD_AT_LEAST_12);
+		long walkable0 = walkable(first, green0 << 8) & RED_MASK_0;
+		long walkable1 = walkable(second, (atLeast(second, ADD_AT_LEAST_12) << 8) | (green0 >>> 56)) & RED_MASK_1;
+		long walkable2 = walkable(third, atLeast(third, ADD_AT_LEAST_12) << 8) & RED_MASK_2;
+
+		return (int) (((walkable0 >>> 23) & 1) | ((walkable0 >>> 46) & 2)
+				| ((walkable1 >>> 5) & 4) | ((walkable1 >>> 28) & 8) | ((walkable1 >>> 51) & 16)
+				| ((walkable2 >>> 10) & 32) | ((walkable2 >>> 33) & 64) | ((walkable2 >>> 56) & 128));
+	}
+
+	/**
+	 * High bit set on every red byte that is above 0x7A, or is 0x7A with the green flag shifted under it set.
+	 */
+	private static long walkable(long bytes, long greenAtLeast12) {
+		long above7A = atLeast(bytes, ADD_AT_LEAST_7B);
+		return above7A | (atLeast(bytes, ADD_AT_LEAST_7A) & ~above7A & greenAtLeast12);
+	}
+
+	/**
+	 * The high bit of every byte is set when that byte is at least the bound encoded in add.
+	 */
+	private static long atLeast(long bytes, long add) {
+		return (bytes | ((bytes & ~HIGH_BITS) + add)) & HIGH_BITS;
+	}
+
+	/**
+	 * Scalar test of the pixel whose blue byte is at offset.
+	 */
+	public static boolean isWalkable(byte[] pixels, int offset) {
+		return (((pixels[offset + 2] & 0xff) << 8) | (pixels[offset + 1] & 0xff)) >= RED_GREEN_THRESHOLD;
+	}
+}
@@ -0,0 +1,235 @@
+package Map;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Region quadtree over axis-aligned rectangles, used to answer questions like "which no-go zones
+ * intersect this viewport / this tile / this point" without scanning every zone.
+ *
+ * Every rectangle is stored in the smallest quadrant that fully contains it. A quadrant is split into
+ * four once it holds more than {@link #MAX_ENTRIES} rectangles (up to {@link #MAX_DEPTH} levels deep).
+ * Rectangles that don't fit inside the bounds of the tree are kept at the root.
+ *
+ * @param <T> value stored with each rectangle.
+ */
+public class QuadTree<T> {
+
+	/**
+	 * Called for every rectangle found by {@link QuadTree#query(Rectangle, EntryVisitor)}.
+	 */
+	public interface EntryVisitor<T> {
+		void visit(Rectangle bounds, T value);
+	}
+
+	private static final int MAX_ENTRIES = 8;
+	private static final int MAX_DEPTH = 12;
+
+	private static class Entry<T> {
+		final Rectangle bounds;
+		final T value;
+
+		Entry(Rectangle bounds, T value) {
+			this.bounds = bounds;
+			this.value = value;
+		}
+	}
+
+	private static class Quadrant<T> {
+		final Rectangle bounds;
+		final int depth;
+		final List<Entry<T>> entries = new ArrayList<>();
+		Quadrant<T>[] children = null;
+
+		Quadrant(Rectangle bounds, int depth) {
+			this.bounds = bounds;
+			this.depth = depth;
+		}
+	}
+
+	private final Quadrant<T> root;
+	private int size = 0;
+
+	public QuadTree(Rectangle bounds) {
+		this.root = new Quadrant<>(new Rectangle(bounds), 0);
+	}
+
+	public QuadTree(int width, int height) {
+		this(new Rectangle(0, 0, width, height));
+	}
+
+	public Rectangle getBounds() {
+		return new Rectangle(root.bounds);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void insert(Rectangle bounds, T value) {
+		if (bounds.isEmpty())
+			return;
+		insert(root, new Entry<>(new Rectangle(bounds), value));
+		size++;
+	}
+
+	private void insert(Quadrant<T> quadrant, Entry<T> entry) {
+		while (true) {
+			if (quadrant.children == null) {
+				quadrant.entries.add(entry);
+				if (quadrant.entries.size() > MAX_ENTRIES && quadrant.depth < MAX_DEPTH)
+					split(quadrant);
+				return;
+			}
+			Quadrant<T> child = childContaining(quadrant, entry.bounds);
+			if (child == null) {
+				quadrant.entries.add(entry);
+				return;
+			}
+			quadrant = child;
+		}
+	}
+
+	private void split(Quadrant<T> quadrant) {
+		Rectangle b = quadrant.bounds;
+		int halfWidth = b.width / 2;
+		int halfHeight = b.height / 2;
+		if (halfWidth == 0 || halfHeight == 0)
+			return;
+
+		Quadrant<T>[] children = newQuadrants(4);
+		children[0] = new Quadrant<T>(new Rectangle(b.x, b.y, halfWidth, halfHeight), quadrant.depth + 1);
+		children[1] = new Quadrant<T>(new Rectangle(b.x + halfWidth, b.y, b.width - halfWidth, halfHeight), quadrant.depth + 1);
+		children[2] = new Quadrant<T>(new Rectangle(b.x, b.y + halfHeight, halfWidth, b.height - halfHeight), quadrant.depth + 1);
+		children[3] = new Quadrant<T>(new Rectangle(b.x + halfWidth, b.y + halfHeight, b.width - halfWidth, b.height - halfHeight), quadrant.depth + 1);
+		quadrant.children = children;
+
+		// Push down every entry that fits completely inside one of the new children.
+		Iterator<Entry<T>> it = quadrant.entries.iterator();
+		while (it.hasNext()) {
+			Entry<T> entry = it.next();
+			Quadrant<T> child = childContaining(quadrant, entry.bounds);
+			if (child != null) {
+				it.remove();
+				insert(child, entry);
+			}
+		}
+	}
+
+	/**
+	 * Generic arrays can't be created directly, so this is the one unchecked cast.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Quadrant<T>[] newQuadrants(int count) {
+		return (Quadrant<T>[]) new Quadrant<?>[count];
+	}
+
+	private Quadrant<T> childContaining(Quadrant<T> quadrant, Rectangle r) {
+		for (Quadrant<T> child : quadrant.children)
+			if (child.bounds.contains(r))
+				return child;
+		return null;
+	}
+
+	/**
+	 * Remove one rectangle that was inserted with exactly these bounds and this value.
+	 *
+	 * @return true if a rectangle was removed.
+	 */
+	public boolean remove(Rectangle bounds, T value) {
+		Quadrant<T> quadrant = root;
+		while (quadrant != null) {
+			Iterator<Entry<T>> it = quadrant.entries.iterator();
+			while (it.hasNext()) {
+				Entry<T> entry = it.next();
+				if (entry.value == value && entry.bounds.equals(bounds)) {
+					it.remove();
+					size--;
+					return true;
+				}
+			}
+			quadrant = (quadrant.children == null) ? null : childContaining(quadrant, bounds);
+		}
+		return false;
+	}
+
+	public void clear() {
+		root.entries.clear();
+		root.children = null;
+		size = 0;
+	}
+
+	/**
+	 * Visit every rectangle that intersects the given area.
+	 */
+	public void query(Rectangle area, EntryVisitor<T> visitor) {
+		query(root, area, visitor);
+	}
+
+	private void query(Quadrant<T> quadrant, Rectangle area, EntryVisitor<T> visitor) {
+		for (Entry<T> entry : quadrant.entries)
+			if (entry.bounds.intersects(area))
+				visitor.visit(entry.bounds, entry.value);
+		if (quadrant.children != null)
+			for (Quadrant<T> child : quadrant.children)
+				if (child.bounds.intersects(area))
+					query(child, area, visitor);
+	}
+
+	/**
+	 * Values of every rectangle that intersects the given area. A value that was inserted with several
+	 * rectangles is returned once per matching rectangle.
+	 */
+	public List<T> query(Rectangle area) {
+		final List<T> result = new ArrayList<>();
+		query(area, new EntryVisitor<T>() {
+			public void visit(Rectangle bounds, T value) {
+				result.add(value);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Returns true if any rectangle intersects the given area.
+	 */
+	public boolean intersects(Rectangle area) {
+		return intersects(root, area);
+	}
+
+	private boolean intersects(Quadrant<T> quadrant, Rectangle area) {
+		for (Entry<T> entry : quadrant.entries)
+			if (entry.bounds.intersects(area))
+				return true;
+		if (quadrant.children != null)
+			for (Quadrant<T> child : quadrant.children)
+				if (child.bounds.intersects(area) && intersects(child, area))
+					return true;
+		return false;
+	}
+
+	/**
+	 * Returns true if any rectangle contains the given point.
+	 */
+	public boolean contains(int x, int y) {
+		Quadrant<T> quadrant = root;
+		while (quadrant != null) {
+			for (Entry<T> entry : quadrant.entries)
+				if (entry.bounds.contains(x, y))
+					return true;
+			Quadrant<T> next = null;
+			if (quadrant.children != null)
+				for (Quadrant<T> child : quadrant.children)
+					if (child.bounds.contains(x, y))
+						next = child;
+			quadrant = next;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,262 @@
+package Map;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A path stored as its start point and a chain code: the direction of every step. Paths only ever move
+ * between the four neighbors of a node, so a step is one of {@link #UP}, {@link #LEFT}, {@link #RIGHT} or
+ * {@link #DOWN} and fits into two bits. 32 steps are packed into every long, which makes a route about 200
+ * times smaller than the same path as a list of {@link Node}s.
+ *
+ * The coordinates along the route are never stored; a {@link Cursor} works them out one step at a time.
+ * Rows and columns are node coordinates, i.e. {@link Node#getX()} and {@link Node#getY()}. Routes are
+ * immutable.
+ */
+public final class Route implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Step directions, named after the neighbors of a {@link Node}. Opposite directions add up to 3.
+	 */
+	public static final int UP = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int DOWN = 3;
+
+	private static final int[] ROW_STEP = { -1, 0, 0, 1 };
+	private static final int[] COL_STEP = { 0, -1, 1, 0 };
+
+	/**
+	 * Number of steps packed into one long.
+	 */
+	private static final int STEPS_PER_WORD = 32;
+
+	private final int startRow;
+	private final int startCol;
+	private final int stepCount;
+
+	/**
+	 * Step i is held in bits 2 * (i % 32) and up of word i / 32.
+	 */
+	private final long[] codes;
+
+	private Route(int startRow, int startCol, int stepCount, long[] codes) {
+		this.startRow = startRow;
+		this.startCol = startCol;
+		this.stepCount = stepCount;
+		this.codes = codes;
+	}
+
+	/**
+	 * A route from the given start taking the given steps.
+	 *
+	 * @throws IllegalArgumentException if a direction is not one of the four directions.
+	 */
+	public static Route of(int startRow, int startCol, int[] directions) {
+		Builder builder = new Builder(startRow, startCol);
+		for (int direction : directions)
+			builder.step(direction);
+		return builder.build();
+	}
+
+	/**
+	 * A route from its packed steps, as returned by {@link #getCodes()}.
+	 *
+	 * @throws IllegalArgumentException if there are too few codes for the number of steps.
+	 */
+	public static Route fromCodes(int startRow, int startCol, int stepCount, long[] codes) {
+		int words = (stepCount + STEPS_PER_WORD - 1) / STEPS_PER_WORD;
+		if (stepCount < 0 || codes.length < words)
+			throw new IllegalArgumentException(stepCount + " steps don't fit into " + codes.length + " words of codes.");
+		long[] copy = Arrays.copyOf(codes, words);
+		// Clear the bits past the last step, so equal routes have equal codes.
+		if (stepCount % STEPS_PER_WORD != 0)
+			copy[words - 1] &= (1L << ((stepCount % STEPS_PER_WORD) << 1)) - 1;
+		return new Route(startRow, startCol, stepCount, copy);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the path is empty or two consecutive nodes aren't neighbors.
+	 */
+	public static Route fromNodes(List<Node> nodes) {
+		if (nodes.isEmpty())
+			throw new IllegalArgumentException("A route needs at least one node.");
+		Builder builder = new Builder(nodes.get(0).getX(), nodes.get(0).getY());
+		for (int i = 1; i < nodes.size(); i++)
+			builder.stepTo(nodes.get(i).getX(), nodes.get(i).getY());
+		return builder.build();
+	}
+
+	/**
+	 * Direction of the step between two neighbors.
+	 *
+	 * @throws IllegalArgumentException if the step isn't to a neighbor.
+	 */
+	public static int direction(int rowStep, int colStep) {
+		for (int direction = UP; direction <= DOWN; direction++)
+			if (ROW_STEP[direction] == rowStep && COL_STEP[direction] == colStep)
+				return direction;
+		throw new IllegalArgumentException("(" + rowStep + "," + colStep + ") is not a step to a neighbor.");
+	}
+
+	/**
+	 * The nodes along the route, without terrain or neighbors (like the ones a profile is loaded with).
+	 */
+	public ArrayList<Node> toNodes() {
+		ArrayList<Node> nodes = new ArrayList<>(getNodeCount());
+		Cursor cursor = cursor();
+		do {
+			nodes.add(new Node(cursor.getRow(), cursor.getCol()));
+		} while (cursor.next());
+		return nodes;
+	}
+
+	/**
+	 * A cursor on the start of the route.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	public int getStartRow() {
+		return startRow;
+	}
+
+	public int getStartCol() {
+		return startCol;
+	}
+
+	/**
+	 * Number of steps, one less than the number of nodes.
+	 */
+	public int getStepCount() {
+		return stepCount;
+	}
+
+	public int getNodeCount() {
+		return stepCount + 1;
+	}
+
+	/**
+	 * The packed steps: step i is held in bits 2 * (i % 32) and up of word i / 32.
+	 */
+	public long[] getCodes() {
+		return codes.clone();
+	}
+
+	public int getStep(int index) {
+		if (index < 0 || index >= stepCount)
+			throw new IndexOutOfBoundsException("Step " + index + " of a route with " + stepCount + " steps.");
+		return (int) (codes[index / STEPS_PER_WORD] >>> ((index % STEPS_PER_WORD) << 1)) & 3;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Route))
+			return false;
+		Route other = (Route) obj;
+		return startRow == other.startRow && startCol == other.startCol && stepCount == other.stepCount
+				&& Arrays.equals(codes, other.codes);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * startRow + startCol) + Arrays.hashCode(codes);
+	}
+
+	@Override
+	public String toString() {
+		return "Route from (" + startRow + "," + startCol + "), " + stepCount + " steps";
+	}
+
+	/**
+	 * Walks along a route one node at a time, starting on its first node.
+	 */
+	public final class Cursor {
+		private int index = 0;
+		private int row = startRow;
+		private int col = startCol;
+
+		private Cursor() {
+		}
+
+		/**
+		 * Move to the next node. Returns false, without moving, if this is the last node.
+		 */
+		public boolean next() {
+			if (index == stepCount)
+				return false;
+			int step = (int) (codes[index / STEPS_PER_WORD] >>> ((index % STEPS_PER_WORD) << 1)) & 3;
+			row += ROW_STEP[step];
+			col += COL_STEP[step];
+			index++;
+			return true;
+		}
+
+		/**
+		 * Position of the current node along the route, 0 for the start.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public int getRow() {
+			return row;
+		}
+
+		public int getCol() {
+			return col;
+		}
+	}
+
+	/**
+	 * Builds a route one step at a time.
+	 */
+	public static final class Builder {
+		private final int startRow;
+		private final int startCol;
+		private int row;
+		private int col;
+		private int stepCount = 0;
+		private long[] codes = new long[4];
+
+		public Builder(int startRow, int startCol) {
+			this.startRow = startRow;
+			this.startCol = startCol;
+			this.row = startRow;
+			this.col = startCol;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if the direction is not one of the four directions.
+		 */
+		public Builder step(int direction) {
+			if (direction < UP || direction > DOWN)
+				throw new IllegalArgumentException("Unknown direction " + direction + ".");
+			if (stepCount == codes.length * STEPS_PER_WORD)
+				codes = Arrays.copyOf(codes, codes.length * 2);
+			codes[stepCount / STEPS_PER_WORD] |= (long) direction << ((stepCount % STEPS_PER_WORD) << 1);
+			stepCount++;
+			row += ROW_STEP[direction];
+			col += COL_STEP[direction];
+			return this;
+		}
+
+		/**
+		 * Step to the given node, which has to be a neighbor of the last one.
+		 *
+		 * @throws IllegalArgumentException if it isn't.
+		 */
+		public Builder stepTo(int row, int col) {
+			return step(direction(row - this.row, col - this.col));
+		}
+
+		public Route build() {
+			return new Route(startRow, startCol, stepCount, Arrays.copyOf(codes, (stepCount + STEPS_PER_WORD - 1) / STEPS_PER_WORD));
+		}
+	}
+}
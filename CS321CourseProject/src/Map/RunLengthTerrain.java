@@ -0,0 +1,306 @@
+package Map;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Run-length encoded walkability of a grid.
+ *
+ * Campus terrain comes in long runs (building footprints, lawns, roads), so each row only stores the
+ * columns at which the terrain toggles between blocked and walkable. Every row starts out blocked, so a
+ * cell is walkable when an odd number of toggles lie at or before its column. Looking up a cell is a
+ * binary search over the toggles of its row.
+ *
+ * This is also the on-disk encoding of the grid: rows are written as varint-encoded gaps between toggles,
+ * which is a tiny fraction of the size of a serialized {@link EdgelessNode}[][].
+ */
+public class RunLengthTerrain implements WalkableGrid {
+
+	/**
+	 * Written at the start of every encoded grid, so we don't try to decode something else.
+	 */
+	private static final int MAGIC = 0x524C4554; // "RLET"
+
+	private static final int[] NO_TOGGLES = new int[0];
+
+	private final int rows;
+	private final int cols;
+
+	/**
+	 * For every row, the sorted columns at which the terrain switches between blocked and walkable.
+	 */
+	private final int[][] toggles;
+
+	public RunLengthTerrain(int rows, int cols) {
+		if (rows <= 0 || cols <= 0)
+			throw new IllegalArgumentException("A grid must have at least one row and one column.");
+		this.rows = rows;
+		this.cols = cols;
+		this.toggles = new int[rows][];
+		Arrays.fill(toggles, NO_TOGGLES);
+	}
+
+	public static RunLengthTerrain fromNodes(Node[][] nodes) {
+		RunLengthTerrain terrain = new RunLengthTerrain(nodes.length, nodes[0].length);
+		int[] scratch = new int[terrain.cols + 1];
+		for (int row = 0; row < terrain.rows; row++) {
+			int count = 0;
+			boolean walkable = false;
+			for (int col = 0; col < terrain.cols; col++) {
+				boolean cell = nodes[row][col].getTerrain() == Terrain.WALKABLE;
+				if (cell != walkable) {
+					scratch[count++] = col;
+					walkable = cell;
+				}
+			}
+			terrain.toggles[row] = (count == 0) ? NO_TOGGLES : Arrays.copyOf(scratch, count);
+		}
+		return terrain;
+	}
+
+	public static RunLengthTerrain fromBitmap(WalkabilityBitmap walkable) {
+		RunLengthTerrain terrain = new RunLengthTerrain(walkable.getRows(), walkable.getCols());
+		int[] scratch = new int[terrain.cols + 1];
+		for (int row = 0; row < terrain.rows; row++) {
+			int count = 0;
+			boolean state = false;
+			for (int col = 0; col < terrain.cols; col++) {
+				boolean cell = walkable.isWalkable(row, col);
+				if (cell != state) {
+					scratch[count++] = col;
+					state = cell;
+				}
+			}
+			terrain.toggles[row] = (count == 0) ? NO_TOGGLES : Arrays.copyOf(scratch, count);
+		}
+		return terrain;
+	}
+
+	/**
+	 * Expand the runs into a bitmap, one run at a time.
+	 */
+	public WalkabilityBitmap toBitmap() {
+		WalkabilityBitmap walkable = new WalkabilityBitmap(rows, cols);
+		for (int row = 0; row < rows; row++) {
+			int[] rowToggles = toggles[row];
+			for (int i = 0; i < rowToggles.length; i += 2) {
+				int end = (i + 1 < rowToggles.length) ? rowToggles[i + 1] : cols;
+				for (int col = rowToggles[i]; col < end; col++)
+					walkable.setWalkable(row, col, true);
+			}
+		}
+		return walkable;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * Number of runs (blocked or walkable) in the given row.
+	 */
+	public int getRunCount(int row) {
+		int[] rowToggles = toggles[row];
+		if (rowToggles.length == 0)
+			return 1;
+		return (rowToggles[0] == 0) ? rowToggles.length : rowToggles.length + 1;
+	}
+
+	public boolean isWalkable(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			return false;
+		return (togglesAtOrBefore(toggles[row], col) & 1) == 1;
+	}
+
+	public Terrain getTerrain(int row, int col) {
+		return isWalkable(row, col) ? Terrain.WALKABLE : Terrain.BLOCKED;
+	}
+
+	/**
+	 * Find the first blocked cell at or after the given column.
+	 *
+	 * @return the column of that cell, or {@link #getCols()} if the rest of the row is walkable.
+	 */
+	public int nextBlocked(int row, int col) {
+		return nextWithState(row, col, false);
+	}
+
+	/**
+	 * Find the first walkable cell at or after the given column.
+	 *
+	 * @return the column of that cell, or {@link #getCols()} if the rest of the row is blocked.
+	 */
+	public int nextWalkable(int row, int col) {
+		return nextWithState(row, col, true);
+	}
+
+	private int nextWithState(int row, int col, boolean walkable) {
+		if (col < 0)
+			col = 0;
+		if (col >= cols)
+			return cols;
+		int[] rowToggles = toggles[row];
+		int count = togglesAtOrBefore(rowToggles, col);
+		if (((count & 1) == 1) == walkable)
+			return col;
+		// The state flips at the next toggle, if there is one.
+		return (count < rowToggles.length) ? rowToggles[count] : cols;
+	}
+
+	/**
+	 * A copy that can be filled without changing this terrain. Rows are shared until they are filled, since
+	 * filling always replaces a row instead of changing it.
+	 */
+	public RunLengthTerrain copy() {
+		RunLengthTerrain copy = new RunLengthTerrain(rows, cols);
+		System.arraycopy(toggles, 0, copy.toggles, 0, rows);
+		return copy;
+	}
+
+	/**
+	 * Set every cell in the rectangle [rowStart, rowEnd) x [colStart, colEnd) to the given terrain.
+	 * Costs O(runs) per row, independent of the width of the rectangle.
+	 */
+	public void fill(int rowStart, int colStart, int rowEnd, int colEnd, Terrain terrain) {
+		rowStart = Math.max(rowStart, 0);
+		colStart = Math.max(colStart, 0);
+		rowEnd = Math.min(rowEnd, rows);
+		colEnd = Math.min(colEnd, cols);
+		if (rowStart >= rowEnd || colStart >= colEnd)
+			return;
+
+		boolean walkable = terrain == Terrain.WALKABLE;
+		for (int row = rowStart; row < rowEnd; row++)
+			toggles[row] = fillRow(toggles[row], colStart, colEnd, walkable);
+	}
+
+	private int[] fillRow(int[] rowToggles, int colStart, int colEnd, boolean walkable) {
+		int before = togglesAtOrBefore(rowToggles, colStart - 1);
+		int upTo = togglesAtOrBefore(rowToggles, colEnd);
+		boolean stateBefore = (before & 1) == 1;
+		boolean stateAfter = (upTo & 1) == 1;
+
+		int[] result = new int[rowToggles.length + 2];
+		int count = 0;
+		for (int i = 0; i < before; i++)
+			result[count++] = rowToggles[i];
+		if (stateBefore != walkable)
+			result[count++] = colStart;
+		if (colEnd < cols && stateAfter != walkable)
+			result[count++] = colEnd;
+		// Toggles strictly after colEnd are unaffected.
+		for (int i = upTo; i < rowToggles.length; i++)
+			result[count++] = rowToggles[i];
+
+		return (count == 0) ? NO_TOGGLES : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Number of toggles whose column is less than or equal to the given column.
+	 */
+	private static int togglesAtOrBefore(int[] rowToggles, int col) {
+		int low = 0;
+		int high = rowToggles.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (rowToggles[mid] <= col)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Copy the terrain into a fresh grid of nodes, with the neighbors linked up the same way
+	 * {@link UI.MapPanel} links a grid that was generated from an image.
+	 */
+	public Node[][] toNodes() {
+		Node[][] nodes = new Node[rows][cols];
+		int nodeID = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				boolean valid = isWalkable(row, col);
+				Node n = new Node(nodeID, "Node " + nodeID++, valid, (valid) ? Terrain.WALKABLE : Terrain.BLOCKED,
+						row, col, null, null, null, null);
+				nodes[row][col] = n;
+				if (col > 0) {
+					Node left = nodes[row][col - 1];
+					left.setRightNode(n);
+					n.setLeftNode(left);
+				}
+				if (row > 0) {
+					Node above = nodes[row - 1][col];
+					above.setBottomNode(n);
+					n.setTopNode(above);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		writeVarInt(out, rows);
+		writeVarInt(out, cols);
+		for (int[] rowToggles : toggles) {
+			writeVarInt(out, rowToggles.length);
+			int previous = 0;
+			for (int toggle : rowToggles) {
+				writeVarInt(out, toggle - previous);
+				previous = toggle;
+			}
+		}
+	}
+
+	public static RunLengthTerrain readFrom(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a run-length encoded terrain grid.");
+		int rows = readVarInt(in);
+		int cols = readVarInt(in);
+		RunLengthTerrain terrain = new RunLengthTerrain(rows, cols);
+		for (int row = 0; row < rows; row++) {
+			int count = readVarInt(in);
+			if (count == 0)
+				continue;
+			int[] rowToggles = new int[count];
+			int previous = 0;
+			for (int i = 0; i < count; i++) {
+				previous += readVarInt(in);
+				if (previous >= cols || (i > 0 && previous <= rowToggles[i - 1]))
+					throw new IOException("Corrupt run-length row " + row + ".");
+				rowToggles[i] = previous;
+			}
+			terrain.toggles[row] = rowToggles;
+		}
+		return terrain;
+	}
+
+	/**
+	 * Write an unsigned int using 7 bits per byte, so short gaps take a single byte.
+	 */
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint.");
+	}
+}
@@ -0,0 +1,57 @@
+package Map;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the most recently published {@link GridSnapshot} of the walkability grid.
+ *
+ * Readers (e.g. a path search running on another thread) call {@link #current()} once and keep using that
+ * snapshot for the whole search, so they never see a half-applied blockage and never need a lock.
+ * Writers describe their changes as a {@link GridUpdate}; the update is applied to a copy-on-write editor
+ * and the resulting snapshot is published with a compare-and-set. If another writer got there first, the
+ * update is simply re-applied on top of the newer version.
+ */
+public class VersionedGrid {
+
+	/**
+	 * A batch of changes that should become visible to readers all at once.
+	 */
+	public interface GridUpdate {
+		void apply(GridSnapshot.Editor editor);
+	}
+
+	private final AtomicReference<GridSnapshot> current;
+
+	public VersionedGrid(GridSnapshot initial) {
+		if (initial == null)
+			throw new IllegalArgumentException("initial snapshot cannot be null.");
+		this.current = new AtomicReference<>(initial);
+	}
+
+	/**
+	 * The latest published snapshot. It will never change, even if writers publish newer versions.
+	 */
+	public GridSnapshot current() {
+		return current.get();
+	}
+
+	public long getVersion() {
+		return current.get().getVersion();
+	}
+
+	/**
+	 * Apply the given update and publish the result as the next version.
+	 *
+	 * @return the snapshot that was published.
+	 */
+	public GridSnapshot update(GridUpdate update) {
+		while (true) {
+			GridSnapshot base = current.get();
+			GridSnapshot.Editor editor = base.edit();
+			update.apply(editor);
+			GridSnapshot next = editor.build();
+			if (current.compareAndSet(base, next))
+				return next;
+		}
+	}
+}
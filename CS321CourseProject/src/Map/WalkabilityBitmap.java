@@ -0,0 +1,72 @@
+package Map;
+
+import java.io.Serializable;
+
+/**
+ * Packed walkability of a grid: one bit per node, set when the node is walkable.
+ *
+ * Every row starts on a fresh long, so different threads can fill in different rows at the same
+ * time without ever writing to the same word.
+ */
+public final class WalkabilityBitmap implements WalkableGrid, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int rows;
+	private final int cols;
+	private final int wordsPerRow;
+	private final long[] words;
+
+	public WalkabilityBitmap(int rows, int cols) {
+		if (rows <= 0 || cols <= 0)
+			throw new IllegalArgumentException("A grid must have at least one row and one column.");
+		this.rows = rows;
+		this.cols = cols;
+		this.wordsPerRow = (cols + 63) >>> 6;
+		this.words = new long[rows * wordsPerRow];
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	public boolean isWalkable(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			return false;
+		return (words[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+	}
+
+	public void setWalkable(int row, int col, boolean walkable) {
+		int index = row * wordsPerRow + (col >>> 6);
+		if (walkable)
+			words[index] |= 1L << col;
+		else
+			words[index] &= ~(1L << col);
+	}
+
+	/**
+	 * The 64 cells starting at column (64 * wordIndex) of the given row; bit i is column (64 * wordIndex + i).
+	 */
+	public long getWord(int row, int wordIndex) {
+		return words[row * wordsPerRow + wordIndex];
+	}
+
+	public void setWord(int row, int wordIndex, long word) {
+		words[row * wordsPerRow + wordIndex] = word;
+	}
+
+	public int countWalkable() {
+		int count = 0;
+		for (long word : words)
+			count += Long.bitCount(word);
+		return count;
+	}
+}
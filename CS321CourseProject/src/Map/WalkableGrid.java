@@ -0,0 +1,16 @@
+package Map;
+
+/**
+ * Read-only walkability of a grid, whatever way it is stored.
+ */
+public interface WalkableGrid {
+
+	int getRows();
+
+	int getCols();
+
+	/**
+	 * Returns false for cells outside the grid.
+	 */
+	boolean isWalkable(int row, int col);
+}
@@ -4,7 +4,9 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Queue;
 
+import Map.GridSnapshot;
 import Map.Node;
+import Map.QuadTree;
 import Map.QueueNode;
 import Map.Terrain;
 
@@ -16,15 +18,36 @@ public class ShortestPathAlgorithm  {
 	private LinkedList<Node> path = null;
 	private Node[][] graph = null;
 	
+	/**
+	 * Walkability used while searching. When set, the search reads terrain from this snapshot instead of
+	 * the nodes themselves, so blockages saved on another thread can't change the grid mid-search.
+	 */
+	private GridSnapshot snapshot = null;
+	
+	/**
+	 * User-defined no-go zones. A search that starts or ends inside one of them fails straight away.
+	 */
+	private QuadTree<?> noGoZones = null;
 	
 
 	//IMPLEMENTING BFS
 	public ShortestPathAlgorithm(LinkedList<Node> path, Node[][] graph) 
+	{
+		this(path, graph, null);
+	}
+	
+	public ShortestPathAlgorithm(LinkedList<Node> path, Node[][] graph, GridSnapshot snapshot) 
 	{
 		this.path = path;
 		this.graph = graph;
+		this.snapshot = snapshot;
 		//this.ShortestPath();
 	}
+	
+	public void setNoGoZones(QuadTree<?> noGoZones)
+	{
+		this.noGoZones = noGoZones;
+	}
 		
 	public int calculateShortestPath(HashMap<Node, Node> discovered)
 	{
@@ -73,6 +96,11 @@ public class ShortestPathAlgorithm  {
 	  		path.add(0, source);
 	  		return -1;//error handling
 	  	}
+	  	if(noGoZones != null && (noGoZones.contains(source.getX(), source.getY()) || noGoZones.contains(dest.getX(), dest.getY())))
+	  	{
+	  		path.add(0, source);
+	  		return -1;//start or destination is inside a no-go zone
+	  	}
 	  	
 	  	Queue<QueueNode> queue = new LinkedList<QueueNode>();
 	  	QueueNode src = new QueueNode(source,0, null);
@@ -95,7 +123,7 @@ public class ShortestPathAlgorithm  {
 					int adjRow = currX + rowNum[i];
 					int adjCol = currY + colNum[i];
 					//checks to see if the integers go over the array size, if a node has not been visited, and if the node is valid
-					if(adjRow >=0 && adjRow < ROW && adjCol >= 0 && adjCol< COL && visitedNodes[adjRow][adjCol] == false && graph[adjRow][adjCol].getTerrain() == Terrain.WALKABLE)
+					if(adjRow >=0 && adjRow < ROW && adjCol >= 0 && adjCol< COL && visitedNodes[adjRow][adjCol] == false && isWalkable(graph, adjRow, adjCol))
 					{
 						visitedNodes[adjRow][adjCol] = true;
 						QueueNode adjNode = new QueueNode(graph[adjRow][adjCol],currNode.getDistance()+1, currNode);
@@ -111,6 +139,13 @@ public class ShortestPathAlgorithm  {
 		return -1;//fails if reached here (no valid path)
 	}
 	
+	private boolean isWalkable(Node[][] graph, int row, int col)
+	{
+		if (snapshot != null)
+			return snapshot.isWalkable(row, col);
+		return graph[row][col].getTerrain() == Terrain.WALKABLE;
+	}
+	
 	
 
 	
@@ -0,0 +1,60 @@
+package Preprocessing;
+
+import java.awt.Rectangle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import Map.GridCache;
+import Map.RunLengthTerrain;
+import Map.Terrain;
+
+/**
+ * The terrain of the node image with the areas the user blocked off filled in. Every stage that should see
+ * the blockages reads this one instead of the plain terrain, so saving or clearing a selection only rebuilds
+ * what is downstream of here.
+ */
+public class BlockedTerrainStage extends GridCache.StoredArtifact<RunLengthTerrain> {
+
+	private final GridCache.Artifact<RunLengthTerrain> terrain;
+
+	/**
+	 * Blocked areas in node coordinates, where x is the row (as returned by {@link UI.Selection#getRectangles()}).
+	 */
+	private final List<Rectangle> blockages = new ArrayList<>();
+
+	public BlockedTerrainStage(GridCache.Artifact<RunLengthTerrain> terrain, List<Rectangle> blockages) {
+		super("blocked-terrain", 1, terrain);
+		this.terrain = terrain;
+		for (Rectangle blockage : blockages)
+			this.blockages.add(new Rectangle(blockage));
+	}
+
+	@Override
+	public String getParameters() {
+		StringBuilder parameters = new StringBuilder();
+		for (Rectangle r : blockages)
+			parameters.append(r.x).append(',').append(r.y).append(',').append(r.width).append(',').append(r.height).append(';');
+		return parameters.toString();
+	}
+
+	@Override
+	protected RunLengthTerrain build(GridCache cache) throws IOException {
+		RunLengthTerrain blocked = cache.get(terrain).copy();
+		for (Rectangle r : blockages)
+			blocked.fill(r.x, r.y, r.x + r.width, r.y + r.height, Terrain.BLOCKED);
+		return blocked;
+	}
+
+	@Override
+	protected void write(RunLengthTerrain value, DataOutput out) throws IOException {
+		value.writeTo(out);
+	}
+
+	@Override
+	protected RunLengthTerrain read(DataInput in) throws IOException {
+		return RunLengthTerrain.readFrom(in);
+	}
+}
@@ -0,0 +1,29 @@
+package Preprocessing;
+
+import java.io.IOException;
+
+import Map.ConnectedComponents;
+import Map.GridCache;
+import Map.RunLengthTerrain;
+
+/**
+ * Connected components of the blocked terrain. Labeling the campus takes a few tens of milliseconds, less than
+ * inflating millions of stored labels would, so the labels are only kept in memory.
+ *
+ * The labels are not tied to any particular {@link Map.GridSnapshot}; use
+ * {@link ConnectedComponents#forVersion(long)} to mark which snapshot they describe.
+ */
+public class ComponentsStage extends GridCache.Artifact<ConnectedComponents> {
+
+	private final GridCache.Artifact<RunLengthTerrain> terrain;
+
+	public ComponentsStage(GridCache.Artifact<RunLengthTerrain> terrain) {
+		super("components", 1, terrain);
+		this.terrain = terrain;
+	}
+
+	@Override
+	protected ConnectedComponents build(GridCache cache) throws IOException {
+		return ConnectedComponents.label(cache.get(terrain).toBitmap(), -1);
+	}
+}
@@ -0,0 +1,143 @@
+package Preprocessing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import Map.GridCache;
+
+/**
+ * Schedules the preprocessing stages that derive data from the grid (blocked terrain, component labels,
+ * clearance, landmarks, ...).
+ *
+ * A stage is a {@link GridCache.Artifact}: it declares the stages it reads as its inputs and produces one
+ * output, which the cache persists and keys by the inputs it was made from. Running the pipeline brings the
+ * requested stages and everything upstream of them up to date. Stages are started as soon as all of their
+ * inputs are done, so independent stages run at the same time on the executor.
+ *
+ * Nothing is recomputed needlessly: a stage whose key still matches (same source image, same parameters,
+ * same inputs) comes straight from memory or disk. Changing the node image rebuilds everything; changing
+ * the blockages only rebuilds the stages downstream of {@link BlockedTerrainStage}.
+ */
+public class Pipeline {
+
+	private final GridCache cache;
+	private final ExecutorService executor;
+
+	/**
+	 * @param executor runs the stages. Must not be the thread calling {@link #run(GridCache.Artifact...)},
+	 *        which waits for the stages to finish.
+	 */
+	public Pipeline(GridCache cache, ExecutorService executor) {
+		this.cache = cache;
+		this.executor = executor;
+	}
+
+	public GridCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Output of a stage, computing it (and its inputs) first if needed.
+	 */
+	public <T> T get(GridCache.Artifact<T> stage) throws IOException {
+		return cache.get(stage);
+	}
+
+	/**
+	 * Bring the given stages and everything they depend on up to date, and wait until they are.
+	 *
+	 * @throws IOException the first failure of any stage. Stages downstream of a failed stage are skipped.
+	 */
+	public void run(GridCache.Artifact<?>... targets) throws IOException {
+		long start = System.nanoTime();
+
+		// Every stage that is needed, with the stages that have to wait for it.
+		final LinkedHashMap<GridCache.Artifact<?>, List<GridCache.Artifact<?>>> dependents = new LinkedHashMap<>();
+		for (GridCache.Artifact<?> target : targets)
+			collect(target, dependents, new ArrayList<GridCache.Artifact<?>>());
+
+		final HashMap<GridCache.Artifact<?>, AtomicInteger> waitingFor = new HashMap<>();
+		for (GridCache.Artifact<?> stage : dependents.keySet())
+			waitingFor.put(stage, new AtomicInteger(distinctInputs(stage).size()));
+
+		final CountDownLatch finished = new CountDownLatch(dependents.size());
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		for (GridCache.Artifact<?> stage : dependents.keySet())
+			if (waitingFor.get(stage).get() == 0)
+				submit(stage, dependents, waitingFor, finished, failure);
+
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for preprocessing.", e);
+		}
+
+		Throwable error = failure.get();
+		if (error instanceof IOException)
+			throw (IOException) error;
+		if (error instanceof RuntimeException)
+			throw (RuntimeException) error;
+		if (error != null)
+			throw new IOException("Preprocessing failed.", error);
+
+		System.out.println("Preprocessing: " + dependents.size() + " stage(s) up to date in "
+				+ ((System.nanoTime() - start) / 1000000) + " ms.");
+	}
+
+	/**
+	 * Add the stage and everything upstream of it, rejecting cycles.
+	 */
+	private static void collect(GridCache.Artifact<?> stage, LinkedHashMap<GridCache.Artifact<?>, List<GridCache.Artifact<?>>> dependents,
+			List<GridCache.Artifact<?>> path) {
+		if (path.contains(stage))
+			throw new IllegalArgumentException("Preprocessing stage " + stage.getName() + " depends on itself.");
+		if (dependents.containsKey(stage))
+			return;
+
+		path.add(stage);
+		for (GridCache.Artifact<?> input : distinctInputs(stage)) {
+			collect(input, dependents, path);
+			dependents.get(input).add(stage);
+		}
+		path.remove(path.size() - 1);
+		dependents.put(stage, new ArrayList<GridCache.Artifact<?>>());
+	}
+
+	private static List<GridCache.Artifact<?>> distinctInputs(GridCache.Artifact<?> stage) {
+		List<GridCache.Artifact<?>> inputs = new ArrayList<>();
+		for (GridCache.Artifact<?> input : stage.getInputs())
+			if (!inputs.contains(input))
+				inputs.add(input);
+		return inputs;
+	}
+
+	private void submit(final GridCache.Artifact<?> stage, final LinkedHashMap<GridCache.Artifact<?>, List<GridCache.Artifact<?>>> dependents,
+			final HashMap<GridCache.Artifact<?>, AtomicInteger> waitingFor, final CountDownLatch finished,
+			final AtomicReference<Throwable> failure) {
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					if (failure.get() == null)
+						cache.get(stage);
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				} finally {
+					// Start every stage that was only waiting for this one.
+					for (GridCache.Artifact<?> dependent : dependents.get(stage))
+						if (waitingFor.get(dependent).decrementAndGet() == 0)
+							submit(dependent, dependents, waitingFor, finished, failure);
+					finished.countDown();
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,78 @@
+package Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.BlockCompressedStore;
+
+public class BlockCompressedStoreTest {
+
+	/**
+	 * Runs of identical bytes, like a grid.
+	 */
+	private static byte[] runs(int length, Random random) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; ) {
+			byte value = (byte) random.nextInt(4);
+			for (int run = 1 + random.nextInt(500); run > 0 && i < length; run--)
+				data[i++] = value;
+		}
+		return data;
+	}
+
+	private static File store(byte[] data, int blockSize) throws IOException {
+		File file = File.createTempFile("blocks", ".bin");
+		file.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		BlockCompressedStore.write(data, data.length, blockSize, Deflater.DEFAULT_COMPRESSION, out);
+		out.close();
+		return file;
+	}
+
+	/**
+	 * Reads anywhere in the store, including ones spanning blocks, must return the original bytes.
+	 */
+	@Test
+	public void randomAccessTest() throws IOException {
+		Random random = new Random(11);
+		byte[] data = runs(100000, random);
+		BlockCompressedStore.Reader reader = new BlockCompressedStore.Reader(new RandomAccessFile(store(data, 4096), "r"));
+		try {
+			Assert.assertEquals(25, reader.getBlockCount());
+			Assert.assertTrue(reader.getCompressedLength() < data.length / 10);
+			for (int i = 0; i < 200; i++) {
+				int position = random.nextInt(data.length);
+				int length = random.nextInt(Math.min(10000, data.length - position) + 1);
+				byte[] read = new byte[length];
+				reader.read(position, read, 0, length);
+				for (int j = 0; j < length; j++)
+					Assert.assertEquals(data[position + j], read[j]);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void streamTest() throws IOException {
+		byte[] data = runs(10001, new Random(3));
+		BlockCompressedStore.Reader reader = new BlockCompressedStore.Reader(new RandomAccessFile(store(data, 1000), "r"));
+		try {
+			InputStream in = reader.openStream();
+			for (int i = 0; i < data.length; i++)
+				Assert.assertEquals(data[i] & 0xff, in.read());
+			Assert.assertEquals(-1, in.read());
+		} finally {
+			reader.close();
+		}
+	}
+}
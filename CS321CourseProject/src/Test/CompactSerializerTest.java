@@ -0,0 +1,105 @@
+package Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.GridBuilder;
+import Map.GridSnapshot;
+import Map.Node;
+import Map.Route;
+import Map.Terrain;
+import Map.WalkabilityBitmap;
+import Util.HessianSerializer;
+
+public class CompactSerializerTest {
+
+	private static WalkabilityBitmap randomBitmap(int rows, int cols, long seed) {
+		Random random = new Random(seed);
+		WalkabilityBitmap bitmap = new WalkabilityBitmap(rows, cols);
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++)
+				bitmap.setWalkable(row, col, random.nextInt(3) != 0);
+		return bitmap;
+	}
+
+	private static void assertSameCells(WalkabilityBitmap expected, WalkabilityBitmap actual) {
+		Assert.assertEquals(expected.getRows(), actual.getRows());
+		Assert.assertEquals(expected.getCols(), actual.getCols());
+		for (int row = 0; row < expected.getRows(); row++)
+			for (int col = 0; col < expected.getCols(); col++)
+				Assert.assertEquals(expected.isWalkable(row, col), actual.isWalkable(row, col));
+	}
+
+	/**
+	 * A node in a linked grid is written without its neighbors, so serializing it doesn't walk the graph.
+	 */
+	@Test
+	public void nodeTest() throws IOException {
+		Node[][] nodes = new GridBuilder().build(randomBitmap(200, 300, 1));
+		Node node = nodes[120][45];
+		byte[] bytes = HessianSerializer.serialize(node);
+		// Most of it is the class definition, which is only sent once per message.
+		Assert.assertTrue(bytes.length < 64);
+
+		Node copy = (Node) HessianSerializer.deserialize(bytes);
+		Assert.assertEquals(120, copy.getX());
+		Assert.assertEquals(45, copy.getY());
+		Assert.assertEquals(node.getTerrain(), copy.getTerrain());
+		Assert.assertEquals(node.isValid(), copy.isValid());
+		Assert.assertNull(copy.getTopNode());
+	}
+
+	/**
+	 * Nodes that appear twice in a list come back as the same object.
+	 */
+	@Test
+	public void referenceTest() throws IOException {
+		Node first = new Node(-1, "", true, Terrain.WALKABLE, 3, 4, null, null, null, null);
+		Node second = new Node(-1, "", false, Terrain.BLOCKED, 5, 6, null, null, null, null);
+		ArrayList<Node> nodes = new ArrayList<>(Arrays.asList(first, second, first));
+
+		@SuppressWarnings("unchecked")
+		ArrayList<Node> copy = (ArrayList<Node>) HessianSerializer.deserialize(HessianSerializer.serialize(nodes));
+		Assert.assertEquals(nodes, copy);
+		Assert.assertSame(copy.get(0), copy.get(2));
+		Assert.assertEquals(Terrain.BLOCKED, copy.get(1).getTerrain());
+		Assert.assertFalse(copy.get(1).isValid());
+	}
+
+	@Test
+	public void routeTest() throws IOException {
+		Random random = new Random(2);
+		int[] steps = new int[1001];
+		for (int i = 0; i < steps.length; i++)
+			steps[i] = random.nextInt(4);
+		Route route = Route.of(10, 20, steps);
+		byte[] bytes = HessianSerializer.serialize(route);
+		Assert.assertTrue(bytes.length < 300);
+		Assert.assertEquals(route, HessianSerializer.deserialize(bytes));
+		Assert.assertEquals(route, Route.fromNodes(route.toNodes()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void routeGapTest() {
+		Route.fromNodes(Arrays.asList(new Node(0, 0), new Node(0, 1), new Node(1, 2)));
+	}
+
+	@Test
+	public void gridTest() throws IOException {
+		WalkabilityBitmap bitmap = randomBitmap(130, 200, 3);
+		byte[] bytes = HessianSerializer.serialize(bitmap);
+		Assert.assertTrue(bytes.length < 130 * bitmap.getWordsPerRow() * 8 + 64);
+		assertSameCells(bitmap, (WalkabilityBitmap) HessianSerializer.deserialize(bytes));
+
+		GridSnapshot snapshot = GridSnapshot.fromBitmap(bitmap, 7);
+		assertSameCells(bitmap, snapshot.toBitmap());
+		GridSnapshot copy = (GridSnapshot) HessianSerializer.deserialize(HessianSerializer.serialize(snapshot));
+		Assert.assertEquals(7, copy.getVersion());
+		assertSameCells(bitmap, copy.toBitmap());
+	}
+}
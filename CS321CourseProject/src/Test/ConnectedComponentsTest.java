@@ -0,0 +1,35 @@
+package Test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.ConnectedComponents;
+import Map.GridSnapshot;
+
+public class ConnectedComponentsTest {
+
+	/**
+	 * A wall down the middle of the grid splits it into two components, and a gap in the wall joins them again.
+	 */
+	@Test
+	public void wallTest() {
+		GridSnapshot.Editor editor = GridSnapshot.empty(50, 80).edit();
+		for (int row = 0; row < 50; row++)
+			for (int col = 0; col < 80; col++)
+				editor.setWalkable(row, col, col != 40);
+		GridSnapshot walled = editor.build();
+
+		ConnectedComponents components = ConnectedComponents.label(walled);
+		Assert.assertEquals(2, components.getComponentCount());
+		Assert.assertEquals(walled.getVersion(), components.getVersion());
+		Assert.assertTrue(components.areSeparated(0, 0, 49, 79));
+		Assert.assertFalse(components.areSeparated(0, 0, 49, 39));
+		Assert.assertEquals(ConnectedComponents.BLOCKED, components.getLabel(10, 40));
+		// Nothing is claimed about blocked cells.
+		Assert.assertFalse(components.areSeparated(10, 40, 0, 0));
+
+		GridSnapshot.Editor gap = walled.edit();
+		gap.setWalkable(25, 40, true);
+		Assert.assertEquals(1, ConnectedComponents.label(gap.build()).getComponentCount());
+	}
+}
@@ -0,0 +1,90 @@
+package Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.GridCache;
+
+public class GridCacheTest {
+
+	/**
+	 * Counts how often it was built; its value is the length of the source image.
+	 */
+	private static class SizeArtifact extends GridCache.StoredArtifact<Integer> {
+		int builds = 0;
+
+		SizeArtifact() {
+			super("size", 1);
+		}
+
+		protected Integer build(GridCache cache) throws IOException {
+			builds++;
+			return (int) cache.getSourceImage().length();
+		}
+
+		protected void write(Integer value, DataOutput out) throws IOException {
+			out.writeInt(value);
+		}
+
+		protected Integer read(DataInput in) throws IOException {
+			return in.readInt();
+		}
+	}
+
+	private static class DoubledArtifact extends GridCache.StoredArtifact<Integer> {
+		int builds = 0;
+
+		DoubledArtifact(SizeArtifact size) {
+			super("doubled", 1, size);
+		}
+
+		protected Integer build(GridCache cache) throws IOException {
+			builds++;
+			return 2 * cache.get(new SizeArtifact());
+		}
+
+		protected void write(Integer value, DataOutput out) throws IOException {
+			out.writeInt(value);
+		}
+
+		protected Integer read(DataInput in) throws IOException {
+			return in.readInt();
+		}
+	}
+
+	/**
+	 * A second cache over the same image loads what the first one built, and changing the image rebuilds
+	 * the artifact and everything computed from it.
+	 */
+	@Test
+	public void invalidationTest() throws IOException {
+		File directory = Files.createTempDirectory("gridcache").toFile();
+		File image = new File(directory, "image.bin");
+		Files.write(image.toPath(), new byte[] { 1, 2, 3 });
+
+		SizeArtifact size = new SizeArtifact();
+		DoubledArtifact doubled = new DoubledArtifact(size);
+		Assert.assertEquals(6, (int) new GridCache(directory, image, "t=1").get(doubled));
+		Assert.assertEquals(1, doubled.builds);
+
+		GridCache reopened = new GridCache(directory, image, "t=1");
+		Assert.assertTrue(reopened.isValid(doubled));
+		Assert.assertEquals(6, (int) reopened.get(doubled));
+		Assert.assertEquals(1, doubled.builds);
+		Assert.assertEquals(1, reopened.getHitCount());
+
+		Files.write(image.toPath(), new byte[] { 1, 2, 3, 4 });
+		GridCache changed = new GridCache(directory, image, "t=1");
+		Assert.assertFalse(changed.isValid(doubled));
+		Assert.assertEquals(8, (int) changed.get(doubled));
+		Assert.assertEquals(2, doubled.builds);
+
+		Assert.assertFalse(new GridCache(directory, image, "t=2").isValid(doubled));
+	}
+}
@@ -0,0 +1,68 @@
+package Test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.GridSnapshot;
+import Map.VersionedGrid;
+
+public class GridSnapshotTest {
+
+	/**
+	 * Editing a snapshot must produce a new version and leave the old one exactly as it was.
+	 */
+	@Test
+	public void editDoesNotChangeBaseSnapshotTest() {
+		GridSnapshot base = GridSnapshot.empty(200, 300);
+		GridSnapshot.Editor editor = base.edit();
+		editor.setWalkable(10, 20, true);
+		GridSnapshot next = editor.build();
+
+		Assert.assertFalse(base.isWalkable(10, 20));
+		Assert.assertTrue(next.isWalkable(10, 20));
+		Assert.assertEquals(base.getVersion() + 1, next.getVersion());
+	}
+
+	/**
+	 * Only the tile containing the edited cell should be copied. Every other tile is shared.
+	 */
+	@Test
+	public void onlyChangedTilesAreCopiedTest() {
+		GridSnapshot base = GridSnapshot.empty(200, 300);
+		GridSnapshot.Editor editor = base.edit();
+		editor.setWalkable(10, 20, true);
+		editor.setWalkable(11, 21, true);
+		GridSnapshot next = editor.build();
+
+		Assert.assertEquals(1, editor.getCopiedTileCount());
+		Assert.assertFalse(next.sharesTileWith(base, 10, 20));
+		Assert.assertTrue(next.sharesTileWith(base, 150, 250));
+	}
+
+	/**
+	 * A reader holding an old snapshot keeps a consistent view after a writer publishes.
+	 */
+	@Test
+	public void readerKeepsItsVersionTest() {
+		VersionedGrid grid = new VersionedGrid(GridSnapshot.empty(100, 100));
+		GridSnapshot reader = grid.current();
+
+		grid.update(new VersionedGrid.GridUpdate() {
+			public void apply(GridSnapshot.Editor editor) {
+				for (int col = 0; col < 100; col++)
+					editor.setWalkable(50, col, true);
+			}
+		});
+
+		Assert.assertFalse(reader.isWalkable(50, 99));
+		Assert.assertTrue(grid.current().isWalkable(50, 99));
+		Assert.assertEquals(1, grid.getVersion());
+	}
+
+	@Test
+	public void outOfBoundsIsBlockedTest() {
+		GridSnapshot snapshot = GridSnapshot.empty(10, 10);
+		Assert.assertFalse(snapshot.isWalkable(-1, 0));
+		Assert.assertFalse(snapshot.isWalkable(0, 10));
+	}
+}
@@ -0,0 +1,63 @@
+package Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.HessianSerializer;
+
+public class HessianSerializerTest {
+
+	private static ArrayList<Integer> numbers(int count) {
+		ArrayList<Integer> numbers = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			numbers.add(i * 31);
+		return numbers;
+	}
+
+	/**
+	 * Every variant writes the same bytes, and each of them reads back what was written. Serializing the
+	 * same objects again on the same thread reuses the writer without leaking references between calls.
+	 */
+	@Test
+	public void roundTripTest() throws IOException {
+		ArrayList<Integer> numbers = numbers(5000);
+		byte[] bytes = HessianSerializer.serialize(numbers);
+		Assert.assertArrayEquals(bytes, HessianSerializer.serialize(numbers));
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		HessianSerializer.serialize(numbers, stream);
+		Assert.assertArrayEquals(bytes, stream.toByteArray());
+
+		ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 10);
+		HessianSerializer.serialize(numbers, buffer);
+		Assert.assertEquals(bytes.length, buffer.position());
+		buffer.flip();
+		Assert.assertEquals(numbers, HessianSerializer.deserialize(buffer));
+		Assert.assertFalse(buffer.hasRemaining());
+
+		Assert.assertEquals(numbers, HessianSerializer.deserialize(bytes));
+		Assert.assertEquals(numbers, HessianSerializer.deserialize(new ByteArrayInputStream(bytes)));
+		Assert.assertEquals(numbers, HessianSerializer.deserialize(HessianSerializer.serializeToBuffer(numbers)));
+	}
+
+	@Test
+	public void overflowTest() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put((byte) 1);
+		try {
+			HessianSerializer.serialize(numbers(5000), buffer);
+			Assert.fail("The list doesn't fit into 64 bytes.");
+		} catch (BufferOverflowException e) {
+			Assert.assertEquals(1, buffer.position());
+		}
+		// The thread's writer is still usable afterwards.
+		Assert.assertEquals(numbers(3), HessianSerializer.deserialize(HessianSerializer.serialize(numbers(3))));
+	}
+}
@@ -0,0 +1,53 @@
+package Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import UI.OverlayLayer;
+
+public class OverlayLayerTest {
+
+	@Test
+	public void currentTest() {
+		OverlayLayer layer = new OverlayLayer();
+		Assert.assertFalse(layer.isCurrent(1.0, 1L));
+
+		layer.update(new Rectangle(0, 0, 2, 2), 1.0, 1L);
+		Assert.assertTrue(layer.isCurrent(1.0, 1L));
+		Assert.assertFalse(layer.isCurrent(0.5, 1L));
+		Assert.assertFalse(layer.isCurrent(1.0, 2L));
+		Assert.assertEquals(1, layer.getBuildCount());
+
+		layer.invalidate();
+		Assert.assertFalse(layer.isCurrent(1.0, 1L));
+	}
+
+	/**
+	 * The shape is drawn relative to where the image is, and the graphics are left as they were.
+	 */
+	@Test
+	public void fillTest() {
+		OverlayLayer layer = new OverlayLayer();
+		layer.update(new Rectangle(0, 0, 2, 2), 1.0, null);
+		BufferedImage screen = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+		g.setColor(Color.WHITE);
+		layer.fill(g, 10, 5);
+		layer.fill(g, 0, 0);
+		//outside of the clip, so not drawn
+		g.setClip(0, 0, 5, 5);
+		layer.fill(g, 15, 15);
+		g.dispose();
+
+		Assert.assertEquals(0xffffff, screen.getRGB(11, 6) & 0xffffff);
+		Assert.assertEquals(0xffffff, screen.getRGB(1, 1) & 0xffffff);
+		Assert.assertEquals(0x000000, screen.getRGB(12, 6) & 0xffffff);
+		Assert.assertEquals(0x000000, screen.getRGB(5, 5) & 0xffffff);
+		Assert.assertEquals(0x000000, screen.getRGB(16, 16) & 0xffffff);
+	}
+}
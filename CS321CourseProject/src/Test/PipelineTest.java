@@ -0,0 +1,95 @@
+package Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.GridCache;
+import Preprocessing.Pipeline;
+
+public class PipelineTest {
+
+	/**
+	 * Sums its parameter and the values of its inputs, counting how often it was built.
+	 */
+	private static class SumStage extends GridCache.Artifact<Integer> {
+		final AtomicInteger builds = new AtomicInteger();
+		int value;
+
+		SumStage(String name, int value, GridCache.Artifact<?>... inputs) {
+			super(name, 1, inputs);
+			this.value = value;
+		}
+
+		@Override
+		public String getParameters() {
+			return Integer.toString(value);
+		}
+
+		protected Integer build(GridCache cache) throws IOException {
+			builds.incrementAndGet();
+			int sum = value;
+			for (GridCache.Artifact<?> input : getInputs())
+				sum += (Integer) cache.get(input);
+			return sum;
+		}
+	}
+
+	private static Pipeline pipeline(ExecutorService executor) throws IOException {
+		File directory = Files.createTempDirectory("pipeline").toFile();
+		File image = new File(directory, "image.bin");
+		Files.write(image.toPath(), new byte[] { 1 });
+		return new Pipeline(new GridCache(null, image, ""), executor);
+	}
+
+	/**
+	 * A diamond runs every stage exactly once, and changing a parameter only rebuilds what is downstream of it.
+	 */
+	@Test
+	public void incrementalTest() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Pipeline pipeline = pipeline(executor);
+			SumStage root = new SumStage("root", 1);
+			SumStage left = new SumStage("left", 10, root);
+			SumStage right = new SumStage("right", 100, root);
+			SumStage top = new SumStage("top", 1000, left, right);
+
+			pipeline.run(top);
+			Assert.assertEquals(1112, (int) pipeline.get(top));
+			Assert.assertEquals(1, root.builds.get());
+			Assert.assertEquals(1, left.builds.get());
+			Assert.assertEquals(1, right.builds.get());
+			Assert.assertEquals(1, top.builds.get());
+
+			right.value = 200;
+			pipeline.run(top);
+			Assert.assertEquals(1212, (int) pipeline.get(top));
+			Assert.assertEquals(1, root.builds.get());
+			Assert.assertEquals(1, left.builds.get());
+			Assert.assertEquals(2, right.builds.get());
+			Assert.assertEquals(2, top.builds.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cycleTest() throws IOException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			GridCache.Artifact<?>[] inputs = new GridCache.Artifact<?>[1];
+			SumStage first = new SumStage("first", 1, inputs);
+			inputs[0] = new SumStage("second", 2, first);
+			pipeline(executor).run(first);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
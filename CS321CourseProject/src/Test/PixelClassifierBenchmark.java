@@ -0,0 +1,141 @@
+package Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import Map.PixelClassifier;
+import Map.WalkabilityBitmap;
+
+/**
+ * Compares the original per-pixel argb loop from loadNodes with the scalar and the eight-pixels-at-a-time
+ * classifiers, on the campus image and on a synthetic 10,000 x 10,000 image. Not a unit test; run it as an
+ * application, optionally passing the path of the image to use.
+ *
+ * The synthetic image would take 300 MB as a single buffer, so it is built from a set of generated rows
+ * that are classified over and over.
+ */
+public class PixelClassifierBenchmark {
+
+	private static final int RUNS = 20;
+
+	private interface RowClassifier {
+		void classify(byte[] pixels, int offset, WalkabilityBitmap walkable, int row);
+	}
+
+	private static final RowClassifier LEGACY = new RowClassifier() {
+		public void classify(byte[] pixels, int offset, WalkabilityBitmap walkable, int row) {
+			for (int col = 0; col < walkable.getCols(); col++, offset += 3) {
+				int argbValue = 0;
+				argbValue += -16777216;
+				argbValue += ((int) pixels[offset] & 0xff);
+				argbValue += (((int) pixels[offset + 1] & 0xff) << 8);
+				argbValue += (((int) pixels[offset + 2] & 0xff) << 16);
+				walkable.setWalkable(row, col, argbValue >= -8777216);
+			}
+		}
+	};
+
+	private static final RowClassifier SCALAR = new RowClassifier() {
+		public void classify(byte[] pixels, int offset, WalkabilityBitmap walkable, int row) {
+			PixelClassifier.classifyBgrRowScalar(pixels, offset, walkable, row);
+		}
+	};
+
+	private static final RowClassifier PACKED = new RowClassifier() {
+		public void classify(byte[] pixels, int offset, WalkabilityBitmap walkable, int row) {
+			PixelClassifier.classifyBgrRow(pixels, offset, walkable, row);
+		}
+	};
+
+	public static void main(String[] args) throws IOException {
+		String imagePath = (args.length > 0) ? args[0] : "src" + File.separator + "Res" + File.separator + "CampusMapForNodes.png";
+		BufferedImage image = ImageIO.read(new File(imagePath));
+		if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+			converted.getGraphics().drawImage(image, 0, 0, null);
+			image = converted;
+		}
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		int stride = ((ComponentSampleModel) image.getRaster().getSampleModel()).getScanlineStride();
+		System.out.println("Campus image (" + image.getHeight() + " x " + image.getWidth() + "):");
+		run(pixels, stride, 0, image.getHeight(), image.getWidth());
+
+		int size = 10000;
+		int distinctRows = 64;
+		byte[] rows = syntheticRows(distinctRows, size, new Random(321));
+		System.out.println("Synthetic image (" + size + " x " + size + "):");
+		run(rows, size * 3, distinctRows, size, size);
+	}
+
+	/**
+	 * Time every classifier over the image, checking that they all agree. When distinctRows is positive, row r of
+	 * the image is row (r % distinctRows) of the buffer.
+	 */
+	private static void run(byte[] pixels, int stride, int distinctRows, int height, int width) {
+		WalkabilityBitmap expected = new WalkabilityBitmap(height, width);
+		time("legacy loop", LEGACY, pixels, stride, distinctRows, expected);
+
+		String[] names = { "scalar", "packed" };
+		RowClassifier[] classifiers = { SCALAR, PACKED };
+		for (int i = 0; i < classifiers.length; i++) {
+			WalkabilityBitmap walkable = new WalkabilityBitmap(height, width);
+			time(names[i], classifiers[i], pixels, stride, distinctRows, walkable);
+			for (int row = 0; row < height; row++)
+				for (int word = 0; word < walkable.getWordsPerRow(); word++)
+					if (walkable.getWord(row, word) != expected.getWord(row, word))
+						throw new IllegalStateException(names[i] + " disagrees with the legacy loop on row " + row + ".");
+		}
+	}
+
+	private static void time(String name, RowClassifier classifier, byte[] pixels, int stride, int distinctRows,
+			WalkabilityBitmap walkable) {
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			for (int row = 0; row < walkable.getRows(); row++)
+				classifier.classify(pixels, ((distinctRows > 0) ? row % distinctRows : row) * stride, walkable, row);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		long pixelCount = (long) walkable.getRows() * walkable.getCols();
+		System.out.println(String.format("  %-12s %8.1f ms  %6.2f ns/pixel", name, best / 1e6, (double) best / pixelCount));
+	}
+
+	/**
+	 * Rows made of runs of walkable and blocked colors (with the occasional pixel right on the threshold),
+	 * which is what a map looks like.
+	 */
+	private static byte[] syntheticRows(int count, int width, Random random) {
+		byte[] rows = new byte[count * width * 3];
+		int offset = 0;
+		for (int row = 0; row < count; row++) {
+			int col = 0;
+			while (col < width) {
+				int run = Math.min(width - col, 1 + random.nextInt(400));
+				int rgb;
+				switch (random.nextInt(5)) {
+				case 0:
+					rgb = 0x7A1200 + random.nextInt(3) * 0x100 - 0x100;
+					break;
+				case 1:
+				case 2:
+					rgb = 0x7B0000 + random.nextInt(0x850000);
+					break;
+				default:
+					rgb = random.nextInt(0x7A0000);
+				}
+				for (int i = 0; i < run; i++, col++) {
+					rows[offset++] = (byte) rgb;
+					rows[offset++] = (byte) (rgb >> 8);
+					rows[offset++] = (byte) (rgb >> 16);
+				}
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,38 @@
+package Test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.GridBuilder;
+import Map.PixelClassifier;
+import Map.WalkabilityBitmap;
+
+public class PixelClassifierTest {
+
+	/**
+	 * Colors right around the threshold, in every position of a group of eight, must be classified the same way
+	 * as the argb test.
+	 */
+	@Test
+	public void matchesThresholdTest() {
+		int[] colors = { 0x7A1200, 0x7A11FF, 0x7A12FF, 0x7B0000, 0x79FFFF, 0x7AFFFF, 0x000000, 0xFFFFFF, 0x801100, 0x7A8000 };
+		int cols = 101;
+		Random random = new Random(7);
+		byte[] pixels = new byte[cols * 3];
+		int[] rgb = new int[cols];
+		for (int run = 0; run < 200; run++) {
+			for (int col = 0; col < cols; col++) {
+				rgb[col] = colors[random.nextInt(colors.length)];
+				pixels[col * 3] = (byte) rgb[col];
+				pixels[col * 3 + 1] = (byte) (rgb[col] >> 8);
+				pixels[col * 3 + 2] = (byte) (rgb[col] >> 16);
+			}
+			WalkabilityBitmap walkable = new WalkabilityBitmap(1, cols);
+			PixelClassifier.classifyBgrRow(pixels, 0, walkable, 0);
+			for (int col = 0; col < cols; col++)
+				Assert.assertEquals(GridBuilder.isWalkable(rgb[col]), walkable.isWalkable(0, col));
+		}
+	}
+}
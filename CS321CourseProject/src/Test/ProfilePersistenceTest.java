@@ -0,0 +1,92 @@
+package Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Map.Route;
+import User.Profile;
+import User.ProfilePersistence;
+
+public class ProfilePersistenceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Profile newProfile() throws IOException {
+		File directory = folder.getRoot();
+		return Profile.loadProfile("test", new File(directory, "test.profile").getPath());
+	}
+
+	/**
+	 * A burst of changes is saved with a single write.
+	 */
+	@Test
+	public void coalesceTest() throws Exception {
+		Profile profile = newProfile();
+		ProfilePersistence persistence = new ProfilePersistence(profile, 200);
+		try {
+			for (int i = 0; i < 5; i++) {
+				profile.storePath(Route.of(i, i, new int[] { Route.DOWN }));
+				persistence.markDirty();
+			}
+			Assert.assertEquals(0, persistence.getWriteCount());
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (persistence.getWriteCount() == 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(20);
+			Assert.assertEquals(1, persistence.getWriteCount());
+			Assert.assertEquals(4, persistence.getWritesAvoided());
+			Assert.assertEquals(5, Profile.loadProfile("test", profile.getFilename()).getSavedPaths().size());
+		} finally {
+			persistence.shutdown();
+		}
+	}
+
+	/**
+	 * Shutting down saves whatever is still waiting for the interval to pass.
+	 */
+	@Test
+	public void shutdownTest() throws IOException {
+		Profile profile = newProfile();
+		ProfilePersistence persistence = new ProfilePersistence(profile, 60 * 60 * 1000);
+		profile.storePath(Route.of(1, 2, new int[] { Route.LEFT }));
+		persistence.markDirty();
+		persistence.shutdown();
+		Assert.assertEquals(1, persistence.getWriteCount());
+		Assert.assertEquals(1, Profile.loadProfile("test", profile.getFilename()).getSavedPaths().size());
+	}
+
+	/**
+	 * A save that fails leaves the profile dirty and is tried again.
+	 */
+	@Test
+	public void failedSaveTest() throws Exception {
+		Profile profile = newProfile();
+		//the journal can't be written while a directory is in its place
+		File journal = new File(profile.getFilename() + ".journals", "0.journal");
+		Assert.assertTrue(journal.mkdir());
+		ProfilePersistence persistence = new ProfilePersistence(profile, 100);
+		try {
+			profile.storePath(Route.of(1, 2, new int[] { Route.LEFT }));
+			persistence.markDirty();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (persistence.getFailedWriteCount() == 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(20);
+			Assert.assertEquals(0, persistence.getWriteCount());
+
+			Assert.assertTrue(journal.delete());
+			deadline = System.currentTimeMillis() + 5000;
+			while (persistence.getWriteCount() == 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(20);
+			Assert.assertEquals(1, persistence.getWriteCount());
+			Assert.assertEquals(1, Profile.loadProfile("test", profile.getFilename()).getSavedPaths().size());
+		} finally {
+			persistence.shutdown();
+		}
+	}
+}
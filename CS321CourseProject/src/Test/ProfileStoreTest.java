@@ -0,0 +1,157 @@
+package Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Map.Route;
+import Map.Terrain;
+import UI.Selection;
+import User.Profile;
+import User.ProfileStore;
+
+public class ProfileStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String contents(Profile profile) {
+		StringWriter text = new StringWriter();
+		profile.writeProfile(new PrintWriter(text));
+		return text.toString();
+	}
+
+	private static Selection zone(int x, int y) {
+		Selection selection = new Selection();
+		selection.addCell(x, y);
+		selection.addCell(x, y + 1);
+		selection.setTerrain(Terrain.BLOCKED);
+		return selection;
+	}
+
+	/**
+	 * Snapshots go to the pack and index, not to a file per user, and read back the same after reopening.
+	 */
+	@Test
+	public void roundTripTest() throws IOException {
+		File directory = folder.getRoot();
+		ProfileStore store = new ProfileStore(directory, 4);
+		Profile alice = store.getProfile("alice");
+		alice.storeSelection(zone(1, 2));
+		alice.storePath(Route.of(3, 3, new int[] { Route.RIGHT, Route.DOWN }));
+		alice.compact();
+		Profile bob = store.getProfile("bob");
+		bob.storeSelection(zone(5, 5));
+		bob.saveProfile();
+
+		Assert.assertTrue(new File(directory, "profiles.index").exists());
+		Assert.assertFalse(new File(directory, "alice.profile").exists());
+
+		ProfileStore reopened = new ProfileStore(directory, 4);
+		Assert.assertEquals(2, reopened.getUsernames().size());
+		Assert.assertEquals(contents(alice), contents(reopened.getProfile("alice")));
+		//bob's change is only in his journal so far
+		Assert.assertEquals(contents(bob), contents(reopened.getProfile("bob")));
+	}
+
+	/**
+	 * The least recently used profile is evicted, with its changes saved, and loads again when asked for.
+	 */
+	@Test
+	public void evictionTest() throws IOException {
+		File directory = folder.getRoot();
+		ProfileStore store = new ProfileStore(directory, 2);
+		Profile first = store.getProfile("first");
+		Profile second = store.getProfile("second");
+		second.storeSelection(zone(1, 1));
+		Assert.assertSame(first, store.getProfile("first"));
+		Assert.assertEquals(1, store.getHitCount());
+
+		//"first" was used more recently, so "second" goes
+		store.getProfile("third");
+		Assert.assertEquals(1, store.getEvictionCount());
+		Assert.assertEquals(2, store.getOpenProfileCount());
+		Assert.assertEquals(1, new ProfileStore(directory, 2).getProfile("second").getSavedSelections().size());
+
+		//still held here, so it is the same object rather than a second copy
+		Assert.assertSame(second, store.getProfile("second"));
+	}
+
+	/**
+	 * Profiles that saved the same zone share one selection.
+	 */
+	@Test
+	public void sharedZoneTest() throws IOException {
+		File directory = folder.getRoot();
+		ProfileStore store = new ProfileStore(directory, 4);
+		Profile alice = store.getProfile("alice");
+		Profile bob = store.getProfile("bob");
+		alice.storeSelection(zone(7, 7));
+		bob.storeSelection(zone(7, 7));
+		bob.storeSelection(zone(9, 9));
+
+		Assert.assertSame(alice.getSavedSelections().get(0), bob.getSavedSelections().get(0));
+		Assert.assertNotSame(alice.getSavedSelections().get(0), bob.getSavedSelections().get(1));
+		Assert.assertEquals(1, store.getSharedZoneCount());
+	}
+
+	/**
+	 * A profile saved in its own file before the store existed moves into the store.
+	 */
+	@Test
+	public void importTest() throws IOException {
+		File directory = folder.getRoot();
+		String filename = new File(directory, "carol.profile").getPath();
+		Profile legacy = Profile.loadProfile("carol", filename);
+		legacy.storeSelection(zone(4, 4));
+		legacy.compact();
+		Assert.assertTrue(new File(filename).exists());
+
+		ProfileStore store = new ProfileStore(directory, 4);
+		Profile imported = store.getProfile("carol");
+		Assert.assertEquals(contents(legacy), contents(imported));
+		Assert.assertFalse(new File(filename).exists());
+		Assert.assertEquals(contents(legacy), contents(new ProfileStore(directory, 4).getProfile("carol")));
+	}
+
+	/**
+	 * A profile that is saving while the store evicts it doesn't deadlock with the store.
+	 */
+	@Test(timeout = 60000)
+	public void concurrentEvictionTest() throws Exception {
+		final ProfileStore store = new ProfileStore(folder.getRoot(), 1);
+		final Profile alice = store.getProfile("alice");
+		//large enough that every save asks the store for the size of the snapshot
+		final Selection large = new Selection();
+		for (int i = 0; i < 5000; i++)
+			large.addCell(i, i);
+		large.setTerrain(Terrain.BLOCKED);
+
+		Thread saver = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i < 50; i++) {
+						alice.storeSelection(large);
+						alice.clearSelections();
+						alice.saveProfile();
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		saver.start();
+		while (saver.isAlive()) {
+			store.getProfile("bob");
+			store.getProfile("alice");
+		}
+		saver.join();
+		Assert.assertTrue(store.getEvictionCount() > 0);
+	}
+}
@@ -0,0 +1,256 @@
+package Test;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Map.Route;
+import Map.Terrain;
+import UI.Selection;
+import User.Profile;
+
+public class ProfileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writeProfileTest() {
+		Profile profile = new Profile("test");
+		Selection selection = new Selection();
+		selection.addCell(3, 4);
+		selection.addCell(3, 5);
+		selection.setTerrain(Terrain.BLOCKED);
+		profile.storeSelection(selection);
+		profile.storePath(Route.of(7, 8, new int[] { Route.RIGHT, Route.DOWN, Route.LEFT }));
+
+		StringWriter text = new StringWriter();
+		profile.writeProfile(new PrintWriter(text));
+		Assert.assertEquals("{\n[3,4,1,2,2]\n}\n<\n(7,8)\n231\n>\n", text.toString());
+	}
+
+	private static String contents(Profile profile) {
+		StringWriter text = new StringWriter();
+		profile.writeProfile(new PrintWriter(text));
+		return text.toString();
+	}
+
+	private static Selection selection(int x, int y, Terrain terrain) {
+		Selection selection = new Selection();
+		selection.addCell(x, y);
+		selection.setTerrain(terrain);
+		return selection;
+	}
+
+	/**
+	 * Saving appends only the change to the journal, and loading replays it, before and after compaction.
+	 */
+	@Test
+	public void journalTest() throws IOException {
+		File directory = folder.getRoot();
+		String filename = new File(directory, "test.profile").getPath();
+
+		Profile profile = Profile.loadProfile("test", filename);
+		profile.storeSelection(selection(1, 2, Terrain.BLOCKED));
+		profile.storePath(Route.of(5, 5, new int[] { Route.DOWN, Route.DOWN }));
+		profile.saveProfile();
+		File journal = new File(filename + ".journals", "0.journal");
+		Assert.assertTrue(journal.exists());
+		Assert.assertFalse(new File(filename).exists());
+		long journalLength = journal.length();
+
+		profile.removePath(0);
+		profile.storePath(Route.of(6, 6, new int[] { Route.UP }));
+		profile.saveProfile();
+		Assert.assertTrue(journal.length() - journalLength < 40);
+		Assert.assertEquals(contents(profile), contents(Profile.loadProfile("test", filename)));
+
+		profile.compact();
+		Assert.assertFalse(journal.exists());
+		Assert.assertTrue(new File(filename).exists());
+		Assert.assertEquals(contents(profile), contents(Profile.loadProfile("test", filename)));
+
+		profile.clearSelections();
+		profile.storeSelection(selection(3, 4, Terrain.WALKABLE));
+		profile.saveProfile();
+		Assert.assertTrue(new File(filename + ".journals", "1.journal").exists());
+		Profile loaded = Profile.loadProfile("test", filename);
+		Assert.assertEquals(contents(profile), contents(loaded));
+		Assert.assertEquals(1, loaded.getSavedSelections().size());
+		Assert.assertFalse(loaded.isInNoGoZone(1, 2));
+	}
+
+	/**
+	 * A record cut off by a crash while it was being appended is ignored, and what is saved after it is still
+	 * read.
+	 */
+	@Test
+	public void tornRecordTest() throws IOException {
+		File directory = folder.getRoot();
+		String filename = new File(directory, "test.profile").getPath();
+
+		Profile profile = Profile.loadProfile("test", filename);
+		profile.storeSelection(selection(1, 2, Terrain.BLOCKED));
+		profile.saveProfile();
+		String expected = contents(profile);
+
+		Files.write(new File(filename + ".journals", "0.journal").toPath(), "{\n(7,8,2)\n(7,".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		Profile loaded = Profile.loadProfile("test", filename);
+		Assert.assertEquals(expected, contents(loaded));
+
+		loaded.storePath(Route.of(5, 5, new int[] { Route.DOWN }));
+		loaded.saveProfile();
+		Assert.assertEquals(contents(loaded), contents(Profile.loadProfile("test", filename)));
+
+		//a record cut off right after one of its lines
+		Files.write(new File(filename + ".journals", "1.journal").toPath(), "{\n(7,8,2)\n".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		loaded = Profile.loadProfile("test", filename);
+		loaded.removePath(0);
+		loaded.saveProfile();
+		Profile reloaded = Profile.loadProfile("test", filename);
+		Assert.assertEquals(contents(loaded), contents(reloaded));
+		Assert.assertEquals(0, reloaded.getSavedPaths().size());
+	}
+
+	/**
+	 * A profile saved in the old text format is read once and rewritten as a binary snapshot.
+	 */
+	@Test
+	public void migrationTest() throws IOException {
+		File directory = folder.getRoot();
+		File file = new File(directory, "test.profile");
+		Files.write(file.toPath(), "{\n(3,4,2)\n(3,5,2)\n}\n<\n(1,1)\n(1,2)\n(2,2)\n>\n".getBytes(StandardCharsets.UTF_8));
+
+		Profile profile = Profile.loadProfile("test", file.getPath());
+		Assert.assertEquals("{\n[3,4,1,2,2]\n}\n<\n(1,1)\n23\n>\n", contents(profile));
+		Assert.assertTrue(profile.isInNoGoZone(3, 5));
+		Assert.assertEquals('P', Files.readAllBytes(file.toPath())[0]);
+
+		Profile reloaded = Profile.loadProfile("test", file.getPath());
+		Assert.assertEquals(contents(profile), contents(reloaded));
+		Assert.assertTrue(reloaded.isInNoGoZone(3, 5));
+
+		//sizing the index to the grid keeps the zones
+		reloaded.setGridSize(10, 10);
+		Assert.assertEquals(new Rectangle(0, 0, 10, 10), reloaded.getNoGoZones().getBounds());
+		Assert.assertTrue(reloaded.isInNoGoZone(3, 5));
+		Assert.assertFalse(reloaded.isInNoGoZone(3, 6));
+	}
+
+	/**
+	 * A zone is saved as its rectangles, so a large zone takes no more space than a small one.
+	 */
+	@Test
+	public void zoneSizeTest() throws IOException {
+		File directory = folder.getRoot();
+		String filename = new File(directory, "test.profile").getPath();
+
+		Profile profile = Profile.loadProfile("test", filename);
+		Selection zone = new Selection();
+		zone.addRectangle(0, 0, 1000, 1000);
+		zone.addRectangle(1000, 0, 1001, 1);
+		zone.setTerrain(Terrain.BLOCKED);
+		profile.storeSelection(zone);
+		profile.saveProfile();
+		Assert.assertTrue(new File(filename + ".journals", "0.journal").length() < 64);
+		profile.compact();
+		Assert.assertTrue(new File(filename).length() < 128);
+
+		Profile loaded = Profile.loadProfile("test", filename);
+		Assert.assertEquals(1000 * 1000 + 1, loaded.getSavedSelections().get(0).getCellCount());
+		Assert.assertTrue(loaded.isInNoGoZone(999, 999));
+		Assert.assertTrue(loaded.isInNoGoZone(1000, 0));
+		Assert.assertFalse(loaded.isInNoGoZone(1000, 1));
+	}
+
+	/**
+	 * A snapshot that can't be read to the end adds nothing to the profile, rather than whatever came before
+	 * the damage.
+	 */
+	@Test
+	public void truncatedSnapshotTest() throws IOException {
+		String filename = new File(folder.getRoot(), "test.profile").getPath();
+
+		Profile profile = Profile.loadProfile("test", filename);
+		profile.storeSelection(selection(1, 2, Terrain.BLOCKED));
+		profile.storePath(Route.of(5, 5, new int[] { Route.DOWN, Route.DOWN }));
+		profile.compact();
+
+		File snapshot = new File(filename);
+		byte[] bytes = Files.readAllBytes(snapshot.toPath());
+		Files.write(snapshot.toPath(), Arrays.copyOf(bytes, bytes.length - 4));
+		Profile loaded = Profile.loadProfile("test", filename);
+		Assert.assertEquals(0, loaded.getSavedSelections().size());
+		Assert.assertEquals(0, loaded.getSavedPaths().size());
+	}
+
+	/**
+	 * Journals kept next to the snapshot, as they used to be, move into the profile's journal directory and
+	 * are still replayed. Other users' journals stay where they are.
+	 */
+	@Test
+	public void journalDirectoryTest() throws IOException {
+		String filename = new File(folder.getRoot(), "test.profile").getPath();
+		File legacy = new File(filename + ".0.journal");
+		File other = new File(folder.getRoot(), "other.profile.0.journal");
+		Files.write(legacy.toPath(), "{\n[1,2,1,1,2]\n}\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(other.toPath(), "!clearSelections\n".getBytes(StandardCharsets.UTF_8));
+
+		Profile profile = Profile.loadProfile("test", filename);
+		Assert.assertEquals(1, profile.getSavedSelections().size());
+		Assert.assertFalse(legacy.exists());
+		Assert.assertTrue(other.exists());
+		Assert.assertTrue(new File(filename + ".journals", "0.journal").exists());
+
+		profile.storePath(Route.of(5, 5, new int[] { Route.DOWN }));
+		profile.saveProfile();
+		Assert.assertEquals(contents(profile), contents(Profile.loadProfile("test", filename)));
+	}
+
+	/**
+	 * A compaction that couldn't write the snapshot is tried again by the next save, not only after another
+	 * full journal's worth of changes.
+	 */
+	@Test
+	public void failedCompactionTest() throws Exception {
+		String filename = new File(folder.getRoot(), "test.profile").getPath();
+		Profile profile = Profile.loadProfile("test", filename);
+		profile.storePath(Route.of(0, 0, new int[] { Route.DOWN }));
+		profile.saveProfile();
+
+		//the snapshot can't be written while a directory that can't be deleted is in the way of its temporary file
+		File blocker = new File(filename + ".tmp");
+		Assert.assertTrue(blocker.mkdir());
+		Assert.assertTrue(new File(blocker, "file").createNewFile());
+		try {
+			profile.compact();
+			Assert.fail("The snapshot shouldn't have been written.");
+		} catch (IOException e) {
+			//expected
+		}
+		Assert.assertTrue(new File(blocker, "file").delete());
+		Assert.assertTrue(blocker.delete());
+
+		//together with the change that is still in the journals, this makes enough changes for a compaction
+		for (int i = 1; i < 64; i++)
+			profile.storePath(Route.of(i, i, new int[] { Route.DOWN }));
+		profile.saveProfile();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!new File(filename).exists() && System.currentTimeMillis() < deadline)
+			Thread.sleep(20);
+		Assert.assertTrue(new File(filename).exists());
+	}
+}
@@ -0,0 +1,165 @@
+package Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import Map.Node;
+import Map.Route;
+import Map.Terrain;
+import UI.Selection;
+import User.Profile;
+import User.ProfileTextParser;
+
+/**
+ * Compares the line-by-line text profile reader that Profile used to have (readLine and substring for every
+ * cell) with {@link ProfileTextParser}, scanning on one thread and in parallel, and with the whole of
+ * {@link Profile#loadProfile(String, String)} on the same text profile. Not a unit test; run it as an
+ * application, optionally passing the size of the generated profile in megabytes.
+ *
+ * Loading a text profile also converts it to a binary snapshot, so every run of loadProfile gets a fresh copy
+ * of the text file and its time includes that conversion.
+ */
+public class ProfileTextBenchmark {
+
+	private static final int RUNS = 5;
+
+	private interface Reader {
+		int read(File file) throws IOException;
+	}
+
+	/**
+	 * The reader Profile had before the scanner, building the same selections and routes.
+	 */
+	private static final Reader LEGACY = new Reader() {
+		public int read(File file) throws IOException {
+			int records = 0;
+			boolean inSet = false;
+			boolean inPath = false;
+			Selection currSet = new Selection();
+			ArrayList<Node> currPath = new ArrayList<>();
+			String currSteps = "";
+			try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.equals("{")) {
+						inSet = true;
+					} else if (line.equals("}")) {
+						currSet = new Selection();
+						inSet = false;
+						records++;
+					} else if (inSet) {
+						String nodeXStr = line.substring(1, line.indexOf(','));
+						String nodeYStr = line.substring(line.indexOf(',') + 1, line.lastIndexOf(','));
+						line = line.substring(line.indexOf(',') + 1);
+						String nodeTerrainStr = line.substring(line.indexOf(',') + 1, line.length() - 1);
+						currSet.addCell(Integer.parseInt(nodeXStr), Integer.parseInt(nodeYStr));
+						currSet.setTerrain(Terrain.getTerrain(Integer.parseInt(nodeTerrainStr)));
+					} else if (line.equals("<")) {
+						inPath = true;
+					} else if (line.equals(">")) {
+						Route path = Route.fromNodes(currPath);
+						Route.Builder builder = new Route.Builder(path.getStartRow(), path.getStartCol());
+						for (int i = 0; i < currSteps.length(); i++)
+							builder.step(currSteps.charAt(i) - '0');
+						builder.build();
+						currPath = new ArrayList<>();
+						currSteps = "";
+						inPath = false;
+						records++;
+					} else if (inPath && !line.startsWith("(")) {
+						currSteps += line;
+					} else if (inPath) {
+						String nodeXStr = line.substring(1, line.indexOf(','));
+						String nodeYStr = line.substring(line.indexOf(',') + 1, line.length() - 1);
+						currPath.add(new Node(Integer.parseInt(nodeXStr), Integer.parseInt(nodeYStr)));
+					}
+				}
+			}
+			return records;
+		}
+	};
+
+	/**
+	 * The scanner on the bytes of the file, building the selections and routes only if asked to.
+	 */
+	private static Reader scanner(final boolean parallel, final boolean build) {
+		return new Reader() {
+			public int read(File file) throws IOException {
+				ProfileTextParser.Records records = ProfileTextParser.parse(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), parallel);
+				for (int i = 0; build && i < records.size(); i++) {
+					if (records.getKind(i) == ProfileTextParser.SELECTION)
+						records.toSelection(i);
+					else if (records.getKind(i) == ProfileTextParser.PATH)
+						records.toRoute(i);
+				}
+				return records.size();
+			}
+		};
+	}
+
+	public static void main(String[] args) throws IOException {
+		int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		File directory = Files.createTempDirectory("profiles").toFile();
+		File text = new File(directory, "benchmark.text");
+		writeProfile(text, megabytes * 1024L * 1024L);
+		System.out.println("Text profile of " + (text.length() / 1024 / 1024) + " MB:");
+
+		time("readLine and substring", LEGACY, text);
+		time("scanner, one thread, parse only", scanner(false, false), text);
+		time("scanner, parallel, parse only", scanner(true, false), text);
+		time("scanner, one thread, building selections and routes", scanner(false, true), text);
+		time("scanner, parallel, building selections and routes", scanner(true, true), text);
+
+		final File profileFile = new File(directory, "benchmark.profile");
+		time("Profile.loadProfile (memory mapped, parallel, with conversion)", new Reader() {
+			public int read(File file) throws IOException {
+				Files.copy(file.toPath(), profileFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				Profile profile = Profile.loadProfile("benchmark", profileFile.getPath());
+				return profile.getSavedSelections().size() + profile.getSavedPaths().size();
+			}
+		}, text);
+	}
+
+	/**
+	 * Rectangular zones of a few hundred cells and long paths, the way MapPanel saves them.
+	 */
+	private static void writeProfile(File file, long size) throws IOException {
+		try (PrintWriter writer = new PrintWriter(file)) {
+			long written = 0;
+			for (int record = 0; written < size; record++) {
+				StringBuilder text = new StringBuilder();
+				int x = (record * 37) % 2000;
+				int y = (record * 91) % 2000;
+				text.append("{\n");
+				for (int row = 0; row < 20; row++)
+					for (int col = 0; col < 20; col++)
+						text.append('(').append(x + row).append(',').append(y + col).append(",2)\n");
+				text.append("}\n<\n(").append(x).append(',').append(y).append(")\n");
+				for (int step = 0; step < 500; step++)
+					text.append((step % 2 == 0) ? Route.RIGHT : Route.DOWN);
+				text.append("\n>\n");
+				writer.print(text);
+				written += text.length();
+			}
+		}
+	}
+
+	private static void time(String name, Reader reader, File file) throws IOException {
+		int records = reader.read(file);
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			reader.read(file);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.println(String.format("  %-65s %6.1f ms  %7.1f MB/s  (%d records)", name, best / 1e6,
+				file.length() / 1048576.0 / (best / 1e9), records));
+	}
+}
@@ -0,0 +1,104 @@
+package Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.Route;
+import Map.Terrain;
+import UI.Selection;
+import User.ProfileTextParser;
+
+public class ProfileTextParserTest {
+
+	private static ProfileTextParser.Records parse(String text, boolean parallel) throws IOException {
+		return ProfileTextParser.parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), parallel);
+	}
+
+	@Test
+	public void recordsTest() throws IOException {
+		ProfileTextParser.Records records = parse("#generation 3\r\n{\r\n(1,2,2)\r\n(1,3,2)\r\n}\r\n<\r\n(4,5)\r\n23\r\n>\r\n"
+				+ "<\n(0,0)\n(0,1)\n(1,1)\n>\n!removePath 1\n!clearSelections\n{\n[10,20,30,40,1]\n[40,20,1,1,1]\n}\n", false);
+		Assert.assertFalse(records.isBroken());
+		Assert.assertEquals(7, records.size());
+
+		Assert.assertEquals(ProfileTextParser.GENERATION, records.getKind(0));
+		Assert.assertEquals(3, records.getValue(0));
+
+		Assert.assertEquals(ProfileTextParser.SELECTION, records.getKind(1));
+		Selection selection = records.toSelection(1);
+		Assert.assertEquals(Terrain.BLOCKED, selection.getTerrain());
+		Assert.assertEquals(2, selection.getCellCount());
+		Assert.assertTrue(selection.contains(1, 3));
+
+		Assert.assertEquals(Route.of(4, 5, new int[] { Route.RIGHT, Route.DOWN }), records.toRoute(2));
+		//older profiles list every node of the path
+		Assert.assertEquals(Route.of(0, 0, new int[] { Route.RIGHT, Route.DOWN }), records.toRoute(3));
+
+		Assert.assertEquals(ProfileTextParser.REMOVE_PATH, records.getKind(4));
+		Assert.assertEquals(1, records.getValue(4));
+		Assert.assertEquals(ProfileTextParser.CLEAR_SELECTIONS, records.getKind(5));
+
+		//newer profiles store the rectangles of a selection
+		Assert.assertEquals(2, records.getRectangleCount(6));
+		selection = records.toSelection(6);
+		Assert.assertEquals(Terrain.WALKABLE, selection.getTerrain());
+		Assert.assertEquals(30 * 40 + 1, selection.getCellCount());
+		Assert.assertTrue(selection.contains(39, 59));
+		Assert.assertTrue(selection.contains(40, 20));
+		Assert.assertFalse(selection.contains(40, 21));
+	}
+
+	/**
+	 * Reading stops at a broken record, and a record that never ended is dropped as broken.
+	 */
+	@Test
+	public void brokenRecordTest() throws IOException {
+		ProfileTextParser.Records records = parse("{\n(1,2,1)\n}\n{\n(3,x,1)\n}\n!clearSelections\n", false);
+		Assert.assertEquals(1, records.size());
+		Assert.assertTrue(records.isBroken());
+		Assert.assertEquals(12, records.getBrokenOffset());
+
+		records = parse("{\n(1,2,1)\n}\n{\n(7,8,2)\n", false);
+		Assert.assertEquals(1, records.size());
+		Assert.assertTrue(records.isBroken());
+		Assert.assertEquals(12, records.getBrokenOffset());
+
+		records = parse("{\n(1,2,1)\n}\n", false);
+		Assert.assertEquals(1, records.size());
+		Assert.assertFalse(records.isBroken());
+	}
+
+	/**
+	 * Scanning the parts of a large profile at the same time gives the same records in the same order.
+	 */
+	@Test
+	public void parallelTest() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int record = 0; text.length() < 4 * 1024 * 1024; record++) {
+			text.append("{\n");
+			for (int cell = 0; cell < 50; cell++)
+				text.append('(').append(record).append(',').append(cell).append(",2)\n");
+			text.append("}\n<\n(").append(record).append(",0)\n3333222211110000\n>\n");
+			if (record % 100 == 0)
+				text.append("!removePath 0\n");
+		}
+
+		ProfileTextParser.Records sequential = parse(text.toString(), false);
+		ProfileTextParser.Records parallel = parse(text.toString(), true);
+		Assert.assertEquals(sequential.size(), parallel.size());
+		for (int i = 0; i < sequential.size(); i++) {
+			Assert.assertEquals(sequential.getKind(i), parallel.getKind(i));
+			Assert.assertEquals(sequential.getValue(i), parallel.getValue(i));
+			Assert.assertEquals(sequential.getRectangleCount(i), parallel.getRectangleCount(i));
+			Assert.assertEquals(sequential.getStepCount(i), parallel.getStepCount(i));
+		}
+		int last = sequential.size() - 1;
+		while (sequential.getKind(last) != ProfileTextParser.PATH)
+			last--;
+		Assert.assertEquals(sequential.toRoute(last), parallel.toRoute(last));
+	}
+}
@@ -0,0 +1,46 @@
+package Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import Map.Terrain;
+import UI.Selection;
+import User.Profile;
+
+/**
+ * Times writing a text profile with a selection of growing size, to check that writing takes time linear in
+ * the size of the selection (ten times the cells, about ten times the time). Not a unit test, since timings
+ * depend on the machine; run it as an application.
+ */
+public class ProfileWriteBenchmark {
+
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) {
+		long previous = 0;
+		for (int size = 200; size <= 20000; size *= 10) {
+			long time = timeWrite(size);
+			System.out.println(String.format("  %6d rows of 50 cells: %8.2f ms%s", size, time / 1e6,
+					(previous == 0) ? "" : String.format("  (%.1f times the previous size's time)", (double) time / previous)));
+			previous = time;
+		}
+	}
+
+	private static long timeWrite(int size) {
+		Profile profile = new Profile("benchmark");
+		Selection selection = new Selection();
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < 100; y += 2)
+				selection.addCell(x, y);
+		selection.setTerrain(Terrain.BLOCKED);
+		profile.storeSelection(selection);
+
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			profile.writeProfile(new PrintWriter(new StringWriter()));
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,55 @@
+package Test;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.QuadTree;
+
+public class QuadTreeTest {
+
+	/**
+	 * Only the rectangles that intersect the queried area should be returned, even once the tree has split.
+	 */
+	@Test
+	public void queryTest() {
+		QuadTree<String> tree = new QuadTree<>(1000, 1000);
+		for (int i = 0; i < 50; i++)
+			tree.insert(new Rectangle(i * 20, i * 20, 5, 5), "zone" + i);
+
+		List<String> found = tree.query(new Rectangle(0, 0, 50, 50));
+		Assert.assertEquals(3, found.size());
+		Assert.assertTrue(found.contains("zone0"));
+		Assert.assertTrue(found.contains("zone2"));
+		Assert.assertEquals(50, tree.size());
+	}
+
+	/**
+	 * Rectangles spanning several quadrants must still be found from any of them.
+	 */
+	@Test
+	public void largeRectangleTest() {
+		QuadTree<String> tree = new QuadTree<>(1000, 1000);
+		for (int i = 0; i < 20; i++)
+			tree.insert(new Rectangle(i, i, 1, 1), "small" + i);
+		tree.insert(new Rectangle(400, 400, 200, 200), "big");
+
+		Assert.assertTrue(tree.contains(599, 599));
+		Assert.assertTrue(tree.intersects(new Rectangle(590, 410, 50, 5)));
+		Assert.assertFalse(tree.contains(700, 700));
+	}
+
+	@Test
+	public void removeTest() {
+		QuadTree<String> tree = new QuadTree<>(100, 100);
+		Rectangle zone = new Rectangle(10, 10, 5, 5);
+		String value = "zone";
+		tree.insert(zone, value);
+
+		Assert.assertTrue(tree.remove(zone, value));
+		Assert.assertFalse(tree.contains(12, 12));
+		Assert.assertTrue(tree.isEmpty());
+	}
+}
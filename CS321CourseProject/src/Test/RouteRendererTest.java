@@ -0,0 +1,122 @@
+package Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.Route;
+import UI.RouteRenderer;
+
+public class RouteRendererTest {
+
+	/**
+	 * A staircase of single steps right and down, which has a corner at every node.
+	 */
+	private static Route staircase(int steps) {
+		int[] directions = new int[steps];
+		for (int i = 0; i < steps; i++)
+			directions[i] = (i % 2 == 0) ? Route.RIGHT : Route.DOWN;
+		return Route.of(0, 0, directions);
+	}
+
+	@Test
+	public void cornersTest() {
+		//ten steps right, then five down: the start, one corner and the end
+		int[] directions = new int[15];
+		for (int i = 0; i < 15; i++)
+			directions[i] = (i < 10) ? Route.RIGHT : Route.DOWN;
+		RouteRenderer renderer = new RouteRenderer(Route.of(3, 4, directions), 1, 1, 0);
+		Assert.assertEquals(3, renderer.getCornerCount());
+		Assert.assertEquals(3, renderer.getVertexCount(0.1));
+
+		//a route without steps is still drawn as a dot
+		Assert.assertEquals(2, new RouteRenderer(Route.of(3, 4, new int[0]), 1, 1, 0).getCornerCount());
+	}
+
+	/**
+	 * Zoomed out, the steps of a staircase are too small to see and it is drawn as a single line. Zoomed in far
+	 * enough, every step is drawn.
+	 */
+	@Test
+	public void simplifyTest() {
+		RouteRenderer renderer = new RouteRenderer(staircase(10000), 1, 1, 0);
+		Assert.assertEquals(10001, renderer.getCornerCount());
+		Assert.assertEquals(2, renderer.getVertexCount(0.1));
+		Assert.assertEquals(10001, renderer.getVertexCount(4));
+
+		//one line per bucket, made once
+		renderer.getVertexCount(0.12);
+		renderer.getVertexCount(5);
+		Assert.assertEquals(2, renderer.getBucketCount());
+	}
+
+	/**
+	 * Zoomed in on a long route, only the runs of it on screen are drawn.
+	 */
+	@Test
+	public void cullingTest() {
+		RouteRenderer renderer = new RouteRenderer(staircase(100000), 1, 1, 0);
+		BufferedImage screen = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+		g.setColor(Color.WHITE);
+		//the middle of the staircase, around (25000, 25000) on the image, is in the middle of the screen
+		renderer.draw(g, -4 * 25000 + 100, -4 * 25000 + 100, 4, 4, new Rectangle(0, 0, 200, 200));
+		g.dispose();
+
+		Assert.assertEquals(100001, renderer.getVertexCount(4));
+		Assert.assertTrue(renderer.getDrawnVertexCount() > 50);
+		Assert.assertTrue(renderer.getDrawnVertexCount() < 200);
+		Assert.assertEquals(0xffffff, screen.getRGB(100, 100) & 0xffffff);
+
+		//off screen, nothing is drawn
+		Assert.assertNull(renderer.getGeometry(4, new Rectangle(-500, -500, 100, 100)).getCurrentPoint());
+	}
+
+	@Test
+	public void drawTest() {
+		int[] directions = new int[20];
+		for (int i = 0; i < 20; i++)
+			directions[i] = Route.RIGHT;
+		RouteRenderer renderer = new RouteRenderer(Route.of(5, 0, directions), 0.5, 0.5, 0);
+		BufferedImage screen = new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+		g.setColor(Color.WHITE);
+		//the route runs from (0, 10) to (40, 10) on the image, which is drawn at twice its size from (10, 0)
+		renderer.draw(g, 10, 0, 2, 4, new Rectangle(0, 0, 100, 50));
+		g.dispose();
+
+		Assert.assertEquals(0xffffff, screen.getRGB(50, 20) & 0xffffff);
+		Assert.assertEquals(0xffffff, screen.getRGB(88, 21) & 0xffffff);
+		Assert.assertEquals(0x000000, screen.getRGB(50, 25) & 0xffffff);
+		Assert.assertEquals(0x000000, screen.getRGB(95, 20) & 0xffffff);
+	}
+
+	/**
+	 * The middle of the route is drawn lower by the downshift, the start and the end where they are.
+	 */
+	@Test
+	public void downShiftTest() {
+		//ten steps right, then twenty down: the corner is at (20, 0) on the image and the end at (20, 40)
+		int[] directions = new int[30];
+		for (int i = 0; i < 30; i++)
+			directions[i] = (i < 10) ? Route.RIGHT : Route.DOWN;
+		RouteRenderer renderer = new RouteRenderer(Route.of(0, 0, directions), 0.5, 0.5, 10);
+
+		double[][] expected = { { 0, 0 }, { 20, 20 }, { 20, 40 } };
+		PathIterator vertices = renderer.getGeometry(4, new Rectangle(-10, -10, 100, 100)).getPathIterator(null);
+		double[] coordinates = new double[6];
+		for (double[] vertex : expected) {
+			Assert.assertFalse(vertices.isDone());
+			vertices.currentSegment(coordinates);
+			Assert.assertEquals(vertex[0], coordinates[0], 1e-9);
+			Assert.assertEquals(vertex[1], coordinates[1], 1e-9);
+			vertices.next();
+		}
+		Assert.assertTrue(vertices.isDone());
+	}
+}
@@ -0,0 +1,59 @@
+package Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.Node;
+import Map.Route;
+
+public class RouteTest {
+
+	/**
+	 * A random walk long enough to span several words of packed steps comes back node for node.
+	 */
+	@Test
+	public void roundTripTest() {
+		Random random = new Random(39);
+		ArrayList<Node> nodes = new ArrayList<>();
+		int row = 500;
+		int col = 500;
+		nodes.add(new Node(row, col));
+		int[] rowSteps = { -1, 0, 0, 1 };
+		int[] colSteps = { 0, -1, 1, 0 };
+		for (int i = 0; i < 100; i++) {
+			int direction = random.nextInt(4);
+			row += rowSteps[direction];
+			col += colSteps[direction];
+			nodes.add(new Node(row, col));
+		}
+
+		Route route = Route.fromNodes(nodes);
+		Assert.assertEquals(100, route.getStepCount());
+		Assert.assertEquals(nodes, route.toNodes());
+
+		Route.Cursor cursor = route.cursor();
+		for (int i = 0; i < nodes.size(); i++) {
+			Assert.assertEquals(i, cursor.getIndex());
+			Assert.assertEquals(nodes.get(i).getX(), cursor.getRow());
+			Assert.assertEquals(nodes.get(i).getY(), cursor.getCol());
+			Assert.assertEquals(i + 1 < nodes.size(), cursor.next());
+		}
+		Assert.assertFalse(cursor.next());
+	}
+
+	@Test
+	public void singleNodeTest() {
+		Route route = new Route.Builder(3, 4).build();
+		Assert.assertEquals(1, route.getNodeCount());
+		Assert.assertFalse(route.cursor().next());
+		Assert.assertEquals(route, Route.of(3, 4, new int[0]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void diagonalStepTest() {
+		new Route.Builder(0, 0).stepTo(1, 1);
+	}
+}
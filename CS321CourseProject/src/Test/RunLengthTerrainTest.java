@@ -0,0 +1,80 @@
+package Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.RunLengthTerrain;
+import Map.Terrain;
+
+public class RunLengthTerrainTest {
+
+	/**
+	 * A fresh grid is blocked everywhere, and filling a rectangle only changes the cells inside it.
+	 */
+	@Test
+	public void fillRectangleTest() {
+		RunLengthTerrain terrain = new RunLengthTerrain(20, 50);
+		terrain.fill(5, 10, 8, 30, Terrain.WALKABLE);
+
+		Assert.assertFalse(terrain.isWalkable(4, 15));
+		Assert.assertTrue(terrain.isWalkable(5, 10));
+		Assert.assertTrue(terrain.isWalkable(7, 29));
+		Assert.assertFalse(terrain.isWalkable(7, 30));
+		Assert.assertFalse(terrain.isWalkable(8, 15));
+		Assert.assertEquals(3, terrain.getRunCount(6));
+	}
+
+	/**
+	 * Overlapping and adjacent fills must merge into a single run.
+	 */
+	@Test
+	public void adjacentFillsMergeTest() {
+		RunLengthTerrain terrain = new RunLengthTerrain(1, 100);
+		terrain.fill(0, 10, 1, 20, Terrain.WALKABLE);
+		terrain.fill(0, 20, 1, 40, Terrain.WALKABLE);
+		terrain.fill(0, 15, 1, 25, Terrain.WALKABLE);
+		Assert.assertEquals(3, terrain.getRunCount(0));
+
+		// Cutting a hole splits the run again.
+		terrain.fill(0, 30, 1, 32, Terrain.BLOCKED);
+		Assert.assertEquals(5, terrain.getRunCount(0));
+		Assert.assertFalse(terrain.isWalkable(0, 31));
+		Assert.assertTrue(terrain.isWalkable(0, 32));
+	}
+
+	@Test
+	public void nextBlockedTest() {
+		RunLengthTerrain terrain = new RunLengthTerrain(1, 100);
+		terrain.fill(0, 0, 1, 60, Terrain.WALKABLE);
+		terrain.fill(0, 70, 1, 100, Terrain.WALKABLE);
+
+		Assert.assertEquals(60, terrain.nextBlocked(0, 0));
+		Assert.assertEquals(65, terrain.nextBlocked(0, 65));
+		Assert.assertEquals(100, terrain.nextBlocked(0, 70));
+		Assert.assertEquals(70, terrain.nextWalkable(0, 60));
+	}
+
+	@Test
+	public void writeReadRoundTripTest() throws IOException {
+		RunLengthTerrain terrain = new RunLengthTerrain(300, 400);
+		terrain.fill(0, 0, 300, 400, Terrain.WALKABLE);
+		terrain.fill(50, 60, 120, 200, Terrain.BLOCKED);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		terrain.writeTo(new DataOutputStream(bytes));
+		RunLengthTerrain copy = RunLengthTerrain.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		for (int row = 0; row < 300; row += 7)
+			for (int col = 0; col < 400; col += 3)
+				Assert.assertEquals(terrain.isWalkable(row, col), copy.isWalkable(row, col));
+
+		// One bit per cell would already be 15000 bytes.
+		Assert.assertTrue("Encoded size was " + bytes.size(), bytes.size() < 2000);
+	}
+}
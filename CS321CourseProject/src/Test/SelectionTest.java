@@ -0,0 +1,147 @@
+package Test;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Map.Node;
+import Map.Terrain;
+import UI.Selection;
+
+public class SelectionTest {
+
+	@Test
+	public void containsTest() {
+		Selection selection = new Selection();
+		selection.addRectangle(10, 20, 15, 30);
+
+		Assert.assertTrue(selection.contains(10, 20));
+		Assert.assertTrue(selection.contains(14, 29));
+		Assert.assertFalse(selection.contains(15, 25));
+		Assert.assertFalse(selection.contains(12, 30));
+		Assert.assertEquals(50, selection.getCellCount());
+	}
+
+	/**
+	 * Overlapping rectangles are merged, so their cells are only counted once and the selection
+	 * normalizes back into a small number of rectangles.
+	 */
+	@Test
+	public void overlappingRectanglesMergeTest() {
+		Selection selection = new Selection();
+		selection.addRectangle(0, 0, 10, 10);
+		selection.addRectangle(0, 5, 10, 20);
+
+		Assert.assertEquals(200, selection.getCellCount());
+
+		List<Rectangle> rectangles = selection.getRectangles();
+		Assert.assertEquals(1, rectangles.size());
+		Assert.assertEquals(new Rectangle(0, 0, 10, 20), rectangles.get(0));
+	}
+
+	/**
+	 * The rectangle being dragged out is replaced on every update and only merged in once committed.
+	 */
+	@Test
+	public void activeRectangleTest() {
+		Selection selection = new Selection();
+		selection.setActiveRectangle(0, 0, 100, 100);
+		selection.setActiveRectangle(0, 0, 5, 5);
+
+		Assert.assertTrue(selection.contains(4, 4));
+		Assert.assertFalse(selection.contains(50, 50));
+
+		selection.commitActiveRectangle();
+		Assert.assertEquals(25, selection.getCellCount());
+	}
+
+	@Test
+	public void forEachCellTest() {
+		Selection selection = new Selection();
+		selection.addCell(3, 4);
+		selection.addCell(3, 5);
+		selection.addCell(7, 1);
+
+		final int[] visited = new int[1];
+		selection.forEachCell(new Selection.CellVisitor() {
+			public void visit(int x, int y) {
+				visited[0]++;
+			}
+		});
+		Assert.assertEquals(3, visited[0]);
+		Assert.assertEquals(2, selection.getRectangles().size());
+	}
+
+	/**
+	 * The rectangle being dragged out is included without being committed, merged with the rows it overlaps.
+	 */
+	@Test
+	public void activeRectangleRowsTest() {
+		Selection selection = new Selection();
+		selection.addRectangle(0, 0, 2, 3);
+		selection.addRectangle(5, 0, 6, 3);
+		selection.setActiveRectangle(1, 2, 4, 4);
+
+		List<Rectangle> rectangles = selection.getRectangles();
+		Assert.assertEquals(4, rectangles.size());
+		Assert.assertTrue(rectangles.contains(new Rectangle(0, 0, 1, 3)));
+		Assert.assertTrue(rectangles.contains(new Rectangle(1, 0, 1, 4)));
+		Assert.assertTrue(rectangles.contains(new Rectangle(2, 2, 2, 2)));
+		Assert.assertTrue(rectangles.contains(new Rectangle(5, 0, 1, 3)));
+
+		final int[] visited = new int[1];
+		selection.forEachCell(new Selection.CellVisitor() {
+			public void visit(int x, int y) {
+				visited[0]++;
+			}
+		});
+		Assert.assertEquals(3 + 4 + 2 + 2 + 3, visited[0]);
+		//still not committed
+		Assert.assertEquals(9, selection.getCellCount());
+	}
+
+	/**
+	 * Committing against the grid keeps only valid nodes inside the grid.
+	 */
+	@Test
+	public void commitValidCellsTest() {
+		Node[][] nodes = new Node[4][6];
+		for (int x = 0; x < 4; x++)
+			for (int y = 0; y < 6; y++)
+				nodes[x][y] = new Node(0, "", y != 3, Terrain.WALKABLE, x, y, null, null, null, null);
+
+		Selection selection = new Selection();
+		selection.setActiveRectangle(2, 1, 10, 5);
+		selection.commitActiveRectangle(nodes);
+
+		Assert.assertNull(selection.getActiveRectangle());
+		Assert.assertEquals(2 * 3, selection.getCellCount());
+		Assert.assertFalse(selection.contains(2, 3));
+		Assert.assertFalse(selection.contains(4, 1));
+		Assert.assertTrue(selection.contains(3, 4));
+	}
+
+	/**
+	 * Applying the terrain only reads the committed rectangles and leaves the one being dragged out alone.
+	 */
+	@Test
+	public void applyTerrainTest() {
+		Node[][] nodes = new Node[4][6];
+		for (int x = 0; x < 4; x++)
+			for (int y = 0; y < 6; y++)
+				nodes[x][y] = new Node(0, "", y != 3, Terrain.WALKABLE, x, y, null, null, null, null);
+
+		Selection selection = new Selection();
+		selection.addCell(0, 0);
+		selection.setTerrain(Terrain.BLOCKED);
+		selection.setActiveRectangle(2, 1, 4, 5);
+		selection.applyTerrain(nodes);
+
+		Assert.assertEquals(Terrain.BLOCKED, nodes[0][0].getTerrain());
+		Assert.assertEquals(Terrain.WALKABLE, nodes[2][1].getTerrain());
+		Assert.assertNotNull(selection.getActiveRectangle());
+		Assert.assertEquals(1, selection.getCellCount());
+	}
+}
@@ -0,0 +1,106 @@
+package Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import Map.EdgelessNode;
+import Map.GridBuilder;
+import Map.GridSnapshot;
+import Map.Node;
+import Map.Route;
+import Map.WalkabilityBitmap;
+import Util.HessianSerializer;
+
+/**
+ * Compares the size and speed of Java serialization of an {@link EdgelessNode}[][] (the old node cache) with
+ * Hessian and the compact serializers, for the campus grid and for a long path. Not a unit test; run it as
+ * an application, optionally passing the path of the image to use.
+ */
+public class SerializationBenchmark {
+
+	private static final int RUNS = 10;
+
+	private interface Codec {
+		byte[] write(Object value) throws IOException;
+
+		Object read(byte[] bytes) throws IOException;
+	}
+
+	private static final Codec JAVA = new Codec() {
+		public byte[] write(Object value) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+			return bytes.toByteArray();
+		}
+
+		public Object read(byte[] bytes) throws IOException {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+	};
+
+	private static final Codec HESSIAN = new Codec() {
+		public byte[] write(Object value) throws IOException {
+			return HessianSerializer.serialize(value);
+		}
+
+		public Object read(byte[] bytes) throws IOException {
+			return HessianSerializer.deserialize(bytes);
+		}
+	};
+
+	public static void main(String[] args) throws IOException {
+		String imagePath = (args.length > 0) ? args[0] : "src" + File.separator + "Res" + File.separator + "CampusMapForNodes.png";
+		WalkabilityBitmap bitmap = new GridBuilder().classify(new File(imagePath));
+		System.out.println("Campus grid (" + bitmap.getRows() + " x " + bitmap.getCols() + "):");
+
+		EdgelessNode[][] edgeless = new EdgelessNode[bitmap.getRows()][bitmap.getCols()];
+		for (int row = 0; row < bitmap.getRows(); row++)
+			for (int col = 0; col < bitmap.getCols(); col++)
+				edgeless[row][col] = new EdgelessNode(row, col, bitmap.isWalkable(row, col));
+		time("Java, EdgelessNode[][]", JAVA, edgeless);
+		time("Hessian, EdgelessNode[][]", HESSIAN, edgeless);
+		time("Hessian, bitmap", HESSIAN, bitmap);
+		time("Hessian, snapshot", HESSIAN, GridSnapshot.fromBitmap(bitmap, 0));
+
+		// A path that snakes across the whole grid.
+		ArrayList<Node> path = new ArrayList<>();
+		for (int row = 0; row < bitmap.getRows(); row += 2) {
+			for (int col = 0; col < bitmap.getCols(); col++)
+				path.add(new Node(row, (row % 4 == 0) ? col : bitmap.getCols() - 1 - col));
+			if (row + 1 < bitmap.getRows())
+				path.add(new Node(row + 1, (row % 4 == 0) ? bitmap.getCols() - 1 : 0));
+		}
+		System.out.println("Path of " + path.size() + " nodes:");
+		time("Java, nodes", JAVA, path);
+		time("Hessian, nodes", HESSIAN, path);
+		time("Hessian, route", HESSIAN, Route.fromNodes(path));
+	}
+
+	private static void time(String name, Codec codec, Object value) throws IOException {
+		long bestWrite = Long.MAX_VALUE;
+		long bestRead = Long.MAX_VALUE;
+		byte[] bytes = null;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			bytes = codec.write(value);
+			long written = System.nanoTime();
+			codec.read(bytes);
+			bestWrite = Math.min(bestWrite, written - start);
+			bestRead = Math.min(bestRead, System.nanoTime() - written);
+		}
+		System.out.println(String.format("  %-26s %12d bytes  write %8.1f ms  read %8.1f ms", name, bytes.length, bestWrite / 1e6,
+				bestRead / 1e6));
+	}
+}
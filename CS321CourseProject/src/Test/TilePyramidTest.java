@@ -0,0 +1,89 @@
+package Test;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import UI.TilePyramid;
+
+public class TilePyramidTest {
+
+	/**
+	 * An image of 1000 x 600 pixels, black on the left half and white on the right.
+	 */
+	private static BufferedImage image() {
+		BufferedImage image = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = image.getWidth() / 2; x < image.getWidth(); x++)
+				image.setRGB(x, y, 0xffffff);
+		return image;
+	}
+
+	@Test
+	public void levelsTest() {
+		TilePyramid pyramid = new TilePyramid(image());
+		//1000 pixels need 4 tiles at level 0, then 2 and finally 1
+		Assert.assertEquals(3, pyramid.getLevelCount());
+		Assert.assertEquals(0, pyramid.getLevel(2.0));
+		Assert.assertEquals(0, pyramid.getLevel(0.6));
+		Assert.assertEquals(1, pyramid.getLevel(0.5));
+		Assert.assertEquals(1, pyramid.getLevel(0.3));
+		Assert.assertEquals(2, pyramid.getLevel(0.2));
+		Assert.assertEquals(2, pyramid.getLevel(0.01));
+
+		BufferedImage corner = pyramid.getTile(0, 3, 2);
+		Assert.assertEquals(1000 - 3 * TilePyramid.TILE_SIZE, corner.getWidth());
+		Assert.assertEquals(600 - 2 * TilePyramid.TILE_SIZE, corner.getHeight());
+
+		BufferedImage top = pyramid.getTile(2, 0, 0);
+		Assert.assertEquals(250, top.getWidth());
+		Assert.assertEquals(150, top.getHeight());
+		Assert.assertEquals(0x000000, top.getRGB(10, 10) & 0xffffff);
+		Assert.assertEquals(0xffffff, top.getRGB(240, 140) & 0xffffff);
+	}
+
+	/**
+	 * Only the tiles on screen are made, and drawing the same view again only hits the cache.
+	 */
+	@Test
+	public void visibleTilesTest() {
+		TilePyramid pyramid = new TilePyramid(image());
+		BufferedImage screen = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+
+		pyramid.draw(g, -300, -100, 1.0, new Rectangle(0, 0, 300, 200));
+		//pixels 300 to 600 across and 100 to 300 down are tiles 1 and 2 of rows 0 and 1
+		Assert.assertEquals(4, pyramid.getMissCount());
+		Assert.assertEquals(0, pyramid.getHitCount());
+		Assert.assertEquals(0x000000, screen.getRGB(10, 10) & 0xffffff);
+		Assert.assertEquals(0xffffff, screen.getRGB(295, 10) & 0xffffff);
+
+		pyramid.draw(g, -300, -100, 1.0, new Rectangle(0, 0, 300, 200));
+		Assert.assertEquals(4, pyramid.getMissCount());
+		Assert.assertEquals(4, pyramid.getHitCount());
+		g.dispose();
+	}
+
+	@Test
+	public void memoryBudgetTest() {
+		long tileBytes = 4L * TilePyramid.TILE_SIZE * TilePyramid.TILE_SIZE;
+		TilePyramid pyramid = new TilePyramid(image(), 3 * tileBytes);
+		pyramid.getTile(0, 0, 0);
+		pyramid.getTile(0, 1, 0);
+		pyramid.getTile(0, 2, 0);
+		pyramid.getTile(0, 0, 0);
+		pyramid.getTile(0, 0, 1);
+
+		Assert.assertEquals(1, pyramid.getEvictionCount());
+		Assert.assertTrue(pyramid.getCachedBytes() <= pyramid.getMemoryBudget());
+		//(1, 0) was the least recently used
+		pyramid.getTile(0, 0, 0);
+		pyramid.getTile(0, 2, 0);
+		Assert.assertEquals(4, pyramid.getMissCount());
+		pyramid.getTile(0, 1, 0);
+		Assert.assertEquals(5, pyramid.getMissCount());
+	}
+}
@@ -0,0 +1,89 @@
+package Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import UI.TiledOverlay;
+
+public class TiledOverlayTest {
+
+	/**
+	 * Covers every node with a square of one pixel per node, except for nodes left of 0, which are empty.
+	 */
+	private static TiledOverlay overlay(int maxTiles) {
+		return new TiledOverlay(10, maxTiles) {
+			protected Shape buildTile(Rectangle area) {
+				return (area.x < 0) ? new Path2D.Double() : area;
+			}
+		};
+	}
+
+	@Test
+	public void visibleTilesTest() {
+		TiledOverlay overlay = overlay(100);
+		BufferedImage screen = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+		g.setColor(Color.WHITE);
+
+		//nodes 15 to 34 across and 0 to 9 down are in tiles 1 to 3 of row 0
+		overlay.fill(g, 0, 0, 1.0, 1L, new Rectangle(15, 0, 20, 10));
+		Assert.assertEquals(3, overlay.getDrawnTileCount());
+		Assert.assertEquals(3, overlay.getBuildCount());
+		Assert.assertEquals(0xffffff, screen.getRGB(12, 5) & 0xffffff);
+		Assert.assertEquals(0x000000, screen.getRGB(5, 5) & 0xffffff);
+		Assert.assertEquals(0x000000, screen.getRGB(12, 15) & 0xffffff);
+
+		//the same view again draws the tiles that were made
+		overlay.fill(g, 0, 0, 1.0, 1L, new Rectangle(15, 0, 20, 10));
+		Assert.assertEquals(3, overlay.getBuildCount());
+
+		//a new zoom or new data makes them again
+		overlay.fill(g, 0, 0, 2.0, 1L, new Rectangle(15, 0, 20, 10));
+		Assert.assertEquals(6, overlay.getBuildCount());
+		overlay.fill(g, 0, 0, 2.0, 2L, new Rectangle(15, 0, 20, 10));
+		Assert.assertEquals(9, overlay.getBuildCount());
+		g.dispose();
+	}
+
+	@Test
+	public void maxTilesTest() {
+		TiledOverlay overlay = overlay(4);
+		BufferedImage screen = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+		for (int column = 0; column < 10; column++)
+			overlay.fill(g, 0, 0, 1.0, null, new Rectangle(column * 10, 0, 10, 10));
+		g.dispose();
+
+		Assert.assertEquals(10, overlay.getBuildCount());
+		Assert.assertEquals(4, overlay.getCachedTileCount());
+	}
+
+	/**
+	 * When more tiles are visible than the overlay keeps, it keeps enough for the visible ones instead of making
+	 * every tile again every frame.
+	 */
+	@Test
+	public void zoomedOutTest() {
+		TiledOverlay overlay = overlay(4);
+		BufferedImage screen = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+		overlay.fill(g, 0, 0, 1.0, null, new Rectangle(0, 0, 100, 100));
+		overlay.fill(g, 0, 0, 1.0, null, new Rectangle(0, 0, 100, 100));
+		Assert.assertEquals(100, overlay.getBuildCount());
+		Assert.assertEquals(200, overlay.getCapacity());
+
+		//empty tiles are kept but not filled
+		overlay.fill(g, 0, 0, 1.0, null, new Rectangle(-20, 0, 30, 10));
+		overlay.fill(g, 0, 0, 1.0, null, new Rectangle(-20, 0, 30, 10));
+		Assert.assertEquals(102, overlay.getBuildCount());
+		Assert.assertEquals(1, overlay.getDrawnTileCount());
+		g.dispose();
+	}
+}
@@ -2,10 +2,13 @@ package UI;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.IOException;
 
 import javax.swing.JFrame;
 
 import User.Profile;
+import User.ProfilePersistence;
+import User.ProfileStore;
 
 @SuppressWarnings("serial")
 public class MainFrame extends JFrame implements KeyListener {
@@ -13,8 +16,20 @@ public class MainFrame extends JFrame implements KeyListener {
 	private boolean controlPressed = false;
 	private Profile profile;
 	
+	/**
+	 * Saves the profile in the background whenever it changes.
+	 */
+	private ProfilePersistence profilePersistence;
+	
 	public MainFrame(String username) {
-		this.profile = Profile.loadProfile(username);
+		try {
+			this.profile = ProfileStore.getDefault().getProfile(username);
+		} catch (IOException e) {
+			//without the store, fall back to the user's own .profile file
+			e.printStackTrace();
+			this.profile = Profile.loadProfile(username);
+		}
+		this.profilePersistence = new ProfilePersistence(profile);
 		addKeyListener(this);
 		setFocusable(true);
 		setFocusTraversalKeysEnabled(false);
@@ -24,6 +39,10 @@ public class MainFrame extends JFrame implements KeyListener {
 		return profile;
 	}
 	
+	public ProfilePersistence getProfilePersistence() {
+		return profilePersistence;
+	}
+	
 	public void keyPressed(KeyEvent eventArgs) {
 		if (eventArgs.getKeyCode() == KeyEvent.VK_CONTROL)
 			controlPressed = true;
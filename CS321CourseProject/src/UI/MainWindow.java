@@ -10,6 +10,8 @@ import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.IOException;
 
 import javax.swing.ImageIcon;
@@ -19,6 +21,7 @@ import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JSplitPane;
 import javax.swing.SwingConstants;
 
@@ -69,6 +72,12 @@ public class MainWindow {
 	private JButton btnTakeScreenshot;
 	private JButton btnClearSelectedNodes;
 	private JButton btnSavePath;
+	private JButton btnSaveSelectedNodes;
+	
+	/**
+	 * Shown below the map while the grid of nodes is loading in the background.
+	 */
+	private JProgressBar gridProgressBar;
 	
 	private static final int width = 1280;
 	private static final int height = 720;
@@ -190,7 +199,7 @@ public class MainWindow {
 		//locationPanel.setMapPanel(mapImagePanel);
 		
 		//userLocationMenuPanel.setPrefferedSize()
-		JButton setStartingPointButton = new JButton("Set Starting Point");
+		setStartingPointButton = new JButton("Set Starting Point");
 		setStartingPointButton.setBackground(new Color(176, 224, 230));
 		setStartingPointButton.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		setStartingPointButton.setBounds(10, 576, 125, 23);
@@ -202,7 +211,7 @@ public class MainWindow {
 		});
 		locationPanel.add(setStartingPointButton);
 
-		JButton btnSetDestination = new JButton("Set Destination");
+		btnSetDestination = new JButton("Set Destination");
 		btnSetDestination.setBackground(new Color(176, 224, 230));
 		btnSetDestination.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		btnSetDestination.setBounds(145, 576, 125, 23);
@@ -215,7 +224,7 @@ public class MainWindow {
 		});		
 		locationPanel.add(btnSetDestination);
 
-		JButton btnCalculatePath = new JButton("Calculate Path");
+		btnCalculatePath = new JButton("Calculate Path");
 		btnCalculatePath.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		btnCalculatePath.setBackground(new Color(176, 224, 230));
 		btnCalculatePath.setBounds(280, 576, 125, 23);
@@ -227,7 +236,7 @@ public class MainWindow {
 		});
 		locationPanel.add(btnCalculatePath);
 		
-		JButton btnClearSetNodes = new JButton("Clear Path");
+		btnClearSetNodes = new JButton("Clear Path");
 		btnClearSetNodes.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		btnClearSetNodes.setBackground(new Color(176, 224, 230));
 		btnClearSetNodes.setBounds(10, 633, 125, 23);
@@ -240,7 +249,7 @@ public class MainWindow {
 		locationPanel.add(btnClearSetNodes);
 		
 
-		JButton btnSavePath = new JButton("Save Path");
+		btnSavePath = new JButton("Save Path");
 		btnSavePath.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		btnSavePath.setBackground(new Color(176, 224, 230));
 		btnSavePath.setBounds(145, 633, 125, 23);
@@ -251,7 +260,7 @@ public class MainWindow {
 		});
 		locationPanel.add(btnSavePath);
 
-		JButton btnSaveSelectedNodes = new JButton("Save Selection");
+		btnSaveSelectedNodes = new JButton("Save Selection");
 		btnSaveSelectedNodes.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		btnSaveSelectedNodes.setBackground(new Color(176, 224, 230));
 		btnSaveSelectedNodes.setBounds(145, 690, 125, 23);
@@ -262,7 +271,7 @@ public class MainWindow {
 		});
 		locationPanel.add(btnSaveSelectedNodes);
 
-		JButton btnClearSelectedNodes = new JButton("Clear Selection");
+		btnClearSelectedNodes = new JButton("Clear Selection");
 		btnClearSelectedNodes.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		btnClearSelectedNodes.setBackground(new Color(176, 224, 230));
 		btnClearSelectedNodes.setBounds(280, 633, 125, 23);
@@ -273,7 +282,7 @@ public class MainWindow {
 		});
 		locationPanel.add(btnClearSelectedNodes);
 
-		JButton btnTakeScreenshot = new JButton("Take Screenshot");
+		btnTakeScreenshot = new JButton("Take Screenshot");
 		btnTakeScreenshot.setFont(new Font("Yu Gothic UI Semibold", Font.PLAIN, 11));
 		btnTakeScreenshot.setBackground(new Color(176, 224, 230));
 		btnTakeScreenshot.setBounds(145, 519, 125, 23);
@@ -284,7 +293,47 @@ public class MainWindow {
 		});
 		locationPanel.add(btnTakeScreenshot);
 		
-
+		// The grid of nodes is loaded in the background, so the map can be looked at right away. Everything that
+		// needs the grid is disabled until it is ready.
+		gridProgressBar = new JProgressBar(0, 100);
+		gridProgressBar.setStringPainted(true);
+		gridProgressBar.setString("Loading map grid...");
+		GridBagConstraints gbc_progressBar = new GridBagConstraints();
+		gbc_progressBar.fill = GridBagConstraints.HORIZONTAL;
+		gbc_progressBar.gridx = 0;
+		gbc_progressBar.gridy = 1;
+		frame.getContentPane().add(gridProgressBar, gbc_progressBar);
+		
+		mapImagePanel.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (MapPanel.GRID_PROGRESS_PROPERTY.equals(evt.getPropertyName()))
+					gridProgressBar.setValue((Integer) evt.getNewValue());
+				else if (MapPanel.GRID_STAGE_PROPERTY.equals(evt.getPropertyName()))
+					gridProgressBar.setString((String) evt.getNewValue());
+				else if (MapPanel.GRID_READY_PROPERTY.equals(evt.getPropertyName()))
+					onGridReady();
+			}
+		});
+		setGridControlsEnabled(false);
+		if (mapImagePanel.isGridReady())
+			onGridReady();
+	}
+	
+	private void onGridReady() {
+		setGridControlsEnabled(true);
+		gridProgressBar.setVisible(false);
+		frame.getContentPane().revalidate();
+	}
+	
+	/**
+	 * Enable or disable the controls that need the grid of nodes.
+	 */
+	private void setGridControlsEnabled(boolean enabled) {
+		setStartingPointButton.setEnabled(enabled);
+		btnSetDestination.setEnabled(enabled);
+		btnCalculatePath.setEnabled(enabled);
+		btnSaveSelectedNodes.setEnabled(enabled);
+		btnClearSelectedNodes.setEnabled(enabled);
 	}
 	
 	public JButton getStartingPointButton() {
@@ -313,6 +362,10 @@ public class MainWindow {
 	
 	public JButton getSavePathButton() {
 		return btnSavePath;
+	}
+	
+	public JButton getSaveSelectedNodesButton() {
+		return btnSaveSelectedNodes;
 	}	
 	
 	public MainFrame getMainFrame() {
@@ -8,6 +8,7 @@ import java.awt.Image;
 import java.awt.MouseInfo;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
@@ -15,35 +16,48 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferUShort;
-import java.awt.image.DataBufferByte;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingWorker;
 
-import Map.EdgelessNode;
+import Map.ConnectedComponents;
+import Map.GridBuilder;
+import Map.GridCache;
+import Map.GridSnapshot;
 import Map.Node;
+import Map.QuadTree;
 import Map.QueueNode;
+import Map.Route;
+import Map.RunLengthTerrain;
 import Map.Terrain;
+import Map.VersionedGrid;
 import Pathfinding.ShortestPathAlgorithm;
+import Preprocessing.BlockedTerrainStage;
+import Preprocessing.ComponentsStage;
+import Preprocessing.Pipeline;
 
 // https://crab.rutgers.edu/~guyk/BFS.pdf
 public class MapPanel extends JPanel implements MouseWheelListener, MouseListener, MouseMotionListener  {
@@ -57,6 +71,12 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	 */
 	private final Image mapImage;
 	
+	/**
+	 * Tiles of {@link mapImage} at every zoom level, which is what actually gets drawn. Null if the image couldn't
+	 * be loaded.
+	 */
+	private final TilePyramid mapTiles;
+	
 	/**
 	 * This value is used when displaying visual indicators for nodes.
 	 * 
@@ -185,6 +205,12 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	 */
 	private Node[][] nodes = null;
 	
+	/**
+	 * Published walkability of {@link nodes}. Path searches read from a snapshot of this instead of the nodes,
+	 * and saving/clearing a selection publishes a new version rather than editing what a search is looking at.
+	 */
+	private VersionedGrid terrainGrid = null;
+	
 	/**
 	 * The LinkedList will contain the starting location which is processed first till destination
 	 * is reached
@@ -192,11 +218,64 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	private LinkedList<Node> path = new LinkedList<Node>();
 	
 	/**
-	 * Used for serialization of nodes. Stores all of the nodes individually, without edges.
-	 * After nodes are loaded from saved file their edges are calculated and the nodes are then
-	 * thrown into the above mentioned 2d array of nodes. This is only used on startup.
+	 * Counted down once the background loading of {@link nodes} has finished (successfully or not).
+	 */
+	private final CountDownLatch gridLoaded = new CountDownLatch(1);
+	
+	/**
+	 * Set on the event dispatch thread once {@link nodes}, {@link terrainGrid} and the saved selections are ready.
+	 */
+	private volatile boolean gridReady = false;
+	
+	private String gridStage = null;
+	
+	/**
+	 * Names of the properties fired while the grid loads: the progress (0 to 100), a description of what is
+	 * being done, and a final notification once the grid is ready.
+	 */
+	public static final String GRID_PROGRESS_PROPERTY = "gridProgress";
+	public static final String GRID_STAGE_PROPERTY = "gridStage";
+	public static final String GRID_READY_PROPERTY = "gridReady";
+	
+	/**
+	 * Connected components of {@link terrainGrid}, computed in the background after the grid is loaded.
+	 * Null until the first labeling finishes, and may lag behind the current snapshot.
 	 */
-	private EdgelessNode[][] edgelessNodes = null;
+	private volatile ConnectedComponents components = null;
+	
+	/**
+	 * Builds the data derived from the grid in the background. Set up together with {@link gridCache}.
+	 */
+	private Pipeline pipeline = null;
+	
+	/**
+	 * The terrain of the node image, the first stage of {@link pipeline}.
+	 */
+	private GridCache.Artifact<RunLengthTerrain> terrainArtifact = null;
+	
+	/**
+	 * Runs independent preprocessing stages in parallel.
+	 */
+	private final ExecutorService stageExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Preprocessing stage");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+	
+	/**
+	 * Starts runs of the preprocessing pipeline, one at a time, without keeping the application alive.
+	 */
+	private final ExecutorService preprocessor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Map preprocessing");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
 	
 	/**
 	 * Number of nodes that are "walkable" 
@@ -222,11 +301,16 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	private final int maxAlphaDecreaseForPathNodes = 64; // 64 means we can set alpha to 191 at the least, which is 25% transparent.
 	
 	/**
-	 * The shortest path between the start and the destination node is stored here once calculated.
+	 * The shortest path between the start and the destination node is stored here once calculated, or null.
+	 */
+	private Route shortestPath = null;
+	
+	/**
+	 * Directory holding the cached grid and the data derived from it. Only used when {@link serializationEnabled} is true.
 	 */
-	private ArrayList<Node> shortestPath = new ArrayList<Node>();
+	private final String nodesCachePath = "src\\Res\\cache";
 	
-	private final String nodesSavePath = "src\\Res\\nodes.dat";
+	private GridCache gridCache = null;
 	
 	// The image displayed to the user is a much higher resolution than the one
 	// used to generate nodes for a few reasons. Essentially, we want to use a
@@ -248,6 +332,48 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	//used for holding the selection from click-and-drag
 	private Selection clickAndDragSelection = new Selection();
 	
+	/**
+	 * Spatial index over the rectangles of {@link clickAndDragSelection} (not counting the one being dragged out).
+	 * Painting only asks it for the rectangles that are on screen instead of walking the whole selection.
+	 */
+	private QuadTree<Rectangle> selectionIndex = null;
+	
+	/**
+	 * Changes whenever the committed part of {@link clickAndDragSelection} changes, which is what tells
+	 * {@link selectionTiles} to rebuild.
+	 */
+	private long selectionVersion = 0;
+	
+	/**
+	 * Cached shapes of the start and destination markers.
+	 */
+	private final OverlayLayer startMarker = new OverlayLayer();
+	private final OverlayLayer destMarker = new OverlayLayer();
+	
+	/**
+	 * Dots over the committed part of {@link clickAndDragSelection}, in tiles of 64 x 64 nodes so a frame only
+	 * visits the selected nodes that are on screen.
+	 */
+	private final TiledOverlay selectionTiles = new TiledOverlay(64, 256) {
+		protected Shape buildTile(Rectangle area) {
+			return selectionShape(area, getSelectionWidth());
+		}
+	};
+	
+	/**
+	 * Draws {@link shortestPath}, or null if it hasn't been drawn yet.
+	 */
+	private RouteRenderer routeRenderer = null;
+	
+	/**
+	 * Colors of the overlays, and the zoom (as a fraction of {@link maxZoomIn}) their transparency was computed for.
+	 */
+	private double overlayColorZoom = Double.NaN;
+	private Color startColor;
+	private Color destColor;
+	private Color pathColor;
+	private Color selectionColor;
+	
 	private boolean isDragging = false;//activated when left mouse button pressed, deactivated when released
 	private boolean isSelecting = false;//activated when right mouse button pressed, deactivated when released
 	
@@ -259,6 +385,7 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 		this.displayImagePath = displayImagePath;
 		this.nodesImagePath = nodesImagePath;
 		this.mapImage = new ImageIcon(displayImagePath).getImage();
+		this.mapTiles = (mapImage.getWidth(null) > 0) ? new TilePyramid(TilePyramid.toBufferedImage(mapImage)) : null;
 		
 		//TODO: Remove/Replace if UI supports multiple saved paths
 		try {
@@ -272,167 +399,166 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 		addMouseListener(this);
 		addMouseMotionListener(this);
 		
-		try {
-			File nodesFile = new File(nodesSavePath);
-			if (serializationEnabled && nodesFile.exists()) {
-				System.out.println("Loading nodes from file...");
-				long start = System.nanoTime();
-		        FileInputStream fileInputStream = new FileInputStream(nodesSavePath);
-		        ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
-		        this.edgelessNodes = (EdgelessNode[][]) objectInputStream.readObject();
-		        
-		        this.nodes = new Node[edgelessNodes.length][edgelessNodes[0].length];
-		        int nodeID = 0;
-		        for (int i = 0; i < this.edgelessNodes.length; i++) {
-		        	for (int j = 0; j < this.edgelessNodes[i].length; j++) {
-		        		
-		        		boolean isValid = this.edgelessNodes[i][j].getValid();
-		        		Terrain terrain = (isValid) ? Terrain.WALKABLE : Terrain.BLOCKED;
-		        		
-		        		Node n = new Node(nodeID, "Node " + nodeID++, isValid,
-		        							terrain, i, j, null, null, null, null);
-		        		nodes[i][j] = n;
-		        		if (i > 0) {
-		        			Node left = nodes[i - 1][j];
-		        			left.setRightNode(n);
-		        			
-		        			n.setLeftNode(left);
-		        		}
-		        		if (j > 0) {
-		        			Node above = nodes[i][j-1];
-		        			above.setBottomNode(n);
-		        			
-		        			n.setTopNode(above);
-		        		}
-		        	}
-		        }
-		        
-		        long done = System.nanoTime();
-		        long elapsed = done - start;
-		        long elapsedSeconds = elapsed / 1000000000;
-		        objectInputStream.close();
-		        edgelessNodes = null;
-		        System.out.println("Loading nodes from file done. Time elapsed: " + elapsedSeconds + " seconds");
-			}
-			else {
-				// File not available. Instead, generate using an image.
-				long startFromPicture = System.nanoTime();
-				loadNodes();
-				long doneFromPicture = System.nanoTime();
-				double elapsedSecondsFromPicture = (doneFromPicture - startFromPicture) / 1000000000.0;
-				System.out.println("Generating node grid from image done. Took " + elapsedSecondsFromPicture + " seconds.");
-				
-				if (serializationEnabled) {
-					System.out.println("Serializing the nodes array...");
-					
-					// Serialize them so they're available next time.
-					long startSerializing = System.nanoTime();
-			        FileOutputStream fileOutputStream = new FileOutputStream(nodesSavePath);
-			        ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-			        objectOutputStream.writeObject(edgelessNodes);
-			        long doneSerializing = System.nanoTime();
-			        double elapsedSerializing = (doneSerializing - startSerializing) / 1000000000.0;
-			        System.out.println("Done serializing. Took " + elapsedSerializing + " seconds.");
-			        
-			        objectOutputStream.close();					
-				}
-		        edgelessNodes = null;
+		// Building the grid takes a while, so it is loaded in the background while the map is already on screen.
+		// Anything that needs the grid checks isGridReady() first.
+		GridLoader loader = new GridLoader();
+		loader.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("progress".equals(evt.getPropertyName()))
+					firePropertyChange(GRID_PROGRESS_PROPERTY, evt.getOldValue(), evt.getNewValue());
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		});
+		loader.execute();
 		
-		//TODO: Edit nodes as they are created up above (instead of doing this)
-		ArrayList<HashSet<Node>> premadeUserSelections = parent.getProfile().getSavedSelections();
+	}
+	
+	/**
+	 * Loads the grid of nodes (and applies the saved selections to it) off the event dispatch thread.
+	 * Progress is reported through {@link GRID_PROGRESS_PROPERTY} and {@link GRID_STAGE_PROPERTY}, and
+	 * {@link GRID_READY_PROPERTY} fires once the grid can be used.
+	 */
+	private class GridLoader extends SwingWorker<Void, String> {
 		
-		if(premadeUserSelections != null) {
+		/**
+		 * Saved selections, merged into {@link clickAndDragSelection} on the event dispatch thread once loading is done.
+		 */
+		private final Selection savedSelection = new Selection();
 		
-			System.out.println("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!! Loading Persisted Selection");
-			
-			for(HashSet<Node> selectionSet : premadeUserSelections) {
-				
-				System.out.println("Selection found!");
-				System.out.println("Selection contains " + selectionSet.size() + " Nodes.");
-				
-				for(Node node : selectionSet) {
+		@Override
+		protected Void doInBackground() throws Exception {
+			try {
+				publish("Loading map grid...");
+				setProgress(5);
+				long start = System.nanoTime();
+				// The cache is keyed by a hash of the node image and the classifier, so a changed image
+				// (or threshold) rebuilds the grid instead of silently loading a stale one. Without serialization
+				// it only keeps the terrain in memory for the preprocessing stages.
+				System.out.println("Generating grid of nodes...");
+				gridCache = new GridCache(serializationEnabled ? new File(nodesCachePath) : null, new File(nodesImagePath),
+						GridBuilder.getClassifierParameters());
+				pipeline = new Pipeline(gridCache, stageExecutor);
+				GridBuilder builder = new GridBuilder();
+				terrainArtifact = builder.terrainArtifact();
+				RunLengthTerrain terrain = gridCache.get(terrainArtifact);
+				nodes = builder.build(terrain.toBitmap());
+				numberOfValidNodes = countValidNodes(nodes);
+				double elapsedSeconds = (System.nanoTime() - start) / 1000000000.0;
+				System.out.println("Loading node grid done. Took " + elapsedSeconds + " seconds.");
+				setProgress(70);
 				
-					System.out.println("Adding node from selection...");
+				//TODO: Edit nodes as they are created up above (instead of doing this)
+				ArrayList<Selection> premadeUserSelections = parent.getProfile().getSavedSelections();
+				if(premadeUserSelections != null) {
+					publish("Applying saved selections...");
+					long applyStart = System.nanoTime();
 					
-					clickAndDragSelection.addNode(node);
-					nodes[node.getX()][node.getY()].setTerrain(node.getTerrain());//set actual map nodes to be of terrain from saved nodes
-				
+					//each selection fills its rows of intervals, rather than going node by node
+					for(Selection selection : premadeUserSelections) {
+						savedSelection.addAll(selection);
+						selection.applyTerrain(nodes);//set actual map nodes to be of terrain from saved selection
+					}
+					System.out.println("Applied " + premadeUserSelections.size() + " saved selection(s) in " 
+							+ ((System.nanoTime() - applyStart) / 1000000) + " ms.");
 				}
+				setProgress(85);
+				
+				publish("Publishing terrain...");
+				terrainGrid = new VersionedGrid(GridSnapshot.fromNodes(nodes));
+				setProgress(100);
+				return null;
+			} finally {
+				gridLoaded.countDown();
 			}
-			
 		}
 		
+		@Override
+		protected void process(List<String> stages) {
+			setGridStage(stages.get(stages.size() - 1));
+		}
 		
-		
+		@Override
+		protected void done() {
+			try {
+				get();
+			} catch (Exception e) {
+				e.printStackTrace();
+				setGridStage("Unable to load the map grid.");
+				return;
+			}
+			
+			clickAndDragSelection.addAll(savedSelection);
+			reindexSelection();
+			gridReady = true;
+			setGridStage("Map grid ready.");
+			firePropertyChange(GRID_READY_PROPERTY, false, true);
+			repaint();
+			
+			startPreprocessing();
+		}
+	}
+	
+	private void setGridStage(String stage) {
+		String old = gridStage;
+		gridStage = stage;
+		firePropertyChange(GRID_STAGE_PROPERTY, old, stage);
 	}
 	
 	/**
-	 * Load nodes based on RGB of image. Eventually we'll just serialize and deserialize them directly.
+	 * Returns true once the grid has been loaded. Until then, clicks, selections and path searches are ignored.
 	 */
-	private void loadNodes() throws IOException {
-		System.out.println("Generating grid of nodes using image...");
-		BufferedImage bufferedMapImage = ImageIO.read(new File(this.nodesImagePath));
-		//BufferedImage bufferedMapImage = ImageIO.read(MapPanel.class.getResource("C:\\Users\\Benjamin\\Documents\\School\\Fall 2019\\CS 321\\CS321\\CS321CourseProject\\src\\Res\\CampusMapForNodes.png"));
-		byte[] pixels = ((DataBufferByte)bufferedMapImage.getRaster().getDataBuffer()).getData();
-		bufferedMapImage.getType();
-		
-		final int width = bufferedMapImage.getWidth();
-        final int height = bufferedMapImage.getHeight();
-	    
-        int nodeID = 0;	
-	    // https://stackoverflow.com/questions/6524196/java-get-pixel-array-from-image
-	    // boolean[][] rgbArray = new boolean[height][width];
-	    Node[][] nodes = new Node[height][width];
-	    edgelessNodes = new EdgelessNode[height][width];
-	    final int pixelLength = 3;
-	    for (int pixel = 0, row = 0, col = 0; pixel + 2 < pixels.length; pixel += pixelLength) {
-    		int argbValue = 0;
-    		// The values are stored in the format ARGB (alpha, red, green, blue), so
-    		// that's why we compute the offsets the way we do. We also have to mask
-    		// the values to extract the specific color value correctly.
-    		argbValue += -16777216; // 255 alpha
-    		argbValue += ((int) pixels[pixel] & 0xff); // blue
-            argbValue += (((int) pixels[pixel + 1] & 0xff) << 8); // green
-            argbValue += (((int) pixels[pixel + 2] & 0xff) << 16); // red
-            boolean valid = (argbValue >= -8777216);
-            if (valid)
-            	numberOfValidNodes = numberOfValidNodes + 1;
-            
-			Node nextNode = new Node(nodeID, "Node " + nodeID++, valid, ((valid)?Terrain.WALKABLE:Terrain.BLOCKED), row, col, 
-					null, null, null, null);
-			
-			nodes[row][col] = nextNode;
-			
-			edgelessNodes[row][col] = new EdgelessNode(row, col, valid);
-			
-			if (col > 0) {
-				Node left = nodes[row][col - 1];
-				left.setRightNode(nextNode);
-				
-				nextNode.setLeftNode(left);
-			}
-			if (row > 0) {
-				Node above = nodes[row - 1][col];
-				above.setBottomNode(nextNode);
-				
-				nextNode.setTopNode(above);
-			}
-			col++;
-			// If we've reached the end of a column, reset the column index to zero and increment row.
-			if (col == width)
-			{
-				if (row % 250 == 0) 
-					System.out.println("Finished row " + row + "...");
-				col = 0;
-				row++;
+	public boolean isGridReady() {
+		return gridReady;
+	}
+	
+	/**
+	 * Block until the grid has been loaded (or failed to load). Loading does not need the event dispatch thread,
+	 * so this may be called from any thread.
+	 */
+	public void awaitGrid() {
+		try {
+			gridLoaded.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Run the preprocessing pipeline in the background for the current terrain and saved blockages. Once the
+	 * connected components are available, searches between two disconnected points fail straight away
+	 * instead of flooding the whole component of the start. Called again whenever the saved blockages change
+	 * (only the stages downstream of them are rebuilt); a run for a snapshot that has already been replaced
+	 * is skipped.
+	 */
+	private void startPreprocessing() {
+		final GridSnapshot snapshot = terrainGrid.current();
+		final List<Rectangle> blockages = getSavedBlockages();
+		preprocessor.execute(new Runnable() {
+			public void run() {
+				if (terrainGrid.getVersion() != snapshot.getVersion())
+					return;
+				try {
+					ComponentsStage componentsStage = new ComponentsStage(new BlockedTerrainStage(terrainArtifact, blockages));
+					pipeline.run(componentsStage);
+					ConnectedComponents labels = pipeline.get(componentsStage).forVersion(snapshot.getVersion());
+					components = labels;
+					System.out.println("Labeled " + labels.getComponentCount() + " connected component(s) of terrain version " 
+							+ labels.getVersion() + ".");
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
-    	}
-    	
-    	this.nodes = nodes;
+		});
+	}
+	
+	/**
+	 * The areas blocked by the saved selections, which together with the node image make up the terrain.
+	 */
+	private List<Rectangle> getSavedBlockages() {
+		Selection blocked = new Selection();
+		for (Selection selection : parent.getProfile().getSavedSelections())
+			if (selection.getTerrain() == Terrain.BLOCKED)
+				blocked.addAll(selection);
+		return blocked.getRectangles();
 	}
 	
 	/**
@@ -446,6 +572,30 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 			currentZoomAmount = maxZoomOut;
 	}
 	
+	private static int countValidNodes(Node[][] nodes) {
+		int count = 0;
+		for (Node[] row : nodes)
+			for (Node node : row)
+				if (node.isValid())
+					count++;
+		return count;
+	}
+	
+	/**
+	 * Tiles the map image is drawn from, with their cache statistics. Null if the image couldn't be loaded.
+	 */
+	public TilePyramid getMapTiles() {
+		return mapTiles;
+	}
+	
+	/**
+	 * The cache the grid was loaded from, or null until loading starts. When serialization is disabled, the
+	 * cache only keeps artifacts in memory.
+	 */
+	public GridCache getGridCache() {
+		return gridCache;
+	}
+	
 	public int getNumberNodes(boolean validOnly) {
 		if (!validOnly) {
 			return nodes.length * nodes[0].length;
@@ -532,26 +682,19 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
         // Update the current image bounds based on the transform. Useful for determining if used click image and where. 
         imageBounds = new Rectangle((int)drawImageX, (int)drawImageY, (int)(mapImage.getWidth(null) * currentZoomAmount), (int)(mapImage.getHeight(null) * currentZoomAmount));
         
-        // Draw the image on the screen with transformation applied.
-	    g.drawImage(mapImage,  (int)drawImageX,  (int)drawImageY, (int)(mapImage.getWidth(null) * currentZoomAmount), (int)(mapImage.getHeight(null) * currentZoomAmount), null);
+        // Draw the image on the screen with transformation applied, only the tiles that are on screen.
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+        	clip = new Rectangle(0, 0, getWidth(), getHeight());
+        if (mapTiles != null)
+        	mapTiles.draw((Graphics2D) g, drawImageX, drawImageY, currentZoomAmount, clip);
+        else
+        	g.drawImage(mapImage,  (int)drawImageX,  (int)drawImageY, (int)(mapImage.getWidth(null) * currentZoomAmount), (int)(mapImage.getHeight(null) * currentZoomAmount), null);
         
 	    int ovalWidth = (int)(this.nodeVisualIndicationWidth * (1 / currentZoomAmount));
 	    
 	    double amountZoomedAsPercent = this.currentZoomAmount / this.maxZoomIn;
-	    System.out.println("amountZoomedAsPercent = " + amountZoomedAsPercent);
-	    int pathIncrement = 1;
-	    
-	    if (amountZoomedAsPercent <= 0.25)
-	    	pathIncrement = 5;
-	    if (amountZoomedAsPercent > 0.25 && amountZoomedAsPercent <= 0.5) 
-	    	pathIncrement = 4;
-	    if (amountZoomedAsPercent > 0.5 && amountZoomedAsPercent <= 0.9) 
-	    	pathIncrement = 3;
-	    if (amountZoomedAsPercent > 0.9)
-	    	pathIncrement = 1;
-	    
-	    int startDestTransparency = 255 - (int)(this.maxAlphaDecreaseForStartAndDest * amountZoomedAsPercent);
-	    int pathTransparency = 255 - (int)(this.maxAlphaDecreaseForPathNodes * amountZoomedAsPercent);
+	    updateOverlayColors(amountZoomedAsPercent);
 	    
 	    // Clamp the value of ovalWidth between the pre-defined constraints.
 	    if (ovalWidth > maxNodeVisualWidth)
@@ -559,131 +702,155 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	    else if (ovalWidth < minNodeVisualWidth)
 	    	ovalWidth = minNodeVisualWidth;
 	    
-	    int ovalRadius = ovalWidth / 2;
+	    // The overlays are cached as shapes relative to the image, so a pan only moves them. They are only rebuilt
+	    // when the zoom or what they show changes.
+	    Graphics2D overlayGraphics = (Graphics2D) g;
         if (this.startingNode != null) {
-        	Color transparentGreen = new Color(10, 199, 41, startDestTransparency); 
-        	g.setColor(transparentGreen);
-        	//System.out.println("\n-=-=-=-=-=-= STARTING NODE =-=-=-=-=-=-");
-        	Point topLeft = nodeToImageCoordinates(this.startingNode.getPointFlipped());
-        	
-        	// Adjust so the oval is centered where the user clicks (instead of the top-left of the oval
-        	// being where the user clicked).
-    		Point center = new Point(topLeft.x - ovalRadius, topLeft.y - ovalRadius); 
-    		
-        	//System.out.println("Drawing oval for starting node at " + center.toString() + " with width " + ovalWidth);
-        	g.fillOval((int)(center.x), (int)(center.y), ovalWidth, ovalWidth);
+        	if (!startMarker.isCurrent(currentZoomAmount, startingNode))
+        		startMarker.update(markerShape(startingNode, ovalWidth), currentZoomAmount, startingNode);
+        	g.setColor(startColor);
+        	startMarker.fill(overlayGraphics, drawImageX, drawImageY);
         }
         
         if (this.destNode != null) {
-        	Color transparentRed = new Color(199, 10, 10, startDestTransparency); 
-        	g.setColor(transparentRed);
-        	//System.out.println("\n-=-=-=-=-=-= DESTINATION NODE =-=-=-=-=-=-");
-        	Point topLeft = nodeToImageCoordinates(this.destNode.getPointFlipped());
-        	
-        	int downShift = (int)(nodeDownTranslate * (1 / this.currentZoomAmount));
-        	
-        	// Adjust so the oval is centered where the user clicks (instead of the top-left of the oval
-        	// being where the user clicked).
-    		Point center = new Point(topLeft.x - ovalRadius, topLeft.y - ovalRadius);         	
-        	//System.out.println("Drawing oval for destination node at " + center.toString() + " with width " + ovalWidth);
-
-        	g.fillOval((int)(center.x), (int)(center.y), ovalWidth, ovalWidth);
+        	if (!destMarker.isCurrent(currentZoomAmount, destNode))
+        		destMarker.update(markerShape(destNode, ovalWidth), currentZoomAmount, destNode);
+        	g.setColor(destColor);
+        	destMarker.fill(overlayGraphics, drawImageX, drawImageY);
         }
         
-        if (shortestPath.size() > 0) {
-    	    int pathOvalWidth = (int)(this.pathNodeVisualWidth * (1 / currentZoomAmount));
-    	    // Clamp the value of ovalWidth between the pre-defined constraints.
-    	    if (pathOvalWidth > maxPathNodeVisualWidth)
-    	    	pathOvalWidth = maxPathNodeVisualWidth;
-    	    else if (pathOvalWidth < minPathNodeVisualWidth)
-    	    	pathOvalWidth = minPathNodeVisualWidth;
+        if (shortestPath != null) {
+    	    int pathWidth = (int)(this.pathNodeVisualWidth * (1 / currentZoomAmount));
+    	    // Clamp the value of pathWidth between the pre-defined constraints.
+    	    if (pathWidth > maxPathNodeVisualWidth)
+    	    	pathWidth = maxPathNodeVisualWidth;
+    	    else if (pathWidth < minPathNodeVisualWidth)
+    	    	pathWidth = minPathNodeVisualWidth;
     	    
-    	    int pathOvalRadius = pathOvalWidth / 2;        
-            
-        	Color transparentBlue = new Color(66, 87, 245, pathTransparency);
-        	g.setColor(transparentBlue);        
-        	
-        	// We don't downshift the first 5% of the path nodes or the last 5%.
-        	// We do not downshift start/ending nodes, so by not down shifting we sort of connect the two.
-        	int lower1 = (int)(shortestPath.size() * 0.02);
-        	int upper1 = (int)(shortestPath.size() * 0.98);
-        	
-        	int lower2 = (int)(shortestPath.size() * 0.4);
-        	int upper2 = (int)(shortestPath.size() * 0.96);
-        	
-        	// Iterate over all of the nodes in the shortest path and display them.
-        	// We increment i by a value dependent on how zoomed-in we are. If we're
-        	// very zoomed-in, then we'd like to display more of the nodes in the path.
-        	// If we're zoomed out, it isn't so important to display each and every node.
-        	for (int i = 0; i < shortestPath.size(); i += pathIncrement) {
-        		Node cur = shortestPath.get(i);
-        		
-        		Point topLeft = null;
-        		
-        		// We vary the downshift amount depending on where in the past the nodes are.
-        		// Nodes near the very start or very end are downshifted LESS than nodes in the middle of the path.
-        		if (i <= lower1) {
-        			topLeft = nodeToImageCoordinates(cur.getPointFlipped(), false);
-        		}	
-        		else if (i > lower1 && i <= lower2) {
-        			topLeft = nodeToImageCoordinates(cur.getPointFlipped(), true, 5);
-        		}
-        		else if (i > lower2 && i <= upper2) {
-        			topLeft = nodeToImageCoordinates(cur.getPointFlipped(), true, 10);
-        		}
-        		else if (i > upper2 && i <= upper1) {
-        			topLeft = nodeToImageCoordinates(cur.getPointFlipped(), true, 5);
-        		}
-        		else {
-        			topLeft = nodeToImageCoordinates(cur.getPointFlipped(), false);
-        		}
-        		
-    			Point center = new Point(topLeft.x - pathOvalRadius, topLeft.y - pathOvalRadius); 
-        		
-        		g.fillOval((int)(center.x), (int)(center.y), pathOvalWidth, pathOvalWidth);
-        	}        	
+        	// The renderer keeps the simplified line of every zoom it has drawn, so it is only replaced with the route.
+        	if (routeRenderer == null || routeRenderer.getRoute() != shortestPath)
+        		routeRenderer = new RouteRenderer(shortestPath, scaleX, scaleY, nodeDownTranslate);
+        	g.setColor(pathColor);
+        	routeRenderer.draw(overlayGraphics, drawImageX, drawImageY, currentZoomAmount, pathWidth, clip);
         }
         
         //draw the selection if there is one
-        if(!clickAndDragSelection.isEmpty()) {
-        	
-        	System.out.println("Selection not Empty");
-        	
-        	HashSet<Node> selectedNodes = clickAndDragSelection.getNodes();
-        
-        	int selectionWidth = (int)(this.selectionVisualWidth * (1 / currentZoomAmount));
-    	    // Clamp the value of rectWidth between the pre-defined constraints.
-    	    if (selectionWidth > this.maxSelectionVisualWidth)
-    	    	selectionWidth = maxSelectionVisualWidth;
-    	    else if (selectionWidth < this.minSelectionVisualWidth)
-    	    	selectionWidth = minSelectionVisualWidth;
+        if(gridReady && !clickAndDragSelection.isEmpty()) {
         	
         	//set color of selected nodes
-    		Color transparentGreen = new Color(66, 245, 87, pathTransparency);
-    		g.setColor(transparentGreen);
+    		g.setColor(selectionColor);
         	
-    		// draw every other
-    		int draw = 0;
-    		//draw over only valid selected nodes
-        	for(Node node : selectedNodes) {
-        		/*if (draw++ != 0) {
-        			if (draw >= 5)
-        			{
-        				draw = 0;
-        			}
-        			continue;
-        		}
-        		draw++;*/
-        		// We pass '5' as the downshift instead of using the default '10' as '5' just looks better for this, based on trial and error.
-        		Point center = nodeToImageCoordinates(node.getPointFlipped(), true, 5); 
-        		//int downShift = (int)(nodeDownTranslate * (1 / this.currentZoomAmount));
-        		g.fillOval(center.x, center.y, selectionWidth, selectionWidth);
-        	}
+    		//draw over only valid selected nodes, and only the tiles of them that are in the area being painted
+    		Rectangle visible = getVisibleNodeArea(clip);
+    		selectionTiles.fill(overlayGraphics, drawImageX, drawImageY, currentZoomAmount, selectionVersion, visible);
+    		
+    		//the rectangle being dragged out changes every frame, so it isn't cached
+    		Rectangle beingDragged = clickAndDragSelection.getActiveRectangle();
+    		if (beingDragged != null)
+    			drawSelectedNodes(g, beingDragged.intersection(visible), getSelectionWidth());
     	}
         
 	}
 	
+	/**
+	 * Recompute the overlay colors, whose transparency depends on the zoom, when the zoom has changed.
+	 */
+	private void updateOverlayColors(double amountZoomedAsPercent) {
+		if (amountZoomedAsPercent == overlayColorZoom)
+			return;
+		overlayColorZoom = amountZoomedAsPercent;
+	    int startDestTransparency = 255 - (int)(this.maxAlphaDecreaseForStartAndDest * amountZoomedAsPercent);
+	    int pathTransparency = 255 - (int)(this.maxAlphaDecreaseForPathNodes * amountZoomedAsPercent);
+		startColor = new Color(10, 199, 41, startDestTransparency);
+		destColor = new Color(199, 10, 10, startDestTransparency);
+		pathColor = new Color(66, 87, 245, pathTransparency);
+		selectionColor = new Color(66, 245, 87, pathTransparency);
+	}
+	
+	/**
+	 * Width of the dots over selected nodes at the current zoom.
+	 */
+	private int getSelectionWidth() {
+    	int selectionWidth = (int)(this.selectionVisualWidth * (1 / currentZoomAmount));
+	    // Clamp the value of rectWidth between the pre-defined constraints.
+	    if (selectionWidth > this.maxSelectionVisualWidth)
+	    	selectionWidth = maxSelectionVisualWidth;
+	    else if (selectionWidth < this.minSelectionVisualWidth)
+	    	selectionWidth = minSelectionVisualWidth;
+	    return selectionWidth;
+	}
+	
+	/**
+	 * Oval centered on the node, exactly where the user clicked, relative to the top left corner of the image.
+	 */
+	private Shape markerShape(Node node, int ovalWidth) {
+		int ovalRadius = ovalWidth / 2;
+		Point center = node.getPointFlipped();
+		return new Ellipse2D.Double(nodeToMapX(center.x) - ovalRadius, nodeToMapY(center.y, false, 0) - ovalRadius, ovalWidth, ovalWidth);
+	}
+	
+	/**
+	 * Dots over every valid selected node in the given area (in node coordinates), relative to the top left
+	 * corner of the image.
+	 */
+	private Shape selectionShape(final Rectangle coverage, final int width) {
+		final Path2D.Double shape = new Path2D.Double(Path2D.WIND_NON_ZERO);
+		selectionIndex.query(coverage, new QuadTree.EntryVisitor<Rectangle>() {
+			public void visit(Rectangle bounds, Rectangle zone) {
+				Rectangle area = zone.intersection(coverage);
+				for (int x = area.x; x < area.x + area.width; x++) {
+					for (int y = area.y; y < area.y + area.height; y++) {
+						if (!nodes[x][y].isValid())
+							continue;
+						// We pass '5' as the downshift instead of using the default '10' as '5' just looks better for this, based on trial and error.
+						shape.append(new Ellipse2D.Double(nodeToMapX(y), nodeToMapY(x, true, 5), width, width), false);
+					}
+				}
+			}
+		});
+		return shape;
+	}
+	
+	
 	
+	/**
+	 * Fill a dot over every valid node in the given area (in node coordinates).
+	 */
+	private void drawSelectedNodes(Graphics g, Rectangle area, int width) {
+		for (int x = area.x; x < area.x + area.width; x++) {
+			for (int y = area.y; y < area.y + area.height; y++) {
+				if (!nodes[x][y].isValid())
+					continue;
+				// We pass '5' as the downshift instead of using the default '10' as '5' just looks better for this, based on trial and error.
+				Point center = nodeToImageCoordinates(new Point(y, x), true, 5); 
+				g.fillOval(center.x, center.y, width, width);
+			}
+		}
+	}
+	
+	/**
+	 * The area of the node grid under the given area of this panel (such as the clip being painted), in node
+	 * coordinates (x runs along the first index of {@link nodes}). A small margin is included to account for downshifting.
+	 */
+	private Rectangle getVisibleNodeArea(Rectangle panelArea) {
+		final int margin = 2;
+		Point topLeft = panelToNodeCoordinates(new Point(panelArea.x, panelArea.y));
+		Point bottomRight = panelToNodeCoordinates(new Point(panelArea.x + panelArea.width, panelArea.y + panelArea.height));
+		Rectangle visible = new Rectangle(topLeft.y - margin, topLeft.x - margin, 
+				bottomRight.y - topLeft.y + 2 * margin + 1, bottomRight.x - topLeft.x + 2 * margin + 1);
+		return visible.intersection(new Rectangle(0, 0, nodes.length, nodes[0].length));
+	}
+	
+	/**
+	 * Rebuild {@link selectionIndex} from the committed part of {@link clickAndDragSelection}.
+	 */
+	private void reindexSelection() {
+		QuadTree<Rectangle> index = new QuadTree<>(nodes.length, nodes[0].length);
+		for (Rectangle zone : clickAndDragSelection.getRectangles())
+			index.insert(zone, zone);
+		this.selectionIndex = index;
+		selectionVersion++;
+	}
 	
 	private Rectangle getImageBounds() {
 		int w = mapImage.getWidth(null);
@@ -715,25 +882,47 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	public void clearSelectedNodes() {
 		this.startingNode = null;
 		this.destNode = null;
-		shortestPath.clear();
+		shortestPath = null;
 		
 		repaint();
 	}
 
 	public void generatePaths() {
 		
-		if (this.startingNode == null && this.destNode == null) 
+		if (!gridReady) {
+			JOptionPane.showMessageDialog(null, "The map is still loading, please try again in a moment.", "Error", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		
+		if (this.startingNode == null && this.destNode == null) {
 			JOptionPane.showMessageDialog(null, "Please specify both a starting node and a destination node first.", "Error", JOptionPane.WARNING_MESSAGE);
-		else if (this.startingNode == null) 
+			return;
+		} else if (this.startingNode == null) {
 			JOptionPane.showMessageDialog(null, "Please specify a starting node.", "Error", JOptionPane.WARNING_MESSAGE);
-		else if (this.destNode == null)
+			return;
+		} else if (this.destNode == null) {
 			JOptionPane.showMessageDialog(null, "Please specify a destination node.", "Error", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
 		
 		
+		GridSnapshot snapshot = terrainGrid.current();
+		
+		// Once the background labeling has caught up with this snapshot, two points in different components
+		// are known not to be connected without having to search.
+		ConnectedComponents labels = components;
+		if (labels != null && labels.getVersion() == snapshot.getVersion()
+				&& labels.areSeparated(startingNode.getX(), startingNode.getY(), destNode.getX(), destNode.getY())) {
+			JOptionPane.showMessageDialog(null, "ERROR - No path could be generated. The two points are not connected...", "Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		
 		LinkedList<Node> path = new LinkedList<Node>();
 		path.add(startingNode);
 		path.add(destNode);
-		ShortestPathAlgorithm spa = new ShortestPathAlgorithm(path, nodes);
+		ShortestPathAlgorithm spa = new ShortestPathAlgorithm(path, nodes, snapshot);
+		parent.getProfile().setGridSize(nodes.length, nodes[0].length);
+		spa.setNoGoZones(parent.getProfile().getNoGoZones());
 		HashMap<Node, Node> discovered = new HashMap<Node, Node>();
 		int result = spa.calculateShortestPath(discovered);
 		
@@ -743,18 +932,14 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 		}
 		System.out.println("The distance between the two nodes is " + result + " nodes.");
 		
-		LinkedList<Node> actualPath = new LinkedList<Node>();
+		// Walk back from the destination, then store the steps in the same order as a compact route.
+		Route.Builder route = new Route.Builder(destNode.getX(), destNode.getY());
 		Node n = destNode;
-		actualPath.add(n);
 		while (!startingNode.equals(n)) {
 			n = discovered.get(n);
-			actualPath.add(n);
+			route.stepTo(n.getX(), n.getY());
 		}
-		// Remove the first and last elements, which will be the destination and the start, respectively.
-		// actualPath.removeFirst();
-		// actualPath.removeLast();
-		this.shortestPath.clear();
-		this.shortestPath.addAll(actualPath);
+		this.shortestPath = route.build();
 		repaint();
 	}
 	
@@ -804,6 +989,10 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 		System.out.println("row: "  + rowLength);
 		System.out.println("col: "  + colLength);*/
 		
+		if (!gridReady) {
+			System.out.println("The map grid is still loading.");
+			return;
+		}
 		startingNode = nodes[x][y];
 		System.out.println("starting node set");
 		// If we click buildings multiple times in a row without doing anything that triggers a repaint(), then we can 
@@ -853,6 +1042,10 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	
 	public void setDestinationNode(int x, int y) 
 	{
+		if (!gridReady) {
+			System.out.println("The map grid is still loading.");
+			return;
+		}
 		destNode = nodes[x][y];
 		repaint();
 		// If we click buildings multiple times in a row without doing anything that triggers a repaint(), then we can 
@@ -879,7 +1072,7 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 			
 			shouldTranslate = true;
 		}
-		else if (isSelecting) {//RIGHT MOUSE BUTTON IS HELD (CREATE SELECTION)	
+		else if (isSelecting && gridReady) {//RIGHT MOUSE BUTTON IS HELD (CREATE SELECTION)	
 			System.out.println("Selecting...");
 			
 			Point startNodeCoords = panelToNodeCoordinates(mouseSelectionStart);//beginning node point of selection
@@ -896,24 +1089,15 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 			int startY = (startNodeCoords.y <= endNodeCoords.y) ? startNodeCoords.y : endNodeCoords.y;
 			int endY = (endNodeCoords.y > startNodeCoords.y) ? endNodeCoords.y : startNodeCoords.y; 
 			
-			//loop through all nodes in the selected square and add to Selection
-			
-			System.out.println("("+startX+","+startY+")");
-			System.out.println("("+endX+","+endY+")");
+			//clamp the selection to the grid
+			startX = Math.max(startX, 0);
+			startY = Math.max(startY, 0);
+			endX = Math.min(endX, nodes[0].length);
+			endY = Math.min(endY, nodes.length);
 			
-			for(int x = startX; x < endX; x++) {
-				for(int y = startY; y < endY; y++) {
-					
-					Node currNode = nodes[y][x];//the current node at (x, y)
-					
-					if(currNode.isValid()) {//if node is valid, add to Selection
-						
-						clickAndDragSelection.addNode(nodes[y][x]);
-						
-					}
-					
-				}
-			}
+			//the rectangle being dragged only replaces the previous one; it gets merged into the Selection on release
+			//(the selection is in node coordinates, where x is the row)
+			clickAndDragSelection.setActiveRectangle(startY, startX, endY, endX);
 		
 		}
 		
@@ -962,23 +1146,26 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	 * @return
 	 */
 	public Point nodeToImageCoordinates(Point p, boolean applyDownshift, int downShift) {
+		return new Point((int)(nodeToMapX(p.x) + this.drawImageX), (int)(nodeToMapY(p.y, applyDownshift, downShift) + this.drawImageY));
+	}
+	
+	/**
+	 * Horizontal position of a node column on the display image at the current zoom, relative to the image's left edge.
+	 */
+	private int nodeToMapX(int x) {
+		double ratioX = imageBounds.getWidth() / mapImage.getWidth(null);
+		x = (int)(x / scaleX);
+		return (int)(x * ratioX);
+	}
+	
+	/**
+	 * Vertical position of a node row on the display image at the current zoom, relative to the image's top edge.
+	 */
+	private int nodeToMapY(int y, boolean applyDownshift, int downShift) {
 		double ratioX = imageBounds.getWidth() / mapImage.getWidth(null);
-		//System.out.println("\nimageBounds.getWidth() / mapImage.getWidth(null) = " + imageBounds.getWidth() + "/" + mapImage.getWidth(null) + " = " + ratioX);
 		double ratioY = imageBounds.getHeight() / mapImage.getHeight(null);
-		//System.out.println("imageBounds.getHeight() / mapImage.getHeight(null) = " + imageBounds.getHeight() + "/" + mapImage.getHeight(null) + " = " + ratioY);
-		
-		//System.out.println("Node Point: " + p.toString());
-		//System.out.println("ImageBounds: " + imageBounds.toString() + "\n");
-		int x = (int)(p.x / scaleX);
-		//System.out.println("p.x / scaleX = " + x);
-		x = (int)(x * ratioX);
-		//System.out.println("x += this.drawImageX --> " + x + " += " + this.drawImageX + " --> " + ((int)(x + drawImageX)));
-		x += this.drawImageX;
-		int y = (int)(p.y / scaleY);
-		//System.out.println("p.y / scaleY = " + y);
+		y = (int)(y / scaleY);
 		y = (int)(y * ratioY);
-		//System.out.println("y += this.drawImageY --> " + y + " += " + this.drawImageY + " --> " + ((int)(y + drawImageY)));
-		y += this.drawImageY;
 		
 		if (applyDownshift) {
 			downShift = (int)(downShift / scaleX);
@@ -986,7 +1173,7 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 			y += downShift;
 		}
 		
-		return new Point(x,y);
+		return y;
 	}
 
 	public void mouseClicked(MouseEvent eventArgs) {
@@ -994,7 +1181,9 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 		//Get the point that was clicked and output the validity of the node at that point
 		Point clicked = eventArgs.getPoint();
 		Clicked c = null;
-		if (imageBounds.contains(clicked)) {
+		if (!gridReady) {
+			System.out.println("Click at " + clicked + " ignored, the map grid is still loading.");
+		} else if (imageBounds.contains(clicked)) {
 			double ratioX = mapImage.getWidth(null) / imageBounds.getWidth();
 			ratioX *= scaleX;
 			double ratioY = mapImage.getHeight(null) / imageBounds.getHeight();
@@ -1012,13 +1201,13 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 				{
 					System.out.println("Starting node set to node at (" + adjustedForImage.getX() + "," + adjustedForImage.getY() + ")");
 					this.startingNode = clickedNode;
-					this.shortestPath.clear();
+					this.shortestPath = null;
 					this.nextClickSetsStart = false;
 				}
 				else if (this.nextClickSetsDest) {
 					System.out.println("Destination node set to node at (" + adjustedForImage.getX() + "," + adjustedForImage.getY() + ")");
 					this.destNode = clickedNode;
-					this.shortestPath.clear();
+					this.shortestPath = null;
 					this.nextClickSetsDest = false;					
 				}
 			}			
@@ -1076,6 +1265,10 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 		if(eventArgs.getButton() == MouseEvent.BUTTON3) {//RIGHT MOUSE BUTTON RELEASED (MAKE SELECTION)
 			
 			isSelecting = false;
+			if (gridReady) {
+				clickAndDragSelection.commitActiveRectangle(nodes);
+				reindexSelection();
+			}
 			
 		}
 		
@@ -1115,59 +1308,89 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 	public void clearPathNodes() {
 		this.startingNode = null;
 		this.destNode = null;
-		shortestPath.clear();
+		shortestPath = null;
 		
 		//TODO: remove this when no longer needed
-		ArrayList<ArrayList<Node>> savedPaths = parent.getProfile().getSavedPaths(); 
-		if (savedPaths.size() > 0)
-			savedPaths.remove(0);
-		parent.getProfile().saveProfile();
+		if (parent.getProfile().getSavedPaths().size() > 0)
+			parent.getProfile().removePath(0);
+		parent.getProfilePersistence().markDirty();
 		
 		repaint();
 	}
 	
 	public void savePath() {
 		
+		if (shortestPath == null)
+			return;
 		parent.getProfile().storePath(shortestPath);
-		parent.getProfile().saveProfile();
+		parent.getProfilePersistence().markDirty();
 		
 	}
 	
 	public void saveSelection() {
 		
+		if (!gridReady)
+			return;
+		
 		//set selection to Blocked
-		clickAndDragSelection.setNodesTerrain(Terrain.BLOCKED);
+		clickAndDragSelection.setTerrain(Terrain.BLOCKED);
 		
+		clickAndDragSelection.applyTerrain(nodes);//update the live map (so the BFS takes selection into account)
+		reindexSelection();
 		
-		HashSet<Node> selectedNodes = clickAndDragSelection.getNodes();
-		for(Node node : selectedNodes)
-			nodes[node.getX()][node.getY()].setTerrain(node.getTerrain());//update the live map (so the BFS takes selection into account)
+		publishTerrain(clickAndDragSelection);
 		
 		//save the terrain change on the selection to persist
-		parent.getProfile().storeSelection(clickAndDragSelection.getNodes());
-		parent.getProfile().saveProfile();
+		parent.getProfile().storeSelection(new Selection(clickAndDragSelection));
+		parent.getProfilePersistence().markDirty();
+		
+		startPreprocessing();
 		
 	}
 	
+	/**
+	 * Publish the current terrain of the nodes covered by the given selection as a new version of
+	 * {@link terrainGrid}, so that searches started from now on see the change while searches already
+	 * running keep their old view.
+	 */
+	private void publishTerrain(final Selection changed) {
+		terrainGrid.update(new VersionedGrid.GridUpdate() {
+			public void apply(final GridSnapshot.Editor editor) {
+				changed.forEachCell(new Selection.CellVisitor() {
+					public void visit(int x, int y) {
+						if (x >= 0 && x < nodes.length && y >= 0 && y < nodes[x].length)
+							editor.setTerrain(x, y, nodes[x][y].getTerrain());
+					}
+				});
+			}
+		});
+	}
+	
 	public Selection getSelection() {
 		return clickAndDragSelection;
 	}
 	
 	public void clearSelection() {
 		
+		if (!gridReady)
+			return;
+		
 		//set selection to Walkable
-		clickAndDragSelection.setNodesTerrain(Terrain.WALKABLE);
+		clickAndDragSelection.setTerrain(Terrain.WALKABLE);
 		
-		HashSet<Node> selectedNodes = clickAndDragSelection.getNodes();
-		for(Node node : selectedNodes)
-			nodes[node.getX()][node.getY()].setTerrain(node.getTerrain());//update the live map to revert selection changes
+		clickAndDragSelection.applyTerrain(nodes);//update the live map to revert selection changes
+		
+		publishTerrain(clickAndDragSelection);
 		
 		//get rid of the selection
 		clickAndDragSelection.clear();
+		reindexSelection();
 		
 		//remove all of the terrain edits from the selection
-		parent.getProfile().storeSelection(clickAndDragSelection.getNodes());
-		parent.getProfile().saveProfile();
+		parent.getProfile().clearSelections();
+		parent.getProfilePersistence().markDirty();
+		
+		startPreprocessing();
 		
 		repaint();
 	}
@@ -1188,16 +1411,43 @@ public class MapPanel extends JPanel implements MouseWheelListener, MouseListene
 		return this.destNode;
 	}
 	
+	/**
+	 * The nodes of the shortest path, from the destination back to the start. Empty if there is no path.
+	 */
 	public ArrayList<Node> getShortestPath() {
+		ArrayList<Node> path = new ArrayList<Node>();
+		if (shortestPath == null)
+			return path;
+		Route.Cursor cursor = shortestPath.cursor();
+		do {
+			path.add(nodes[cursor.getRow()][cursor.getCol()]);
+		} while (cursor.next());
+		return path;
+	}
+	
+	/**
+	 * The shortest path as a route, from the destination back to the start, or null if there is no path.
+	 */
+	public Route getShortestRoute() {
 		return this.shortestPath;
 	}
 	
+	/**
+	 * The grid of nodes, waiting for it to finish loading if needed.
+	 */
 	public Node[][] getGraph()
 	{
+		awaitGrid();
 		return this.nodes;
 		
 	}
 	
+	public VersionedGrid getTerrainGrid()
+	{
+		awaitGrid();
+		return this.terrainGrid;
+	}
+	
 	public LinkedList<Node> getPath()
 	{
 		return this.path;
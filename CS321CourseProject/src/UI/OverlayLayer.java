@@ -0,0 +1,66 @@
+package UI;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Objects;
+
+/**
+ * One thing drawn over the map (a start or destination marker), kept as a single shape so it doesn't have
+ * to be rebuilt on every repaint. Overlays that can cover the whole map are drawn by {@link TiledOverlay}.
+ *
+ * The shape is in pixels relative to the top left corner of the map image at one zoom, so panning only moves
+ * where it is drawn. It is rebuilt when the zoom changes or when the data it was built from changes (compared
+ * with {@link Object#equals(Object)}, so pass an immutable value or a version number).
+ */
+public final class OverlayLayer {
+
+	private Shape shape = null;
+	private Rectangle bounds = null;
+	private double zoom = Double.NaN;
+	private Object data = null;
+
+	private long buildCount = 0;
+
+	/**
+	 * Returns true if the shape can be drawn as it is.
+	 */
+	public boolean isCurrent(double zoom, Object data) {
+		return shape != null && zoom == this.zoom && Objects.equals(data, this.data);
+	}
+
+	/**
+	 * Replace the shape.
+	 */
+	public void update(Shape shape, double zoom, Object data) {
+		this.shape = shape;
+		this.bounds = shape.getBounds();
+		this.zoom = zoom;
+		this.data = data;
+		buildCount++;
+	}
+
+	public void invalidate() {
+		shape = null;
+		data = null;
+	}
+
+	/**
+	 * Fill the shape with the current color of the graphics, with the map image's top left corner at (x, y).
+	 * Nothing is done if the shape is outside of the area being painted.
+	 */
+	public void fill(Graphics2D g, double x, double y) {
+		if (shape == null || !g.hitClip((int) Math.floor(x) + bounds.x, (int) Math.floor(y) + bounds.y, bounds.width + 1, bounds.height + 1))
+			return;
+		g.translate(x, y);
+		g.fill(shape);
+		g.translate(-x, -y);
+	}
+
+	/**
+	 * Number of times the shape was built.
+	 */
+	public long getBuildCount() {
+		return buildCount;
+	}
+}
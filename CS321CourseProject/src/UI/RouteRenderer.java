@@ -0,0 +1,373 @@
+package UI;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import Map.QuadTree;
+import Map.Route;
+
+/**
+ * Draws a route as one polyline, simplified to what can be seen at the zoom it is drawn at.
+ *
+ * The route is first reduced to its corners, since the nodes of a straight run add nothing to the line. At each
+ * zoom the corners are simplified with Douglas-Peucker, dropping every corner that is less than
+ * {@link #TOLERANCE} screen pixels away from the line without it. Zooms are grouped into buckets that double in
+ * size, and the simplified line of each bucket is kept, so a route is simplified once per bucket rather than once
+ * per frame. How many vertices are drawn depends on how much detail fits on screen, not on how long the route is.
+ *
+ * The node grid sits a little higher on the map image than the roads it was made from, so every vertex but the
+ * start and the end is drawn lower by a fixed number of nodes, as {@link MapPanel} does for path nodes. The start
+ * and the end stay where they are, so the first and last segments slope down from the markers to the rest of
+ * the line.
+ *
+ * The simplified line is cut into runs of {@link #CHUNK_SIZE} segments, indexed by their bounds in a
+ * {@link QuadTree}, so a frame only looks at the runs that cross the visible area. Those are joined into one
+ * line in pixels of the map image and stroked in a single call with the zoom applied to the graphics.
+ */
+public final class RouteRenderer {
+
+	/**
+	 * Furthest a dropped corner may be from the drawn line, in screen pixels.
+	 */
+	public static final double TOLERANCE = 0.5;
+
+	/**
+	 * Segments of the simplified line in each indexed run.
+	 */
+	public static final int CHUNK_SIZE = 32;
+
+	/**
+	 * The simplified line of one zoom bucket, in pixels of the map image.
+	 */
+	private static final class Geometry {
+		final double[] xs;
+		final double[] ys;
+		final int vertexCount;
+
+		/**
+		 * Run c goes from vertex c * CHUNK_SIZE to vertex (c + 1) * CHUNK_SIZE, or to the last vertex.
+		 */
+		final QuadTree<Integer> chunks;
+
+		Geometry(double[] xs, double[] ys, int vertexCount) {
+			this.xs = xs;
+			this.ys = ys;
+			this.vertexCount = vertexCount;
+
+			double minX = xs[0], minY = ys[0], maxX = xs[0], maxY = ys[0];
+			for (int i = 1; i < vertexCount; i++) {
+				minX = Math.min(minX, xs[i]);
+				minY = Math.min(minY, ys[i]);
+				maxX = Math.max(maxX, xs[i]);
+				maxY = Math.max(maxY, ys[i]);
+			}
+			this.chunks = new QuadTree<>(bounds(minX, minY, maxX, maxY));
+			for (int chunk = 0; chunk * CHUNK_SIZE < vertexCount - 1; chunk++) {
+				int first = chunk * CHUNK_SIZE;
+				int last = Math.min(first + CHUNK_SIZE, vertexCount - 1);
+				minX = maxX = xs[first];
+				minY = maxY = ys[first];
+				for (int i = first + 1; i <= last; i++) {
+					minX = Math.min(minX, xs[i]);
+					minY = Math.min(minY, ys[i]);
+					maxX = Math.max(maxX, xs[i]);
+					maxY = Math.max(maxY, ys[i]);
+				}
+				chunks.insert(bounds(minX, minY, maxX, maxY), chunk);
+			}
+		}
+
+		/**
+		 * Smallest rectangle of whole pixels around the points, never empty so a straight run is indexed too.
+		 */
+		static Rectangle bounds(double minX, double minY, double maxX, double maxY) {
+			int x = (int) Math.floor(minX);
+			int y = (int) Math.floor(minY);
+			return new Rectangle(x, y, (int) Math.ceil(maxX) - x + 1, (int) Math.ceil(maxY) - y + 1);
+		}
+	}
+
+	private final Route route;
+	private final double scaleX;
+	private final double scaleY;
+
+	/**
+	 * How much lower every vertex but the start and the end is drawn, in pixels of the map image.
+	 */
+	private final double downShift;
+
+	/**
+	 * Rows and columns of the start, the corners and the end of the route.
+	 */
+	private final int[] cornerRows;
+	private final int[] cornerCols;
+	private final int cornerCount;
+
+	/**
+	 * Simplified line of every zoom bucket drawn so far.
+	 */
+	private final HashMap<Integer, Geometry> geometries = new HashMap<>();
+
+	/**
+	 * Vertices stroked by the last call to {@link #draw(Graphics2D, double, double, double, float, Rectangle)}.
+	 */
+	private int drawnVertexCount = 0;
+
+	private float strokeWidth = Float.NaN;
+	private Stroke stroke = null;
+
+	/**
+	 * @param scaleX columns of the node grid per pixel of the map image.
+	 * @param scaleY rows of the node grid per pixel of the map image.
+	 * @param downShift how much lower the middle of the route is drawn, in nodes.
+	 */
+	public RouteRenderer(Route route, double scaleX, double scaleY, int downShift) {
+		this.route = route;
+		this.scaleX = scaleX;
+		this.scaleY = scaleY;
+		// Converted the way MapPanel converts the downshift of a node, along the columns.
+		this.downShift = downShift / scaleX;
+
+		int[] rows = new int[16];
+		int[] cols = new int[16];
+		int count = 0;
+		int lastRowStep = 0;
+		int lastColStep = 0;
+		int lastRow = route.getStartRow();
+		int lastCol = route.getStartCol();
+		Route.Cursor cursor = route.cursor();
+		do {
+			int rowStep = cursor.getRow() - lastRow;
+			int colStep = cursor.getCol() - lastCol;
+			// A node where the direction changes ends the straight run before it.
+			if (cursor.getIndex() > 1 && (rowStep != lastRowStep || colStep != lastColStep)) {
+				if (count == rows.length) {
+					rows = Arrays.copyOf(rows, 2 * count);
+					cols = Arrays.copyOf(cols, 2 * count);
+				}
+				rows[count] = lastRow;
+				cols[count] = lastCol;
+				count++;
+			}
+			if (cursor.getIndex() == 0) {
+				rows[count] = cursor.getRow();
+				cols[count] = cursor.getCol();
+				count++;
+			}
+			lastRowStep = rowStep;
+			lastColStep = colStep;
+			lastRow = cursor.getRow();
+			lastCol = cursor.getCol();
+		} while (cursor.next());
+		if (count == rows.length) {
+			rows = Arrays.copyOf(rows, count + 1);
+			cols = Arrays.copyOf(cols, count + 1);
+		}
+		// The end, or the start again for a route without steps so there is a dot to draw.
+		rows[count] = lastRow;
+		cols[count] = lastCol;
+		count++;
+
+		this.cornerRows = rows;
+		this.cornerCols = cols;
+		this.cornerCount = count;
+	}
+
+	public Route getRoute() {
+		return route;
+	}
+
+	/**
+	 * Number of vertices before simplification: the start, every corner and the end.
+	 */
+	public int getCornerCount() {
+		return cornerCount;
+	}
+
+	/**
+	 * Zooms from 2^bucket up to 2^(bucket + 1) share a simplified line.
+	 */
+	public static int getBucket(double zoom) {
+		return (int) Math.floor(Math.log(zoom) / Math.log(2));
+	}
+
+	/**
+	 * Number of vertices of the line drawn at the given zoom.
+	 */
+	public int getVertexCount(double zoom) {
+		return getGeometry(zoom).vertexCount;
+	}
+
+	/**
+	 * Number of zoom buckets a simplified line has been made for.
+	 */
+	public int getBucketCount() {
+		return geometries.size();
+	}
+
+	/**
+	 * Number of vertices stroked in the last frame.
+	 */
+	public int getDrawnVertexCount() {
+		return drawnVertexCount;
+	}
+
+	private Geometry getGeometry(double zoom) {
+		int bucket = getBucket(zoom);
+		Geometry geometry = geometries.get(bucket);
+		if (geometry == null) {
+			// The bucket's largest zoom magnifies the dropped corners the most.
+			geometry = simplify(TOLERANCE / Math.pow(2, bucket + 1));
+			geometries.put(bucket, geometry);
+		}
+		return geometry;
+	}
+
+	/**
+	 * The simplified line for the given zoom, in pixels of the map image, made of the runs that cross the given
+	 * area of the map image. Runs that follow each other are joined, so the line only breaks where it leaves the
+	 * area.
+	 */
+	public Path2D.Double getGeometry(double zoom, Rectangle area) {
+		Geometry geometry = getGeometry(zoom);
+		List<Integer> visible = geometry.chunks.query(area);
+		Collections.sort(visible);
+
+		Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, visible.size() * (CHUNK_SIZE + 1));
+		int vertices = 0;
+		int previous = -2;
+		for (int chunk : visible) {
+			int first = chunk * CHUNK_SIZE;
+			int last = Math.min(first + CHUNK_SIZE, geometry.vertexCount - 1);
+			if (chunk != previous + 1) {
+				path.moveTo(geometry.xs[first], geometry.ys[first]);
+				vertices++;
+			}
+			for (int vertex = first + 1; vertex <= last; vertex++)
+				path.lineTo(geometry.xs[vertex], geometry.ys[vertex]);
+			vertices += last - first;
+			previous = chunk;
+		}
+		drawnVertexCount = vertices;
+		return path;
+	}
+
+	/**
+	 * Stroke the part of the route inside the visible area with the current color of the graphics, with the map
+	 * image's top left corner at (x, y) and scaled by the zoom.
+	 *
+	 * @param width width of the line in screen pixels.
+	 * @param visible area of the screen to draw.
+	 */
+	public void draw(Graphics2D g, double x, double y, double zoom, float width, Rectangle visible) {
+		// The visible area on the map image, grown by the width of the line so its edges are drawn too.
+		double margin = width / zoom;
+		Rectangle area = Geometry.bounds((visible.x - x) / zoom - margin, (visible.y - y) / zoom - margin,
+				(visible.x + visible.width - x) / zoom + margin, (visible.y + visible.height - y) / zoom + margin);
+		Path2D.Double geometry = getGeometry(zoom, area);
+
+		// The stroke is scaled along with the line, so it is made wider the further we zoom out.
+		float imageWidth = (float) (width / zoom);
+		if (imageWidth != strokeWidth) {
+			strokeWidth = imageWidth;
+			stroke = new BasicStroke(imageWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+		}
+
+		AffineTransform transform = g.getTransform();
+		Stroke previousStroke = g.getStroke();
+		g.translate(x, y);
+		g.scale(zoom, zoom);
+		g.setStroke(stroke);
+		g.draw(geometry);
+		g.setStroke(previousStroke);
+		g.setTransform(transform);
+	}
+
+	/**
+	 * Douglas-Peucker on the corners: keep the corner furthest from the line between two kept vertices if it is
+	 * further than the tolerance, and look at both halves again.
+	 *
+	 * @param tolerance in pixels of the map image.
+	 */
+	private Geometry simplify(double tolerance) {
+		double[] xs = new double[cornerCount];
+		double[] ys = new double[cornerCount];
+		for (int i = 0; i < cornerCount; i++) {
+			xs[i] = cornerCols[i] / scaleX;
+			ys[i] = cornerRows[i] / scaleY;
+			if (i > 0 && i < cornerCount - 1)
+				ys[i] += downShift;
+		}
+
+		boolean[] keep = new boolean[cornerCount];
+		keep[0] = true;
+		keep[cornerCount - 1] = true;
+		// Pairs of kept vertices whose corners in between haven't been looked at. A stack instead of recursion,
+		// since a long winding route could split many times.
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = cornerCount - 1;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			int middle = (first + last) >>> 1;
+			int furthest = -1;
+			double furthestDistance = tolerance * tolerance;
+			for (int i = first + 1; i < last; i++) {
+				double distance = segmentDistanceSquared(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+				// Every corner of a staircase is about as far from the line as the others. Splitting at the one
+				// nearest the middle keeps that from taking time quadratic in the number of corners.
+				boolean further = distance > furthestDistance * (1 + 1e-9);
+				boolean tied = furthest >= 0 && distance >= furthestDistance * (1 - 1e-9)
+						&& Math.abs(i - middle) < Math.abs(furthest - middle);
+				if (further || tied) {
+					furthest = i;
+					furthestDistance = Math.max(distance, furthestDistance);
+				}
+			}
+			if (furthest < 0)
+				continue;
+			keep[furthest] = true;
+			if (top + 4 > stack.length)
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			stack[top++] = first;
+			stack[top++] = furthest;
+			stack[top++] = furthest;
+			stack[top++] = last;
+		}
+
+		// Move the kept vertices to the front.
+		int vertices = 0;
+		for (int i = 0; i < cornerCount; i++) {
+			if (!keep[i])
+				continue;
+			xs[vertices] = xs[i];
+			ys[vertices] = ys[i];
+			vertices++;
+		}
+		return new Geometry(xs, ys, vertices);
+	}
+
+	/**
+	 * Squared distance from (px, py) to the segment from (ax, ay) to (bx, by).
+	 */
+	private static double segmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax;
+		double dy = by - ay;
+		double length = dx * dx + dy * dy;
+		double t = (length == 0) ? 0 : ((px - ax) * dx + (py - ay) * dy) / length;
+		t = Math.max(0, Math.min(1, t));
+		double ex = px - (ax + t * dx);
+		double ey = py - (ay + t * dy);
+		return ex * ex + ey * ey;
+	}
+}
@@ -1,52 +1,323 @@
 package UI;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import Map.Node;
 import Map.Terrain;
 
 /***
- * 
+ *
  * Class for holding and manipulating multiple ClickableNodes at once.
- * 
+ *
  * Will be used for implementing user-defined NoGo Areas
- * 
+ *
+ * The selected area is stored as rows of column intervals rather than as individual nodes. Intervals
+ * in a row are kept sorted, disjoint and merged with their neighbours, so checking whether a node is
+ * selected is a lookup in two sorted maps and adding a rectangle costs one interval insert per row.
+ *
+ * Coordinates are node coordinates, i.e. (x, y) refers to nodes[x][y].
+ *
  * @author arari
  *
  */
 public class Selection {
 
-	HashSet<Node> nodes;
-	
+	/**
+	 * Called once for every selected cell by {@link Selection#forEachCell(CellVisitor)}.
+	 */
+	public interface CellVisitor {
+		void visit(int x, int y);
+	}
+
+	/**
+	 * Called once for every row that has selected cells, in order of x, with the row's intervals.
+	 */
+	private interface RowVisitor {
+		void visit(int x, TreeMap<Integer, Integer> intervals);
+	}
+
+	/**
+	 * For every x that has selected cells, maps the start of each selected y-interval to its (exclusive) end.
+	 */
+	private TreeMap<Integer, TreeMap<Integer, Integer>> rows;
+
+	/**
+	 * The rectangle the user is currently dragging out. It is replaced on every drag event and only merged
+	 * into {@link rows} once the drag is finished, so dragging doesn't re-insert the whole area every frame.
+	 */
+	private Rectangle activeRectangle = null;
+
+	/**
+	 * Terrain this selection applies to the nodes it covers.
+	 */
+	private Terrain terrain = Terrain.BLOCKED;
+
 	public Selection() {
-		nodes = new HashSet<>();
+		rows = new TreeMap<>();
 	}
-	
-	public Selection(HashSet<Node> nodes) {
-		this.nodes = nodes;
+
+	public Selection(Selection other) {
+		this();
+		addAll(other);
+		this.terrain = other.terrain;
 	}
-	
+
 	public void addNode(Node node) {
-		nodes.add(node);
+		addCell(node.getX(), node.getY());
+	}
+
+	public void addCell(int x, int y) {
+		addRectangle(x, y, x + 1, y + 1);
+	}
+
+	/**
+	 * Select every cell in [xStart, xEnd) x [yStart, yEnd).
+	 */
+	public void addRectangle(int xStart, int yStart, int xEnd, int yEnd) {
+		if (xStart >= xEnd || yStart >= yEnd)
+			return;
+		for (int x = xStart; x < xEnd; x++)
+			addInterval(x, yStart, yEnd);
+	}
+
+	public void addAll(Selection other) {
+		for (Map.Entry<Integer, TreeMap<Integer, Integer>> row : other.rows.entrySet())
+			for (Map.Entry<Integer, Integer> interval : row.getValue().entrySet())
+				addInterval(row.getKey(), interval.getKey(), interval.getValue());
+		if (other.activeRectangle != null)
+			addRectangle(other.activeRectangle);
+	}
+
+	private void addRectangle(Rectangle r) {
+		addRectangle(r.x, r.y, r.x + r.width, r.y + r.height);
+	}
+
+	/**
+	 * Insert [start, end) into row x, merging it with any interval it overlaps or touches.
+	 */
+	private void addInterval(int x, int start, int end) {
+		TreeMap<Integer, Integer> intervals = rows.get(x);
+		if (intervals == null) {
+			intervals = new TreeMap<>();
+			rows.put(x, intervals);
+		}
+		addInterval(intervals, start, end);
+	}
+
+	private static void addInterval(TreeMap<Integer, Integer> intervals, int start, int end) {
+		// Absorb an interval that starts before us and reaches our start.
+		Map.Entry<Integer, Integer> lower = intervals.floorEntry(start);
+		if (lower != null && lower.getValue() >= start) {
+			start = lower.getKey();
+			end = Math.max(end, lower.getValue());
+			intervals.remove(lower.getKey());
+		}
+
+		// Absorb every interval that starts inside (or right at the end of) the new one.
+		Map.Entry<Integer, Integer> next = intervals.ceilingEntry(start);
+		while (next != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			intervals.remove(next.getKey());
+			next = intervals.ceilingEntry(start);
+		}
+
+		intervals.put(start, end);
+	}
+
+	/**
+	 * Replace the rectangle currently being dragged out, given as [xStart, xEnd) x [yStart, yEnd).
+	 */
+	public void setActiveRectangle(int xStart, int yStart, int xEnd, int yEnd) {
+		if (xStart >= xEnd || yStart >= yEnd)
+			activeRectangle = null;
+		else
+			activeRectangle = new Rectangle(xStart, yStart, xEnd - xStart, yEnd - yStart);
 	}
-	
-	public void setNodesTerrain(Terrain terrain) {
-		for(Node node : nodes) {
-			node.setTerrain(terrain);
+
+	/**
+	 * Merge the rectangle being dragged out into the selection.
+	 */
+	public void commitActiveRectangle() {
+		if (activeRectangle != null) {
+			addRectangle(activeRectangle);
+			activeRectangle = null;
+		}
+	}
+
+	/**
+	 * Merge the rectangle being dragged out into the selection, keeping only the cells of valid nodes so
+	 * that saved zones don't carry cells that can never be walked on anyway.
+	 */
+	public void commitActiveRectangle(Node[][] nodes) {
+		if (activeRectangle == null)
+			return;
+		Rectangle area = activeRectangle.intersection(new Rectangle(0, 0, nodes.length, (nodes.length == 0) ? 0 : nodes[0].length));
+		activeRectangle = null;
+		for (int x = area.x; x < area.x + area.width; x++) {
+			Node[] nodeRow = nodes[x];
+			int start = -1;
+			for (int y = area.y; y < area.y + area.height; y++) {
+				if (nodeRow[y].isValid()) {
+					if (start < 0)
+						start = y;
+				} else if (start >= 0) {
+					addInterval(x, start, y);
+					start = -1;
+				}
+			}
+			if (start >= 0)
+				addInterval(x, start, area.y + area.height);
+		}
+	}
+
+	/**
+	 * The rectangle currently being dragged out, or null if there isn't one.
+	 */
+	public Rectangle getActiveRectangle() {
+		return (activeRectangle == null) ? null : new Rectangle(activeRectangle);
+	}
+
+	public boolean contains(int x, int y) {
+		if (activeRectangle != null && activeRectangle.contains(x, y))
+			return true;
+		TreeMap<Integer, Integer> intervals = rows.get(x);
+		if (intervals == null)
+			return false;
+		Map.Entry<Integer, Integer> interval = intervals.floorEntry(y);
+		return interval != null && y < interval.getValue();
+	}
+
+	public boolean contains(Node node) {
+		return contains(node.getX(), node.getY());
+	}
+
+	public Terrain getTerrain() {
+		return terrain;
+	}
+
+	public void setTerrain(Terrain terrain) {
+		this.terrain = terrain;
+	}
+
+	/**
+	 * Set the terrain of every valid node covered by this selection to {@link #getTerrain()}.
+	 * Nodes that were never walkable are left blocked. Only committed rectangles count, so commit the one
+	 * being dragged out first with {@link #commitActiveRectangle(Node[][])}.
+	 */
+	public void applyTerrain(final Node[][] nodes) {
+		for (Map.Entry<Integer, TreeMap<Integer, Integer>> row : rows.entrySet()) {
+			int x = row.getKey();
+			if (x < 0 || x >= nodes.length)
+				continue;
+			Node[] nodeRow = nodes[x];
+			for (Map.Entry<Integer, Integer> interval : row.getValue().entrySet()) {
+				int end = Math.min(interval.getValue(), nodeRow.length);
+				for (int y = Math.max(interval.getKey(), 0); y < end; y++) {
+					if (nodeRow[y].isValid())
+						nodeRow[y].setTerrain(terrain);
+				}
+			}
 		}
 	}
-	
+
+	/**
+	 * Visit every selected cell, including the rectangle currently being dragged out.
+	 */
+	public void forEachCell(final CellVisitor visitor) {
+		forEachRow(new RowVisitor() {
+			public void visit(int x, TreeMap<Integer, Integer> intervals) {
+				for (Map.Entry<Integer, Integer> interval : intervals.entrySet())
+					for (int y = interval.getKey(); y < interval.getValue(); y++)
+						visitor.visit(x, y);
+			}
+		});
+	}
+
+	/**
+	 * Visit the selected rows, including those of the rectangle being dragged out. Only the rows the
+	 * rectangle covers are copied to merge it in, so this doesn't copy the whole selection while dragging.
+	 */
+	private void forEachRow(RowVisitor visitor) {
+		Rectangle active = activeRectangle;
+		// Next row of the active rectangle that hasn't been visited, and the end of its rows.
+		int activeX = (active == null) ? Integer.MAX_VALUE : active.x;
+		int activeEnd = (active == null) ? Integer.MAX_VALUE : active.x + active.width;
+		for (Map.Entry<Integer, TreeMap<Integer, Integer>> row : rows.entrySet()) {
+			int x = row.getKey();
+			for (; activeX < Math.min(x, activeEnd); activeX++)
+				visitor.visit(activeX, activeRow(active));
+			if (active != null && x >= active.x && x < activeEnd) {
+				TreeMap<Integer, Integer> merged = new TreeMap<>(row.getValue());
+				addInterval(merged, active.y, active.y + active.height);
+				visitor.visit(x, merged);
+				activeX = Math.max(activeX, x + 1);
+			} else {
+				visitor.visit(x, row.getValue());
+			}
+		}
+		for (; activeX < activeEnd; activeX++)
+			visitor.visit(activeX, activeRow(active));
+	}
+
+	private static TreeMap<Integer, Integer> activeRow(Rectangle active) {
+		TreeMap<Integer, Integer> intervals = new TreeMap<>();
+		intervals.put(active.y, active.y + active.height);
+		return intervals;
+	}
+
+	/**
+	 * Number of selected cells (not counting the rectangle being dragged out).
+	 */
+	public long getCellCount() {
+		long count = 0;
+		for (TreeMap<Integer, Integer> intervals : rows.values())
+			for (Map.Entry<Integer, Integer> interval : intervals.entrySet())
+				count += interval.getValue() - interval.getKey();
+		return count;
+	}
+
+	/**
+	 * The selection as a list of disjoint rectangles, in node coordinates (x and width run along the
+	 * first index of the node grid). Consecutive rows with identical intervals are merged into one rectangle.
+	 */
+	public List<Rectangle> getRectangles() {
+		final List<Rectangle> done = new ArrayList<>();
+		forEachRow(new RowVisitor() {
+			// Rectangles that may still grow, keyed by their y-interval.
+			private TreeMap<Long, Rectangle> open = new TreeMap<>();
+			private int previousX = Integer.MIN_VALUE;
+
+			public void visit(int x, TreeMap<Integer, Integer> intervals) {
+				TreeMap<Long, Rectangle> stillOpen = new TreeMap<>();
+				for (Map.Entry<Integer, Integer> interval : intervals.entrySet()) {
+					long key = ((long) interval.getKey() << 32) | (interval.getValue() & 0xffffffffL);
+					Rectangle r = (x == previousX + 1) ? open.remove(key) : null;
+					if (r != null) {
+						r.width++;
+					} else {
+						r = new Rectangle(x, interval.getKey(), 1, interval.getValue() - interval.getKey());
+						done.add(r);
+					}
+					stillOpen.put(key, r);
+				}
+				open = stillOpen;
+				previousX = x;
+			}
+		});
+		return done;
+	}
+
 	public void clear() {
-		nodes.clear();
+		rows.clear();
+		activeRectangle = null;
 	}
-	
+
 	public boolean isEmpty() {
-		return nodes.isEmpty();
+		return rows.isEmpty() && activeRectangle == null;
 	}
-	
-	public HashSet<Node> getNodes(){
-		return nodes;
-	}
-	
+
 }
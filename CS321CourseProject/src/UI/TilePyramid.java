@@ -0,0 +1,251 @@
+package UI;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Draws a large image at any zoom from a pyramid of tiles, instead of rescaling the whole image on every repaint.
+ *
+ * Level 0 is the image at full resolution, and every level above it is half the size of the one below, down to a
+ * level that fits into a single tile. Each level is cut into square tiles of {@link #TILE_SIZE} pixels. A frame
+ * is drawn from the level closest to the zoom that is still at least as detailed, so a tile is never shrunk to
+ * less than half its size, and only the tiles that intersect the visible area are drawn.
+ *
+ * Tiles are made when they are first drawn: a level 0 tile is copied out of the image, and any other tile is
+ * the four tiles below it shrunk to half their size. They are kept in a least recently used cache that stays
+ * under a memory budget, so panning back and forth or zooming between a few levels draws straight from memory.
+ */
+public class TilePyramid {
+
+	/**
+	 * Width and height of a tile, in pixels of its level.
+	 */
+	public static final int TILE_SIZE = 256;
+
+	/**
+	 * Memory the cached tiles may take, unless configured otherwise.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	private final BufferedImage source;
+	private final long memoryBudget;
+	private final int levelCount;
+	private final int imageType;
+
+	/**
+	 * Cached tiles, least recently used first, keyed by {@link #key(int, int, int)}.
+	 */
+	private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+	private long cachedBytes = 0;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	public TilePyramid(BufferedImage source) {
+		this(source, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param memoryBudget bytes the cached tiles may take. At least one tile is always kept.
+	 */
+	public TilePyramid(BufferedImage source, long memoryBudget) {
+		this.source = source;
+		this.memoryBudget = memoryBudget;
+		this.imageType = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		int levels = 1;
+		while (Math.max(source.getWidth(), source.getHeight()) > (TILE_SIZE << (levels - 1)))
+			levels++;
+		this.levelCount = levels;
+	}
+
+	/**
+	 * Copy any image into a buffered image, which the pyramid can cut tiles out of.
+	 */
+	public static BufferedImage toBufferedImage(Image image) {
+		if (image instanceof BufferedImage)
+			return (BufferedImage) image;
+		BufferedImage copy = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = copy.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return copy;
+	}
+
+	public int getWidth() {
+		return source.getWidth();
+	}
+
+	public int getHeight() {
+		return source.getHeight();
+	}
+
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	/**
+	 * The level a frame at the given zoom (screen pixels per image pixel) is drawn from.
+	 */
+	public int getLevel(double zoom) {
+		int level = 0;
+		while (level + 1 < levelCount && zoom * (1 << (level + 1)) <= 1)
+			level++;
+		return level;
+	}
+
+	/**
+	 * Draw the image with its top left corner at (x, y) and scaled by the zoom, drawing only the tiles that
+	 * intersect the visible area.
+	 */
+	public void draw(Graphics2D g, double x, double y, double zoom, Rectangle visible) {
+
+		int level = getLevel(zoom);
+		double tileScale = zoom * (1 << level);
+		double tileExtent = TILE_SIZE * tileScale;
+		int levelWidth = levelSize(source.getWidth(), level);
+		int levelHeight = levelSize(source.getHeight(), level);
+		int columns = (levelWidth + TILE_SIZE - 1) / TILE_SIZE;
+		int rows = (levelHeight + TILE_SIZE - 1) / TILE_SIZE;
+
+		int firstColumn = Math.max(0, (int) Math.floor((visible.x - x) / tileExtent));
+		int lastColumn = Math.min(columns - 1, (int) Math.floor((visible.x + visible.width - x) / tileExtent));
+		int firstRow = Math.max(0, (int) Math.floor((visible.y - y) / tileExtent));
+		int lastRow = Math.min(rows - 1, (int) Math.floor((visible.y + visible.height - y) / tileExtent));
+
+		Object interpolation = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				BufferedImage tile = getTile(level, column, row);
+				// Both edges of a tile are rounded the same way as those of its neighbors, so no seams show.
+				int left = (int) Math.floor(x + column * tileExtent);
+				int top = (int) Math.floor(y + row * tileExtent);
+				int right = (int) Math.floor(x + (column * TILE_SIZE + tile.getWidth()) * tileScale);
+				int bottom = (int) Math.floor(y + (row * TILE_SIZE + tile.getHeight()) * tileScale);
+				g.drawImage(tile, left, top, right - left, bottom - top, null);
+			}
+		}
+		if (interpolation != null)
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+
+	}
+
+	/**
+	 * Size of the image at the given level, in pixels of that level.
+	 */
+	private static int levelSize(int size, int level) {
+		return (size + (1 << level) - 1) >> level;
+	}
+
+	private static long key(int level, int column, int row) {
+		return ((long) level << 56) | ((long) column << 28) | row;
+	}
+
+	/**
+	 * The tile, from the cache or made now.
+	 */
+	public synchronized BufferedImage getTile(int level, int column, int row) {
+		long key = key(level, column, row);
+		BufferedImage tile = tiles.get(key);
+		if (tile != null) {
+			hitCount++;
+			return tile;
+		}
+
+		missCount++;
+		tile = makeTile(level, column, row);
+		tiles.put(key, tile);
+		cachedBytes += bytes(tile);
+
+		// Drop the least recently used tiles, but never the one we just made.
+		for (Iterator<BufferedImage> i = tiles.values().iterator(); cachedBytes > memoryBudget && tiles.size() > 1;) {
+			BufferedImage eldest = i.next();
+			cachedBytes -= bytes(eldest);
+			i.remove();
+			evictionCount++;
+		}
+		return tile;
+	}
+
+	private BufferedImage makeTile(int level, int column, int row) {
+		int width = Math.min(TILE_SIZE, levelSize(source.getWidth(), level) - column * TILE_SIZE);
+		int height = Math.min(TILE_SIZE, levelSize(source.getHeight(), level) - row * TILE_SIZE);
+		if (width <= 0 || height <= 0)
+			throw new IndexOutOfBoundsException("Tile (" + column + "," + row + ") of level " + level + " is outside of the image.");
+
+		BufferedImage tile = new BufferedImage(width, height, imageType);
+		Graphics2D g = tile.createGraphics();
+		if (level == 0) {
+			g.drawImage(source, -column * TILE_SIZE, -row * TILE_SIZE, null);
+		} else {
+			// Shrinking by exactly half with bilinear filtering averages every 2 x 2 block of the level below.
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			int childColumns = (levelSize(source.getWidth(), level - 1) + TILE_SIZE - 1) / TILE_SIZE;
+			int childRows = (levelSize(source.getHeight(), level - 1) + TILE_SIZE - 1) / TILE_SIZE;
+			for (int childRow = 2 * row; childRow < Math.min(2 * row + 2, childRows); childRow++) {
+				for (int childColumn = 2 * column; childColumn < Math.min(2 * column + 2, childColumns); childColumn++) {
+					BufferedImage child = getTile(level - 1, childColumn, childRow);
+					g.drawImage(child, (childColumn - 2 * column) * TILE_SIZE / 2, (childRow - 2 * row) * TILE_SIZE / 2,
+							(child.getWidth() + 1) / 2, (child.getHeight() + 1) / 2, null);
+				}
+			}
+		}
+		g.dispose();
+		return tile;
+	}
+
+	private static long bytes(BufferedImage tile) {
+		return 4L * tile.getWidth() * tile.getHeight();
+	}
+
+	/**
+	 * Drop every cached tile.
+	 */
+	public synchronized void clear() {
+		tiles.clear();
+		cachedBytes = 0;
+	}
+
+	public synchronized int getCachedTileCount() {
+		return tiles.size();
+	}
+
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Fraction of tile lookups that were answered from the cache.
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hitCount + missCount;
+		return (lookups == 0) ? 0 : (double) hitCount / lookups;
+	}
+
+	public synchronized String getStatistics() {
+		return String.format("Map tiles: %d cached (%.1f of %.1f MB), %d hit(s), %d miss(es) (%.0f%% hits), %d eviction(s).",
+				tiles.size(), cachedBytes / 1048576.0, memoryBudget / 1048576.0, hitCount, missCount, 100 * getHitRate(), evictionCount);
+	}
+}
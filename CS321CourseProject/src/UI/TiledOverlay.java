@@ -0,0 +1,154 @@
+package UI;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Something drawn over the map that can cover all of it (a large selection), cut into square tiles of the node
+ * grid so a frame only visits the tiles inside the visible area.
+ *
+ * The shape of a tile is made by {@link #buildTile(Rectangle)} the first time the tile is drawn, in pixels
+ * relative to the top left corner of the map image, and kept until the zoom or the data it was made from
+ * changes (compared with {@link Object#equals(Object)}, as in {@link OverlayLayer}). Tiles are kept up to a
+ * fixed number, or twice the number of tiles on screen if that is more, dropping the least recently drawn: panning
+ * across a huge overlay doesn't keep all of it, but a frame never pushes out tiles it is about to draw again, as
+ * it would when zoomed out so far that more tiles are visible than the fixed number. Tiles with nothing in them
+ * are kept as a shared empty shape and skipped when filling.
+ */
+public abstract class TiledOverlay {
+
+	/**
+	 * Kept in place of the shape of a tile with nothing in it.
+	 */
+	private static final Shape emptyTile = new Rectangle();
+
+	private final int tileSize;
+	private final int maxTiles;
+
+	/**
+	 * Number of tiles kept, which grows with the number of visible tiles until the zoom or the data changes.
+	 */
+	private int capacity;
+
+	/**
+	 * Shapes of the tiles drawn so far, least recently drawn first.
+	 */
+	private final LinkedHashMap<Long, Shape> tiles;
+
+	private double zoom = Double.NaN;
+	private Object data = null;
+
+	private long buildCount = 0;
+	private int drawnTileCount = 0;
+
+	/**
+	 * @param tileSize width and height of a tile, in nodes.
+	 * @param maxTiles number of tile shapes that are kept, unless twice as many tiles are visible.
+	 */
+	public TiledOverlay(int tileSize, int maxTiles) {
+		this.tileSize = tileSize;
+		this.maxTiles = maxTiles;
+		this.capacity = maxTiles;
+		this.tiles = new LinkedHashMap<Long, Shape>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, Shape> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * The shape of everything in the given area of the node grid, relative to the top left corner of the map
+	 * image at the current zoom.
+	 */
+	protected abstract Shape buildTile(Rectangle area);
+
+	/**
+	 * Fill the tiles that intersect the visible area with the current color of the graphics, with the map image's
+	 * top left corner at (x, y).
+	 *
+	 * @param visible area of the node grid to draw.
+	 */
+	public void fill(Graphics2D g, double x, double y, double zoom, Object data, Rectangle visible) {
+		if (zoom != this.zoom || !Objects.equals(data, this.data)) {
+			tiles.clear();
+			capacity = maxTiles;
+			this.zoom = zoom;
+			this.data = data;
+		}
+
+		drawnTileCount = 0;
+		if (visible.isEmpty())
+			return;
+		int firstColumn = Math.floorDiv(visible.x, tileSize);
+		int lastColumn = Math.floorDiv(visible.x + visible.width - 1, tileSize);
+		int firstRow = Math.floorDiv(visible.y, tileSize);
+		int lastRow = Math.floorDiv(visible.y + visible.height - 1, tileSize);
+		long visibleTiles = (long) (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1);
+		capacity = (int) Math.max(capacity, Math.min(2 * visibleTiles, Integer.MAX_VALUE));
+
+		g.translate(x, y);
+		for (int column = firstColumn; column <= lastColumn; column++) {
+			for (int row = firstRow; row <= lastRow; row++) {
+				long key = ((long) column << 32) | (row & 0xffffffffL);
+				Shape tile = tiles.get(key);
+				if (tile == null) {
+					tile = buildTile(new Rectangle(column * tileSize, row * tileSize, tileSize, tileSize));
+					if (tile.getBounds2D().isEmpty())
+						tile = emptyTile;
+					tiles.put(key, tile);
+					buildCount++;
+				}
+				if (tile == emptyTile)
+					continue;
+				g.fill(tile);
+				drawnTileCount++;
+			}
+		}
+		g.translate(-x, -y);
+	}
+
+	public void invalidate() {
+		tiles.clear();
+		capacity = maxTiles;
+		data = null;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	public int getMaxTiles() {
+		return maxTiles;
+	}
+
+	/**
+	 * Number of tiles that are kept at the moment, at least {@link #getMaxTiles()}.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getCachedTileCount() {
+		return tiles.size();
+	}
+
+	/**
+	 * Number of tile shapes that were made.
+	 */
+	public long getBuildCount() {
+		return buildCount;
+	}
+
+	/**
+	 * Number of tiles with something in them filled in the last frame.
+	 */
+	public int getDrawnTileCount() {
+		return drawnTileCount;
+	}
+}
@@ -1,30 +1,162 @@
 package User;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import Map.Node;
+import Map.QuadTree;
+import Map.Route;
 import Map.Terrain;
+import UI.Selection;
 
+/**
+ * The selections and paths a user saved.
+ *
+ * A profile is kept on disk as a binary snapshot (the .profile file) plus append-only text journals of the
+ * changes made since. Saving only appends the changes made since the last save to the journal, so it takes time
+ * proportional to the change, not to the whole profile. Once the journal has grown large enough, it is
+ * compacted in the background: the whole profile is written as a new snapshot and the old journals are
+ * deleted. Loading reads the snapshot and replays the journals on top of it.
+ *
+ * Journal files are kept in a directory of their own named after the snapshot, one per generation, e.g.
+ * bob.profile.journals/3.journal, so loading and compaction only ever list this profile's journals rather than
+ * the files of every user. A snapshot starts with the generation of the first journal that isn't part of it yet, so a crash at any point of a
+ * compaction never replays a change twice or loses one.
+ *
+ * The snapshot starts with a small header ({@link snapshotMagic}, {@link snapshotVersion}, the journal
+ * generation and the number of selections and paths), followed by every selection as its terrain and the
+ * rectangles that cover it, and every path as its start, step count and packed chain codes. It is read straight
+ * into the selections and routes, without parsing any text. A .profile file and its journals are read into
+ * memory in one go rather than mapped, since Windows won't replace or delete a file while a map of it is left
+ * waiting for the garbage collector. A zone takes space (and
+ * time to load) in proportion to the number of its rectangles, not its area. Profiles still saved as text, or
+ * as an older snapshot with one (x, y) pair per cell, are read once and rewritten as current snapshots.
+ *
+ * Profiles opened through a {@link ProfileStore} keep their snapshot in the store's pack file instead of a
+ * .profile file of their own; only the journal directory stays next to where the .profile file would be.
+ */
 public class Profile {
 
 	private String username;
 	private String filename;
-	private ArrayList<ArrayList<Node>> savedPaths;
-	private ArrayList<HashSet<Node>> savedSelections;
+	
+	/**
+	 * Where the snapshot lives, or null if it is the file named {@link filename}.
+	 */
+	private final ProfileStore store;
+	private ArrayList<Route> savedPaths;
+	private ArrayList<Selection> savedSelections;
+	
+	/**
+	 * Spatial index over the rectangles of every saved selection that blocks terrain. Used to find the
+	 * no-go zones near a point or inside an area without walking every saved selection.
+	 */
+	private QuadTree<Selection> noGoZones;
+	
+	/**
+	 * First bytes of a binary snapshot ("PROF"), which text profiles can never start with.
+	 */
+	private static final int snapshotMagic = 0x50524F46;
+	
+	/**
+	 * Version of the binary snapshot layout. Version 1 stored every cell of a selection, version 2 stores its
+	 * rectangles.
+	 */
+	private static final int snapshotVersion = 2;
+	
+	/**
+	 * Size of the buffer between the profile and its files, in characters.
+	 */
+	private static final int writeBufferSize = 64 * 1024;
+	
+	/**
+	 * The journal is compacted once it holds this many changes...
+	 */
+	private static final int compactAfterRecords = 64;
+	
+	/**
+	 * ...or once it is both larger than this and larger than the snapshot.
+	 */
+	private static final long compactAfterBytes = 64 * 1024;
+	
+	/**
+	 * Changes made since the last save, in order. Saving appends them to the journal.
+	 */
+	private final ArrayList<Change> pendingChanges = new ArrayList<>();
+	
+	/**
+	 * Generation of the journal that saves currently append to.
+	 */
+	private long journalGeneration = 0;
+	
+	/**
+	 * Number of changes and bytes in the journals that aren't part of the snapshot yet.
+	 */
+	private int journalRecords = 0;
+	private long journalBytes = 0;
+	
+	/**
+	 * Set once the journal directory is known to exist.
+	 */
+	private boolean journalDirectoryReady = false;
+	
+	/**
+	 * Set while a compaction of this profile is queued or running.
+	 */
+	private boolean compacting = false;
+	
+	/**
+	 * Writes snapshots in the background, one at a time, without keeping the application alive.
+	 */
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Profile compaction");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 	
 	public Profile(String username) {
+		this(username, "src\\Res\\"+username+".profile");
+	}
+	
+	public Profile(String username, String filename) {
+		this(username, filename, null);
+	}
+	
+	Profile(String username, String filename, ProfileStore store) {
 		
 		this.username = username;
-		this.filename = "src\\Res\\"+username+".profile";
+		this.filename = filename;
+		this.store = store;
 		
 		this.savedPaths = new ArrayList<>();
 		this.savedSelections = new ArrayList<>();
+		//the grid usually isn't loaded yet, so zones are kept at the root of the index until setGridSize() is called
+		this.noGoZones = new QuadTree<>(0, 0);
 		
 	}
 	
@@ -36,150 +168,721 @@ public class Profile {
 		return filename;
 	}
 	
-	public ArrayList<ArrayList<Node>> getSavedPaths(){
+	/**
+	 * The saved paths. Change them through {@link #storePath(Route)} and {@link #removePath(int)}, so the
+	 * changes are saved.
+	 */
+	public ArrayList<Route> getSavedPaths(){
 		return savedPaths;
 	}
 	
-	public ArrayList<HashSet<Node>> getSavedSelections(){
+	/**
+	 * The saved selections. Change them through {@link #storeSelection(Selection)} and
+	 * {@link #clearSelections()}, so the changes are saved. The selections themselves must not be modified
+	 * once saved: a profile from a {@link ProfileStore} shares identical zones with other profiles.
+	 */
+	public ArrayList<Selection> getSavedSelections(){
 		return savedSelections;
 	}
 	
-	public void storePath(ArrayList<Node> path) {
-		savedPaths.add(path);
+	public synchronized void storePath(Route path) {
+		addPath(path);
+		pendingChanges.add(new Change(Change.STORE_PATH, null, path, -1));
 		System.out.println("Path Stored");
 	}
 	
-	public void storeSelection(HashSet<Node> selection) {
-		savedSelections.add(selection);
+	public synchronized Route removePath(int index) {
+		Route path = savedPaths.remove(index);
+		pendingChanges.add(new Change(Change.REMOVE_PATH, null, null, index));
+		return path;
+	}
+	
+	public QuadTree<Selection> getNoGoZones(){
+		return noGoZones;
+	}
+	
+	/**
+	 * Size {@link noGoZones} to the node grid, so it splits over the area the zones can actually be in.
+	 * Zones outside of the grid are still indexed, just less efficiently.
+	 */
+	public synchronized void setGridSize(int rows, int cols) {
+		if (noGoZones.getBounds().equals(new Rectangle(0, 0, rows, cols)))
+			return;
+		noGoZones = new QuadTree<>(rows, cols);
+		for (Selection selection : savedSelections) {
+			if (selection.getTerrain() == Terrain.BLOCKED) {
+				for (Rectangle zone : selection.getRectangles())
+					noGoZones.insert(zone, selection);
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if the node at (x, y) lies inside one of the saved no-go zones.
+	 */
+	public boolean isInNoGoZone(int x, int y) {
+		return noGoZones.contains(x, y);
+	}
+	
+	public synchronized void storeSelection(Selection selection) {
+		addSelection(selection);
+		pendingChanges.add(new Change(Change.STORE_SELECTION, selection, null, -1));
 		System.out.println("Selection Stored");
 	}
 	
-	public void saveProfile() {
+	public synchronized void clearSelections() {
+		removeSelections();
+		pendingChanges.add(new Change(Change.CLEAR_SELECTIONS, null, null, -1));
+	}
+	
+	private void addPath(Route path) {
+		savedPaths.add(path);
+	}
+	
+	private void addSelection(Selection selection) {
+		if (store != null)
+			selection = store.intern(selection);
+		savedSelections.add(selection);
+		if (selection.getTerrain() == Terrain.BLOCKED) {
+			for (Rectangle zone : selection.getRectangles())
+				noGoZones.insert(zone, selection);
+		}
+	}
+	
+	private void removeSelections() {
+		savedSelections.clear();
+		noGoZones.clear();
+	}
+	
+	/**
+	 * Save the changes made since the last save by appending them to the journal, then compact the journal
+	 * in the background if it has grown large enough. Returns the number of changes saved.
+	 *
+	 * Usually called by a {@link ProfilePersistence} rather than by whoever changed the profile.
+	 *
+	 * @throws IOException if the journal couldn't be written, in which case the changes stay pending.
+	 */
+	public int saveProfile() throws IOException {
+		
+		int saved;
+		boolean compact;
+		long bytes;
+		synchronized (this) {
+			saved = appendPendingChanges();
+			compact = journalRecords >= compactAfterRecords;
+			bytes = journalBytes;
+		}
+		
+		//the store's lock is only ever taken with this one released, so the store can save its profiles safely
+		if (!compact && bytes > compactAfterBytes)
+			compact = bytes > getSnapshotSize();
+		
+		if (compact) {
+			synchronized (this) {
+				if (!compacting) {
+					compacting = true;
+					compactor.execute(new Runnable() {
+						public void run() {
+							try {
+								compact();
+							} catch (IOException e) {
+								System.err.println("ERROR! Profile { compact() } : Unable to compact " + username + "'s profile.");
+								e.printStackTrace();
+							}
+						}
+					});
+				}
+			}
+		}
+		
+		return saved;
+		
+	}
+	
+	/**
+	 * Append the pending changes to the current journal. If anything goes wrong, the journal is cut back to
+	 * where it was and the changes stay pending.
+	 */
+	private synchronized int appendPendingChanges() throws IOException {
+		
+		if (pendingChanges.isEmpty())
+			return 0;
+		
+		openJournalDirectory();
+		Path journal = getJournalPath(journalGeneration);
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			long start = channel.size();
+			channel.position(start);
+			try {
+				PrintWriter writer = new PrintWriter(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), writeBufferSize)));
+				for (Change change : pendingChanges)
+					change.write(writer);
+				writer.flush();
+				//PrintWriter doesn't throw, so check whether anything went wrong while writing
+				if (writer.checkError())
+					throw new IOException("Unable to write " + journal + ".");
+				channel.force(false);
+			} catch (IOException e) {
+				channel.truncate(start);
+				throw e;
+			}
+			journalBytes += channel.size() - start;
+		}
+		
+		int saved = pendingChanges.size();
+		journalRecords += saved;
+		pendingChanges.clear();
+		return saved;
+		
+	}
+	
+	private long getSnapshotSize() {
+		return (store != null) ? store.getSnapshotSize(username) : new File(filename).length();
+	}
+	
+	/**
+	 * Write the whole profile as a new snapshot and delete the journals it replaces. The snapshot is written
+	 * to a temporary file next to it first and then moved over it (or appended to the store's pack file), so a
+	 * crash or a full disk never leaves a half-written profile behind. Saves made while the snapshot is being
+	 * written go to the next journal. If the snapshot can't be written, the journals still count towards the
+	 * next compaction, so the next save tries again.
+	 */
+	public void compact() throws IOException {
+		
+		ArrayList<Selection> selections;
+		ArrayList<Route> paths;
+		long generation;
+		int records;
+		long bytes;
+		synchronized (this) {
+			compacting = true;
+			try {
+				appendPendingChanges();
+			} catch (IOException e) {
+				compacting = false;
+				throw e;
+			}
+			selections = new ArrayList<>(savedSelections);
+			paths = new ArrayList<>(savedPaths);
+			generation = ++journalGeneration;
+			records = journalRecords;
+			bytes = journalBytes;
+		}
+		
+		try {
+			if (store != null) {
+				ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(snapshot);
+				writeSnapshot(out, generation, selections, paths);
+				out.flush();
+				store.storeSnapshot(username, snapshot.toByteArray());
+			} else {
+				writeSnapshotFile(generation, selections, paths);
+			}
+			synchronized (this) {
+				//only what was saved to the next journal while the snapshot was written is left
+				journalRecords -= records;
+				journalBytes -= bytes;
+			}
+		} finally {
+			synchronized (this) {
+				compacting = false;
+			}
+		}
+		
+		//everything in the older journals is in the snapshot now
+		for (long older : listJournalGenerations())
+			if (older < generation)
+				Files.deleteIfExists(getJournalPath(older));
+		
+		System.out.println(username+"'s profile was compacted.");
+		
+	}
+	
+	private void writeSnapshotFile(long generation, ArrayList<Selection> selections, ArrayList<Route> paths) throws IOException {
+		
+		Path target = Paths.get(filename);
+		Path temp = Paths.get(filename + ".tmp");
+		
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), writeBufferSize));
+				writeSnapshot(out, generation, selections, paths);
+				out.flush();
+				channel.force(true);
+			}
+			
+			replaceFile(temp, target);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Move a fully written temporary file (or directory) over the one it replaces, atomically where the file
+	 * system can.
+	 */
+	static void replaceFile(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	private static void writeSnapshot(DataOutputStream out, long generation, ArrayList<Selection> selections,
+			ArrayList<Route> paths) throws IOException {
+		
+		out.writeInt(snapshotMagic);
+		out.writeInt(snapshotVersion);
+		out.writeLong(generation);
+		out.writeInt(selections.size());
+		out.writeInt(paths.size());
+		
+		for(Selection selection : selections) {
+			List<Rectangle> rectangles = selection.getRectangles();
+			out.writeByte((selection.getTerrain() == Terrain.BLOCKED) ? 2 : 1);
+			out.writeInt(rectangles.size());
+			for (Rectangle rectangle : rectangles) {
+				out.writeInt(rectangle.x);
+				out.writeInt(rectangle.y);
+				out.writeInt(rectangle.width);
+				out.writeInt(rectangle.height);
+			}
+		}
+		
+		for(Route path : paths) {
+			long[] codes = path.getCodes();
+			out.writeInt(path.getStartRow());
+			out.writeInt(path.getStartCol());
+			out.writeInt(path.getStepCount());
+			out.writeInt(codes.length);
+			for (long word : codes)
+				out.writeLong(word);
+		}
+		
+	}
+	
+	/**
+	 * Read the whole file into a buffer on the heap.
+	 */
+	private static ByteBuffer readFile(File file) throws IOException {
+		
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be a profile.");
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					throw new IOException(file + " got shorter while it was being read.");
+			buffer.flip();
+			return buffer;
+		}
+		
+	}
+	
+	/**
+	 * Read the records of a text profile or journal that was read into the buffer.
+	 */
+	private static ProfileTextParser.Records parseText(ByteBuffer buffer) throws IOException {
+		return ProfileTextParser.parse(buffer, buffer.limit() >= ProfileTextParser.PARALLEL_THRESHOLD);
+	}
+	
+	/**
+	 * Read a binary snapshot from the start of the buffer, which is a map of the store's pack or a copy of the
+	 * .profile file. Returns the version of the snapshot. Nothing is added to the profile unless the whole
+	 * snapshot could be read.
+	 *
+	 * @param source names the snapshot in error messages.
+	 */
+	int readSnapshot(ByteBuffer buffer, String source) throws IOException {
+		
+		if (buffer.limit() < 4 || buffer.getInt(0) != snapshotMagic)
+			throw new IOException(source + " isn't a binary profile snapshot.");
 		
-		String output = "";//what to write into the file
+		int version;
+		long generation;
+		ArrayList<Selection> selections = new ArrayList<>();
+		ArrayList<Route> paths = new ArrayList<>();
+		try {
+			buffer.position(4);
+			version = buffer.getInt();
+			if (version < 1 || version > snapshotVersion)
+				throw new IOException(source + " has version " + version + " of the profile format, expected at most " + snapshotVersion + ".");
+			generation = buffer.getLong();
+			int selectionCount = buffer.getInt();
+			int pathCount = buffer.getInt();
+			
+			for (int i = 0; i < selectionCount; i++) {
+				Selection selection = new Selection();
+				selection.setTerrain(Terrain.getTerrain(buffer.get()));
+				int count = buffer.getInt();
+				IntBuffer values = buffer.asIntBuffer();
+				if (version == 1) {
+					//every cell on its own
+					for (int cell = 0; cell < count; cell++)
+						selection.addCell(values.get(), values.get());
+					buffer.position(buffer.position() + 8 * count);
+				} else {
+					for (int rectangle = 0; rectangle < count; rectangle++) {
+						int x = values.get();
+						int y = values.get();
+						selection.addRectangle(x, y, x + values.get(), y + values.get());
+					}
+					buffer.position(buffer.position() + 16 * count);
+				}
+				selections.add(selection);
+			}
+			
+			for (int i = 0; i < pathCount; i++) {
+				int startRow = buffer.getInt();
+				int startCol = buffer.getInt();
+				int stepCount = buffer.getInt();
+				long[] codes = new long[buffer.getInt()];
+				buffer.asLongBuffer().get(codes);
+				buffer.position(buffer.position() + 8 * codes.length);
+				paths.add(Route.fromCodes(startRow, startCol, stepCount, codes));
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException(source + " is truncated or corrupt.", e);
+		}
+		
+		journalGeneration = generation;
+		for (Selection selection : selections)
+			addSelection(selection);
+		for (Route path : paths)
+			addPath(path);
+		
+		return version;
+		
+	}
+	
+	/**
+	 * Write every saved selection and path in the profile's text format. Everything goes straight to the
+	 * writer, one line at a time, so the time taken is linear in the size of the profile.
+	 */
+	public synchronized void writeProfile(PrintWriter writer) {
+		writeProfile(writer, savedSelections, savedPaths);
+	}
+	
+	private static void writeProfile(PrintWriter writer, ArrayList<Selection> selections, ArrayList<Route> paths) {
 		
 		/**
 		 * Add any additional desired output information here
 		 */
 		
 		//add all of the user modified selections to the file output
-		for(HashSet<Node> selectionSet : savedSelections) {
-			output += "{\n";
-			for(Node node : selectionSet) {
-				
-				int terrainInt = (node.getTerrain() == Terrain.BLOCKED) ? 2 : 1;
-				
-				output += "("+node.getX()+","+node.getY()+","+terrainInt+")\n";
-				
-			}
-			output += "}\n";
+		for(Selection selection : selections) {
+			writeSelection(writer, selection);
 		}
 		
 		//add all of the saved paths to the file output
-		for(ArrayList<Node> path : savedPaths) {
-			output += "<\n";
-			for(Node node : path) {
-				
-				output += "("+node.getX()+","+node.getY()+")\n";
-				
+		for(Route path : paths) {
+			writePath(writer, path);
+		}
+		
+	}
+	
+	/**
+	 * Write every rectangle of the selection as [x,y,width,height,terrain]. Older profiles have a (x,y,terrain)
+	 * line for every cell instead, which is still read.
+	 */
+	private static void writeSelection(PrintWriter writer, Selection selection) {
+		writer.print("{\n");
+		int terrainInt = (selection.getTerrain() == Terrain.BLOCKED) ? 2 : 1;
+		for (Rectangle rectangle : selection.getRectangles()) {
+			writer.print('[');
+			writer.print(rectangle.x);
+			writer.print(',');
+			writer.print(rectangle.y);
+			writer.print(',');
+			writer.print(rectangle.width);
+			writer.print(',');
+			writer.print(rectangle.height);
+			writer.print(',');
+			writer.print(terrainInt);
+			writer.print("]\n");
+		}
+		writer.print("}\n");
+	}
+	
+	/**
+	 * Write the start node, then the direction of every step.
+	 */
+	private static void writePath(PrintWriter writer, Route path) {
+		writer.print("<\n(");
+		writer.print(path.getStartRow());
+		writer.print(',');
+		writer.print(path.getStartCol());
+		writer.print(")\n");
+		for(int i = 0; i < path.getStepCount(); i++) {
+			writer.print((char)('0' + path.getStep(i)));
+		}
+		writer.print("\n>\n");
+	}
+	
+	/**
+	 * One change to a profile, as it is recorded in the journal.
+	 */
+	private static class Change {
+		static final int STORE_SELECTION = 0;
+		static final int CLEAR_SELECTIONS = 1;
+		static final int STORE_PATH = 2;
+		static final int REMOVE_PATH = 3;
+		
+		final int kind;
+		final Selection selection;
+		final Route path;
+		final int index;
+		
+		Change(int kind, Selection selection, Route path, int index) {
+			this.kind = kind;
+			this.selection = selection;
+			this.path = path;
+			this.index = index;
+		}
+		
+		void write(PrintWriter writer) {
+			switch (kind) {
+			case STORE_SELECTION:
+				writeSelection(writer, selection);
+				break;
+			case CLEAR_SELECTIONS:
+				writer.print("!clearSelections\n");
+				break;
+			case STORE_PATH:
+				writePath(writer, path);
+				break;
+			case REMOVE_PATH:
+				writer.print("!removePath " + index + "\n");
+				break;
+			}
+		}
+	}
+	
+	private Path getJournalDirectory() {
+		return Paths.get(filename + ".journals");
+	}
+	
+	private Path getJournalPath(long generation) {
+		return getJournalDirectory().resolve(generation + ".journal");
+	}
+	
+	/**
+	 * Create the journal directory if it doesn't exist yet. Journals that older versions kept next to the
+	 * snapshot (bob.profile.3.journal) are moved into it then, which is the only time the directory of the
+	 * snapshot is listed. They are moved to a temporary directory that is renamed once all of them are in, so
+	 * a crash on the way leaves every journal where the next load looks for it.
+	 */
+	private synchronized void openJournalDirectory() throws IOException {
+		
+		if (journalDirectoryReady)
+			return;
+		
+		Path directory = getJournalDirectory();
+		if (!Files.isDirectory(directory)) {
+			Path temp = Paths.get(filename + ".journals.tmp");
+			Files.createDirectories(temp);
+			Path profilePath = Paths.get(filename).toAbsolutePath();
+			for (File file : listFiles(profilePath.getParent().toFile())) {
+				long generation = parseGeneration(file.getName(), profilePath.getFileName() + ".");
+				if (generation >= 0)
+					Files.move(file.toPath(), temp.resolve(generation + ".journal"), StandardCopyOption.REPLACE_EXISTING);
 			}
-			output += ">\n";
+			replaceFile(temp, directory);
 		}
+		journalDirectoryReady = true;
 		
-		//write output to file
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-						
-			writer.write(output);
-			
+	}
+	
+	/**
+	 * Generations of the journals of this profile that exist on disk, oldest first.
+	 */
+	private ArrayList<Long> listJournalGenerations() throws IOException {
+		openJournalDirectory();
+		ArrayList<Long> generations = new ArrayList<>();
+		for (File file : listFiles(getJournalDirectory().toFile())) {
+			long generation = parseGeneration(file.getName(), "");
+			if (generation >= 0)
+				generations.add(generation);
+		}
+		Collections.sort(generations);
+		return generations;
+	}
+	
+	private static File[] listFiles(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Unable to list " + directory + ".");
+		return files;
+	}
+	
+	/**
+	 * The generation of the journal with the given name, which is the prefix, the generation and .journal, or
+	 * -1 if it isn't a journal.
+	 */
+	private static long parseGeneration(String name, String prefix) {
+		if (!name.startsWith(prefix) || !name.endsWith(".journal"))
+			return -1;
+		try {
+			return Long.parseLong(name.substring(prefix.length(), name.length() - ".journal".length()));
+		} catch (NumberFormatException e) {
+			//not one of our journals
+			return -1;
+		}
+	}
+	
+	/**
+	 * Whether the buffer is empty or its last line is complete.
+	 */
+	private static boolean endsWithLineBreak(ByteBuffer buffer) {
+		return buffer.limit() == 0 || buffer.get(buffer.limit() - 1) == '\n';
+	}
+	
+	//used to create a Profile object from a saved file
+	public static Profile loadProfile(String username) {
+		return loadProfile(new Profile(username));
+	}
+	
+	public static Profile loadProfile(String username, String filename) {
+		return loadProfile(new Profile(username, filename));
+	}
+	
+	/**
+	 * Read the snapshot, then replay every journal that isn't part of it yet.
+	 */
+	static Profile loadProfile(Profile profile) {
+		
+		long start = System.nanoTime();
+		boolean migrate = false;
+		boolean hasSnapshot = false;
+		boolean moveIntoStore = false;
+		
+		File snapshot = new File(profile.getFilename());
+		try {
+			ByteBuffer stored = (profile.store != null) ? profile.store.mapSnapshot(profile.getUsername()) : null;
+			if (stored != null) {
+				if (profile.readSnapshot(stored, profile.getUsername() + "'s snapshot in the profile store") < snapshotVersion)
+					migrate = true;
+				hasSnapshot = true;
+			} else if (snapshot.exists()) {
+				ByteBuffer contents = readFile(snapshot);
+				int version = 0;
+				if (contents.limit() >= 4 && contents.getInt(0) == snapshotMagic) {
+					version = profile.readSnapshot(contents, snapshot.toString());
+				} else {
+					//profiles used to be saved as text
+					profile.replay(parseText(contents), snapshot);
+				}
+				if (version < snapshotVersion)
+					migrate = true;
+				//a profile saved before the store existed moves into it
+				if (profile.store != null)
+					migrate = moveIntoStore = true;
+				hasSnapshot = true;
+			}
+		} catch (IOException e) {
+			System.err.println("ERROR! Profile { loadProfile() } : Unable to load profile for " + profile.getUsername() + ".");
+			e.printStackTrace();
+		}
+		
+		try {
+			long snapshotGeneration = profile.journalGeneration;
+			for (long generation : profile.listJournalGenerations()) {
+				Path journal = profile.getJournalPath(generation);
+				if (generation < snapshotGeneration) {
+					//left over from a compaction that didn't get to delete it
+					Files.deleteIfExists(journal);
+					continue;
+				}
+				ByteBuffer contents = readFile(journal.toFile());
+				ProfileTextParser.Records records = parseText(contents);
+				profile.journalRecords += profile.replay(records, journal.toFile());
+				profile.journalBytes += contents.limit();
+				profile.journalGeneration = generation;
+				//anything appended after a torn record would never be read again, so saves go to a new journal
+				if (records.isBroken() || !endsWithLineBreak(contents))
+					profile.journalGeneration = generation + 1;
+			}
 		} catch (IOException e) {
+			System.err.println("ERROR! Profile { loadProfile() } : Unable to replay the changes to the profile of " + profile.getUsername() + ".");
 			e.printStackTrace();
 		}
 		
-		System.out.println(username+"'s profile was successfully saved.");
+		if (!hasSnapshot && profile.journalRecords == 0)
+			System.err.println("ERROR! Profile { loadProfile() } : Unable to load profile for " + profile.getUsername() + ". Creating a new one.");
+		
+		System.out.println("Loaded " + profile.getSavedSelections().size() + " selection(s) and " + profile.getSavedPaths().size() 
+				+ " path(s) for " + profile.getUsername() + " in " + ((System.nanoTime() - start) / 1000000) + " ms.");
+		
+		if (migrate) {
+			try {
+				profile.compact();
+				if (moveIntoStore) {
+					Files.deleteIfExists(snapshot.toPath());
+					System.out.println("Moved " + profile.getFilename() + " into the profile store.");
+				} else {
+					System.out.println("Converted " + profile.getUsername() + "'s profile to the current profile format.");
+				}
+			} catch (IOException e) {
+				System.err.println("ERROR! Profile { loadProfile() } : Unable to convert " + profile.getUsername() + "'s profile to the current profile format.");
+				e.printStackTrace();
+			}
+		}
+		
+		return profile;
 		
 	}
 	
-	//used to create a Profile object from a saved file
-	public static Profile loadProfile(String username) {		
+	/**
+	 * Apply the records read from a text profile or journal to this profile. Returns the number of records
+	 * applied. A record cut off by a crash while it was being appended is ignored.
+	 */
+	private int replay(ProfileTextParser.Records records, File file) {
 		
-		Profile profile = new Profile(username);
+		int applied = 0;
 		
-		try (BufferedReader reader = new BufferedReader(new FileReader(profile.getFilename()))) {
-			
-			boolean inSet = false;
-			boolean inPath = false;
+		for (int i = 0; i < records.size(); i++) {
 			
-			HashSet<Node> currSet = new HashSet<>();
-			ArrayList<Node> currPath = new ArrayList<>();
-			
-			String line;
-			while((line = reader.readLine()) != null) {
-				
-				/**
-				 * Read any additional information here
-				 */
-				
-				//read in modified selections
-				if(line.equals("{")) {
-					
-					inSet = true;
-					
-				}else if(line.equals("}")) {
-					System.out.println("Loaded Selection");
-					profile.storeSelection(currSet);
-					System.out.println("Selection: " + profile.getSavedSelections());
-					inSet = false;
-					
-				}else if(inSet){
-					
-					String nodeXStr = line.substring(1, line.indexOf(','));//start at 1 to rid of '('
-					String nodeYStr = line.substring(line.indexOf(',')+1, line.lastIndexOf(','));//+1 to rid of ','
-					line = line.substring(line.indexOf(',')+1);//rid of first ','
-					String nodeTerrainStr = line.substring(line.indexOf(',')+1, line.length()-1);//+1 to rid of second ','
-					
-					int nodeX = Integer.parseInt(nodeXStr);
-					int nodeY = Integer.parseInt(nodeYStr);
-					Terrain nodeTerrain = Terrain.getTerrain(Integer.parseInt(nodeTerrainStr));
-					
-					Node dummyNode = new Node(nodeX, nodeY);
-					dummyNode.setTerrain(nodeTerrain);
-					
-					currSet.add(dummyNode);
-					
-				}
-				
-				//read in saved paths
-				if(line.equals("<")) {
-					
-					inPath = true;
-					
-				}else if(line.equals(">")){//save path
-					
-					System.out.println("Loaded Path");
-					profile.storePath(currPath);
-					System.out.println("Path: " + profile.getSavedPaths());
-					inPath = false;
-					
-				}else if(inPath){//node to read in
-					
-					String nodeXStr = line.substring(1, line.indexOf(','));//start at 1 to rid of '('
-					String nodeYStr = line.substring(line.indexOf(',')+1, line.length()-1);//+1 to rid of ','
-					
-					int nodeX = Integer.parseInt(nodeXStr);
-					int nodeY = Integer.parseInt(nodeYStr);
-					
-					Node dummyNode = new Node(nodeX, nodeY);
-					
-					currPath.add(dummyNode);
+			switch (records.getKind(i)) {
+			//generation of the first journal that isn't part of this snapshot
+			case ProfileTextParser.GENERATION:
+				journalGeneration = records.getValue(i);
+				break;
+			case ProfileTextParser.CLEAR_SELECTIONS:
+				removeSelections();
+				applied++;
+				break;
+			case ProfileTextParser.REMOVE_PATH:
+				long index = records.getValue(i);
+				if (index >= 0 && index < savedPaths.size())
+					savedPaths.remove((int) index);
+				applied++;
+				break;
+			case ProfileTextParser.SELECTION:
+				addSelection(records.toSelection(i));
+				applied++;
+				break;
+			case ProfileTextParser.PATH:
+				try {
+					addPath(records.toRoute(i));
+					applied++;
+				}catch(IllegalArgumentException e) {
+					System.err.println("ERROR! Profile { loadProfile() } : Skipping a broken path. " + e.getMessage());
 				}
-				
+				break;
 			}
 			
-		} catch (IOException e) {
-			System.err.println("ERROR! Profile { loadProfile() } : Unable to load profile for " + username + ". Creating a new one.");
 		}
 		
-		return profile;
+		//a record cut off by a crash only ever comes last
+		if (records.isBroken())
+			System.err.println("ERROR! Profile { loadProfile() } : Stopped reading " + file + " at a broken record, " + records.getBrokenOffset() + " bytes in.");
+		
+		return applied;
 		
 	}
 	
@@ -0,0 +1,216 @@
+package User;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a {@link Profile} in the background instead of on the thread that changed it.
+ *
+ * Whoever changes the profile calls {@link #markDirty()}, which returns straight away. The first change
+ * schedules a save {@link #getFlushInterval()} milliseconds later; every change made before that save runs
+ * rides along with it, so a burst of changes (say, several zones drawn in a row) costs one write. Pending
+ * changes are also saved by {@link #shutdown()}, which a shutdown hook calls when the application exits.
+ */
+public class ProfilePersistence {
+
+	/**
+	 * Milliseconds between the first change and the save that writes it, unless configured otherwise.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * Seconds {@link #shutdown()} waits for a save that is already running to finish.
+	 */
+	private static final long shutdownTimeout = 30;
+
+	private final Profile profile;
+	private final long flushInterval;
+
+	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Profile persistence");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Thread shutdownHook = new Thread("Profile persistence shutdown") {
+		public void run() {
+			shutdown();
+		}
+	};
+
+	/**
+	 * True while a save is scheduled that hasn't started yet.
+	 */
+	private boolean flushScheduled = false;
+
+	/**
+	 * When the oldest change that hasn't been saved yet was made, or -1 if everything is saved.
+	 */
+	private long dirtySince = -1;
+
+	private boolean shutdown = false;
+
+	private long dirtyCount = 0;
+	private long writeCount = 0;
+	private long failedWriteCount = 0;
+	private long totalFlushLatency = 0;
+	private long maxFlushLatency = 0;
+
+	public ProfilePersistence(Profile profile) {
+		this(profile, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * @param flushInterval milliseconds to wait after a change before saving it.
+	 */
+	public ProfilePersistence(Profile profile, long flushInterval) {
+		if (flushInterval < 0)
+			throw new IllegalArgumentException("The flush interval can't be negative.");
+		this.profile = profile;
+		this.flushInterval = flushInterval;
+		//a save that hasn't started yet is made by shutdown() itself instead of waiting for its interval
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	public Profile getProfile() {
+		return profile;
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * Note that the profile was changed, and schedule a save unless one is already coming.
+	 */
+	public synchronized void markDirty() {
+		dirtyCount++;
+		if (dirtySince < 0)
+			dirtySince = System.nanoTime();
+		scheduleFlush();
+	}
+
+	private synchronized void scheduleFlush() {
+		if (flushScheduled || shutdown)
+			return;
+		flushScheduled = true;
+		executor.schedule(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Save every change made so far, on the calling thread. If the save fails the profile stays dirty and
+	 * another save is scheduled.
+	 */
+	public void flush() {
+		long since;
+		synchronized (this) {
+			flushScheduled = false;
+			since = dirtySince;
+			dirtySince = -1;
+		}
+		if (since < 0)
+			return;
+
+		// Changes made from here on are either picked up by this save or mark the profile dirty again.
+		try {
+			profile.saveProfile();
+		} catch (IOException e) {
+			System.err.println("ERROR! ProfilePersistence { flush() } : Unable to save " + profile.getUsername() + "'s profile, trying again later.");
+			e.printStackTrace();
+			synchronized (this) {
+				failedWriteCount++;
+				// The changes are still pending in the profile, and none is older than the first.
+				dirtySince = since;
+				scheduleFlush();
+			}
+			return;
+		}
+
+		long latency = System.nanoTime() - since;
+		synchronized (this) {
+			writeCount++;
+			totalFlushLatency += latency;
+			maxFlushLatency = Math.max(maxFlushLatency, latency);
+		}
+	}
+
+	/**
+	 * Save whatever is pending and stop the background thread, after letting a save that is already running
+	 * finish. Later changes are saved by calling {@link #flush()} directly.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (shutdown)
+				return;
+			shutdown = true;
+		}
+		// Interrupting a running save would close its journal under it, so it is left to finish.
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS))
+				System.err.println("ERROR! ProfilePersistence { shutdown() } : Gave up waiting for a save to finish.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// Already shutting down, which is how we got here.
+		}
+		System.out.println(getStatistics());
+	}
+
+	/**
+	 * Number of times the profile was marked dirty.
+	 */
+	public synchronized long getDirtyCount() {
+		return dirtyCount;
+	}
+
+	/**
+	 * Number of saves that were actually made.
+	 */
+	public synchronized long getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 * Number of saves that failed and were tried again later.
+	 */
+	public synchronized long getFailedWriteCount() {
+		return failedWriteCount;
+	}
+
+	/**
+	 * Number of saves avoided by combining changes into one write.
+	 */
+	public synchronized long getWritesAvoided() {
+		return dirtyCount - writeCount;
+	}
+
+	/**
+	 * Average time from the oldest unsaved change to the end of the save that wrote it, in milliseconds.
+	 */
+	public synchronized double getAverageFlushLatency() {
+		return (writeCount == 0) ? 0 : totalFlushLatency / 1e6 / writeCount;
+	}
+
+	public synchronized double getMaxFlushLatency() {
+		return maxFlushLatency / 1e6;
+	}
+
+	public synchronized String getStatistics() {
+		return String.format("Profile persistence: %d change(s) saved in %d write(s) (%d avoided), flush latency %.1f ms average, %.1f ms max.",
+				dirtyCount, writeCount, getWritesAvoided(), getAverageFlushLatency(), getMaxFlushLatency());
+	}
+}
@@ -0,0 +1,456 @@
+package User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import UI.Selection;
+
+/**
+ * Keeps the profiles of every user of a directory, instead of one .profile file per user.
+ *
+ * The binary snapshots of all profiles are appended one after the other to a pack file, and a small index
+ * file says where each user's latest snapshot starts and how long it is. A snapshot is read by mapping just
+ * its region of the pack, so opening a profile doesn't depend on how many other users there are. A new
+ * snapshot is appended and forced to disk before the index is rewritten (to a temporary file that is moved
+ * over the old index), so a crash leaves either the old or the new snapshot in use, never a broken one. Once
+ * more than half of the pack is taken by snapshots that have been replaced, the live snapshots are copied to
+ * a new pack and the old one is deleted. The index names the pack it belongs to, so that switch is atomic too.
+ * Journals are kept by {@link Profile} as always, in a directory next to where the .profile file would be.
+ *
+ * Open profiles are kept in a least recently used cache of a fixed number of profiles. A profile pushed out of
+ * the cache saves its pending changes, after the store's lock is released, since a profile that is saving asks
+ * the store for the size of its snapshot. As long as anyone still holds on to an evicted profile, asking
+ * for that user again returns the same object, so there is never more than one profile per user in memory.
+ *
+ * Zones (selections) that are identical across profiles, such as the same building blocked off by many users,
+ * are only kept in memory once, see {@link #intern(Selection)}.
+ */
+public class ProfileStore {
+
+	/**
+	 * Number of profiles kept open, unless configured otherwise.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * First bytes of the index file ("PIDX").
+	 */
+	private static final int indexMagic = 0x50494458;
+
+	/**
+	 * Version of the index layout.
+	 */
+	private static final int indexVersion = 1;
+
+	/**
+	 * The pack is only rewritten once it is at least this large...
+	 */
+	private static final long repackAfterBytes = 1024 * 1024;
+
+	/**
+	 * ...and once less than this fraction of it is in use.
+	 */
+	private static final double repackBelowLiveFraction = 0.5;
+
+	private static ProfileStore defaultStore = null;
+
+	private final File directory;
+	private final File indexFile;
+	private final int capacity;
+
+	/**
+	 * Generation of the pack file the index points into. Repacking writes the next generation.
+	 */
+	private long packGeneration = 0;
+
+	/**
+	 * Offset and length in the pack of the latest snapshot of every user.
+	 */
+	private final LinkedHashMap<String, long[]> index = new LinkedHashMap<>();
+
+	/**
+	 * Bytes of the pack taken by the snapshots in the index.
+	 */
+	private long liveBytes = 0;
+
+	/**
+	 * Open profiles, least recently used first.
+	 */
+	private final LinkedHashMap<String, Profile> cache;
+
+	/**
+	 * Every profile handed out that is still reachable, whether or not it is still in the cache.
+	 */
+	private final HashMap<String, WeakReference<Profile>> loaded = new HashMap<>();
+
+	/**
+	 * Profiles pushed out of the cache that haven't saved their pending changes yet.
+	 */
+	private final ArrayList<Profile> evicted = new ArrayList<>();
+
+	/**
+	 * Zones shared between profiles, keyed by their terrain and rectangles.
+	 */
+	private final HashMap<List<Object>, WeakReference<Selection>> zones = new HashMap<>();
+	private int zonesCleanupSize = 1024;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+	private long sharedZoneCount = 0;
+
+	/**
+	 * Open the store of the given directory, creating it if needed.
+	 *
+	 * @param capacity number of profiles kept open.
+	 */
+	public ProfileStore(File directory, int capacity) throws IOException {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The profile store has to keep at least one profile open.");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create " + directory + ".");
+
+		this.directory = directory;
+		this.indexFile = new File(directory, "profiles.index");
+		this.capacity = capacity;
+		this.cache = new LinkedHashMap<String, Profile>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) {
+				if (size() <= ProfileStore.this.capacity)
+					return false;
+				evictionCount++;
+				evicted.add(eldest.getValue());
+				return true;
+			}
+		};
+
+		if (indexFile.exists())
+			readIndex();
+	}
+
+	/**
+	 * The store of the profiles in src\Res, opened the first time it is asked for.
+	 */
+	public static synchronized ProfileStore getDefault() throws IOException {
+		if (defaultStore == null)
+			defaultStore = new ProfileStore(new File("src\\Res"), DEFAULT_CAPACITY);
+		return defaultStore;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * The profile of the user, loading it if it isn't open. A user without a profile gets a new, empty one.
+	 */
+	public Profile getProfile(String username) {
+		Profile profile = openProfile(username);
+		saveEvicted();
+		return profile;
+	}
+
+	private synchronized Profile openProfile(String username) {
+
+		Profile profile = cache.get(username);
+		if (profile != null) {
+			hitCount++;
+			return profile;
+		}
+
+		//evicted, but still in use somewhere
+		WeakReference<Profile> reference = loaded.get(username);
+		profile = (reference != null) ? reference.get() : null;
+		if (profile != null) {
+			hitCount++;
+			cache.put(username, profile);
+			return profile;
+		}
+
+		missCount++;
+		profile = Profile.loadProfile(new Profile(username, new File(directory, username + ".profile").getPath(), this));
+		if (!index.containsKey(username)) {
+			//write a snapshot right away, so every user of the store is in the index
+			try {
+				profile.compact();
+			} catch (IOException e) {
+				System.err.println("ERROR! ProfileStore { getProfile() } : Unable to add " + username + " to the profile store.");
+				e.printStackTrace();
+			}
+		}
+
+		cache.put(username, profile);
+		loaded.put(username, new WeakReference<>(profile));
+		if (loaded.size() > 2 * capacity)
+			removeCleared(loaded);
+		return profile;
+
+	}
+
+	/**
+	 * Users with a snapshot in the store.
+	 */
+	public synchronized List<String> getUsernames() {
+		return new ArrayList<>(index.keySet());
+	}
+
+	/**
+	 * Save the pending changes of every open profile.
+	 */
+	public void saveAll() throws IOException {
+		ArrayList<Profile> profiles;
+		synchronized (this) {
+			profiles = new ArrayList<>(cache.values());
+		}
+		saveEvicted();
+		for (Profile profile : profiles)
+			profile.saveProfile();
+	}
+
+	/**
+	 * Save the pending changes of the profiles pushed out of the cache, with the store's lock released.
+	 */
+	private void saveEvicted() {
+		ArrayList<Profile> profiles;
+		synchronized (this) {
+			if (evicted.isEmpty())
+				return;
+			profiles = new ArrayList<>(evicted);
+			evicted.clear();
+		}
+		for (Profile profile : profiles) {
+			try {
+				profile.saveProfile();
+			} catch (IOException e) {
+				System.err.println("ERROR! ProfileStore { getProfile() } : Unable to save " + profile.getUsername() + "'s profile.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Map the user's latest snapshot, or return null if the store doesn't have one.
+	 */
+	synchronized ByteBuffer mapSnapshot(String username) throws IOException {
+		long[] entry = index.get(username);
+		if (entry == null)
+			return null;
+		try (FileChannel channel = FileChannel.open(getPackFile(packGeneration).toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, entry[0], entry[1]);
+		}
+	}
+
+	/**
+	 * Size of the user's latest snapshot, or 0 if the store doesn't have one.
+	 */
+	synchronized long getSnapshotSize(String username) {
+		long[] entry = index.get(username);
+		return (entry != null) ? entry[1] : 0;
+	}
+
+	/**
+	 * Append a new snapshot of the user to the pack and point the index to it.
+	 */
+	synchronized void storeSnapshot(String username, byte[] snapshot) throws IOException {
+
+		File pack = getPackFile(packGeneration);
+		long offset;
+		try (FileChannel channel = FileChannel.open(pack.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			offset = channel.size();
+			channel.position(offset);
+			ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		}
+
+		long[] previous = index.put(username, new long[] { offset, snapshot.length });
+		if (previous != null)
+			liveBytes -= previous[1];
+		liveBytes += snapshot.length;
+		writeIndex();
+
+		long packSize = offset + snapshot.length;
+		if (packSize > repackAfterBytes && liveBytes < packSize * repackBelowLiveFraction)
+			repack();
+
+	}
+
+	/**
+	 * Copy the live snapshots to a new pack, point the index to it and delete the old pack.
+	 */
+	private void repack() throws IOException {
+
+		long start = System.nanoTime();
+		File oldPack = getPackFile(packGeneration);
+		File newPack = getPackFile(packGeneration + 1);
+		LinkedHashMap<String, long[]> newIndex = new LinkedHashMap<>();
+
+		try (FileChannel source = FileChannel.open(oldPack.toPath(), StandardOpenOption.READ);
+				FileChannel target = FileChannel.open(newPack.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long offset = 0;
+			for (Map.Entry<String, long[]> entry : index.entrySet()) {
+				long position = entry.getValue()[0];
+				long length = entry.getValue()[1];
+				long end = position + length;
+				while (position < end)
+					position += source.transferTo(position, end - position, target);
+				newIndex.put(entry.getKey(), new long[] { offset, length });
+				offset += length;
+			}
+			target.force(false);
+		} catch (IOException e) {
+			Files.deleteIfExists(newPack.toPath());
+			throw e;
+		}
+
+		long oldSize = oldPack.length();
+		index.clear();
+		index.putAll(newIndex);
+		packGeneration++;
+		writeIndex();
+		if (!oldPack.delete())
+			//most likely still mapped, and it is never read again
+			oldPack.deleteOnExit();
+
+		System.out.println("Repacked the profile store from " + oldSize + " to " + liveBytes + " bytes in "
+				+ ((System.nanoTime() - start) / 1000000) + " ms.");
+
+	}
+
+	private File getPackFile(long generation) {
+		return new File(directory, "profiles." + generation + ".pack");
+	}
+
+	private void readIndex() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != indexMagic)
+				throw new IOException(indexFile + " isn't a profile index.");
+			int version = in.readInt();
+			if (version != indexVersion)
+				throw new IOException(indexFile + " has version " + version + " of the index format, expected " + indexVersion + ".");
+			packGeneration = in.readLong();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String username = in.readUTF();
+				long offset = in.readLong();
+				long length = in.readInt();
+				index.put(username, new long[] { offset, length });
+				liveBytes += length;
+			}
+		} catch (EOFException e) {
+			throw new IOException(indexFile + " is truncated.", e);
+		}
+	}
+
+	/**
+	 * Rewrite the index to a temporary file and move it over the old one.
+	 */
+	private void writeIndex() throws IOException {
+		File temp = new File(directory, "profiles.index.tmp");
+		try {
+			try (FileOutputStream file = new FileOutputStream(temp)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+				out.writeInt(indexMagic);
+				out.writeInt(indexVersion);
+				out.writeLong(packGeneration);
+				out.writeInt(index.size());
+				for (Map.Entry<String, long[]> entry : index.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue()[0]);
+					out.writeInt((int) entry.getValue()[1]);
+				}
+				out.flush();
+				file.getFD().sync();
+			}
+			Profile.replaceFile(temp.toPath(), indexFile.toPath());
+		} catch (IOException e) {
+			Files.deleteIfExists(temp.toPath());
+			throw e;
+		}
+	}
+
+	/**
+	 * The zone every profile of this store uses for selections with the same terrain and cells, which is the
+	 * given selection itself the first time it is seen. Zones are compared by the rectangles that cover them,
+	 * which are what the zones are drawn and indexed by anyway.
+	 */
+	Selection intern(Selection selection) {
+		List<Object> key = Arrays.<Object>asList(selection.getTerrain(), selection.getRectangles());
+		synchronized (zones) {
+			WeakReference<Selection> reference = zones.get(key);
+			Selection shared = (reference != null) ? reference.get() : null;
+			if (shared != null) {
+				sharedZoneCount++;
+				return shared;
+			}
+			zones.put(key, new WeakReference<>(selection));
+			if (zones.size() > zonesCleanupSize) {
+				removeCleared(zones);
+				zonesCleanupSize = Math.max(1024, 2 * zones.size());
+			}
+			return selection;
+		}
+	}
+
+	private static <K, V> void removeCleared(HashMap<K, WeakReference<V>> references) {
+		for (Iterator<WeakReference<V>> i = references.values().iterator(); i.hasNext();)
+			if (i.next().get() == null)
+				i.remove();
+	}
+
+	public synchronized int getOpenProfileCount() {
+		return cache.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Number of zones that were found to be identical to one already in memory, and so weren't kept twice.
+	 */
+	public long getSharedZoneCount() {
+		synchronized (zones) {
+			return sharedZoneCount;
+		}
+	}
+
+	public synchronized String getStatistics() {
+		return String.format("Profile store: %d user(s), %d open, %d hit(s), %d miss(es), %d eviction(s), %d shared zone(s).",
+				index.size(), cache.size(), hitCount, missCount, evictionCount, getSharedZoneCount());
+	}
+}
@@ -0,0 +1,463 @@
+package User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import Map.Route;
+import Map.Terrain;
+import UI.Selection;
+
+/**
+ * Reads the text format of profiles (journals, and profiles saved before the binary snapshot) straight from
+ * the bytes of the file.
+ *
+ * The scanner walks the bytes once and turns every [x,y,width,height,t] rectangle, (x,y,t) cell, start node and
+ * step digit into ints in a few
+ * growing arrays, without creating a String or any other object per line. Selections and routes are only built
+ * when the records are applied to a profile. Files of {@link #PARALLEL_THRESHOLD} bytes or more are split at
+ * record boundaries ({, <, ! and # only ever start a line that starts a record) and the parts are scanned at the
+ * same time; the records still come out in the order of the file.
+ *
+ * A record cut off by a crash, or anything else that can't be read, ends the records: nothing after it is
+ * returned, and {@link Records#isBroken()} tells where it was.
+ */
+public final class ProfileTextParser {
+
+	/**
+	 * Kinds of records.
+	 */
+	public static final int SELECTION = 0;
+	public static final int CLEAR_SELECTIONS = 1;
+	public static final int PATH = 2;
+	public static final int REMOVE_PATH = 3;
+	public static final int GENERATION = 4;
+
+	/**
+	 * Files at least this large are scanned in parallel.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Smallest part of a file given to one thread.
+	 */
+	private static final int minChunkSize = 256 * 1024;
+
+	private static final byte[] clearSelections = ascii("!clearSelections");
+	private static final byte[] removePath = ascii("!removePath ");
+	private static final byte[] generation = ascii("#generation ");
+
+	private static final int threadCount = Runtime.getRuntime().availableProcessors();
+
+	private static final ExecutorService scanners = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Profile parser");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private ProfileTextParser() {
+	}
+
+	private static byte[] ascii(String text) {
+		byte[] bytes = new byte[text.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) text.charAt(i);
+		return bytes;
+	}
+
+	/**
+	 * Read every record of the file, through a memory map.
+	 */
+	public static Records parse(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be a profile.");
+			if (size == 0)
+				return new Records();
+			return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size >= PARALLEL_THRESHOLD);
+		}
+	}
+
+	/**
+	 * Read every record between the position and the limit of the buffer. The buffer itself isn't moved.
+	 *
+	 * @param parallel whether to split the buffer and scan the parts on several threads.
+	 */
+	public static Records parse(final ByteBuffer buffer, boolean parallel) throws IOException {
+
+		int start = buffer.position();
+		int end = buffer.limit();
+		int chunkCount = parallel ? Math.min(threadCount, (end - start) / minChunkSize) : 1;
+		if (chunkCount <= 1) {
+			Records records = new Records();
+			records.scan(buffer, start, end);
+			return records;
+		}
+
+		ArrayList<Future<Records>> parts = new ArrayList<>();
+		int chunkStart = start;
+		for (int chunk = 1; chunk <= chunkCount && chunkStart < end; chunk++) {
+			final int from = chunkStart;
+			final int to = (chunk == chunkCount) ? end : nextRecord(buffer, start + (int) ((long) (end - start) * chunk / chunkCount), end);
+			parts.add(scanners.submit(new Callable<Records>() {
+				public Records call() {
+					Records records = new Records();
+					records.scan(buffer, from, to);
+					return records;
+				}
+			}));
+			chunkStart = to;
+		}
+
+		try {
+			Records records = parts.get(0).get();
+			for (int i = 1; i < parts.size() && !records.isBroken(); i++)
+				records.append(parts.get(i).get());
+			return records;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading a profile.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to read a profile.", e.getCause());
+		}
+
+	}
+
+	/**
+	 * Offset of the first line at or after the given offset that starts a record, or the end.
+	 */
+	private static int nextRecord(ByteBuffer buffer, int offset, int end) {
+		//back up to the start of the line we are in
+		while (offset > buffer.position() && buffer.get(offset - 1) != '\n')
+			offset--;
+		for (; offset < end; offset = skipLine(buffer, offset, end)) {
+			byte first = buffer.get(offset);
+			if (first == '{' || first == '<' || first == '!' || first == '#')
+				return offset;
+		}
+		return end;
+	}
+
+	/**
+	 * Offset of the start of the next line.
+	 */
+	private static int skipLine(ByteBuffer buffer, int offset, int end) {
+		while (offset < end && buffer.get(offset) != '\n')
+			offset++;
+		return Math.min(offset + 1, end);
+	}
+
+	/**
+	 * The records of a file, stored as primitive arrays.
+	 *
+	 * The data of record i is ints[dataStart[i]] up to ints[dataStart[i + 1]]: the (x, y, width, height) of the
+	 * rectangles of a selection (a cell being a rectangle of one), or the (x, y) pairs of the nodes of a path. The steps of a path are steps[stepStart[i]] up to
+	 * steps[stepStart[i + 1]].
+	 */
+	public static final class Records {
+
+		private int count = 0;
+		private byte[] kinds = new byte[16];
+
+		/**
+		 * Generation, index of the removed path, or the terrain of a selection (-1 if it has no cells).
+		 */
+		private long[] values = new long[16];
+
+		private int[] dataStart = new int[17];
+		private int[] ints = new int[256];
+		private int intCount = 0;
+
+		private int[] stepStart = new int[17];
+		private byte[] steps = new byte[256];
+		private int stepCount = 0;
+
+		/**
+		 * Offset of the record that couldn't be read, or -1.
+		 */
+		private long brokenAt = -1;
+
+		/**
+		 * Where the number that was just read ends.
+		 */
+		private int cursor;
+
+		public int size() {
+			return count;
+		}
+
+		public int getKind(int record) {
+			return kinds[record];
+		}
+
+		public long getValue(int record) {
+			return values[record];
+		}
+
+		public int getRectangleCount(int record) {
+			return (dataStart[record + 1] - dataStart[record]) / 4;
+		}
+
+		public int getStepCount(int record) {
+			return stepStart[record + 1] - stepStart[record];
+		}
+
+		public boolean isBroken() {
+			return brokenAt >= 0;
+		}
+
+		/**
+		 * Offset in the buffer of the record that couldn't be read, or -1 if every record was read.
+		 */
+		public long getBrokenOffset() {
+			return brokenAt;
+		}
+
+		/**
+		 * Build the selection of a {@link #SELECTION} record.
+		 */
+		public Selection toSelection(int record) {
+			Selection selection = new Selection();
+			for (int i = dataStart[record]; i < dataStart[record + 1]; i += 4)
+				selection.addRectangle(ints[i], ints[i + 1], ints[i] + ints[i + 2], ints[i + 1] + ints[i + 3]);
+			if (values[record] >= 0)
+				selection.setTerrain(Terrain.getTerrain((int) values[record]));
+			return selection;
+		}
+
+		/**
+		 * Build the route of a {@link #PATH} record. Newer profiles store the start node followed by the
+		 * direction of every step, older ones every node of the path.
+		 *
+		 * @throws IllegalArgumentException if the record doesn't describe a path.
+		 */
+		public Route toRoute(int record) {
+			int from = dataStart[record];
+			int to = dataStart[record + 1];
+			if (from == to)
+				throw new IllegalArgumentException("A route needs at least one node.");
+			Route.Builder builder = new Route.Builder(ints[from], ints[from + 1]);
+			if (stepStart[record] < stepStart[record + 1]) {
+				for (int i = stepStart[record]; i < stepStart[record + 1]; i++)
+					builder.step(steps[i]);
+			} else {
+				for (int i = from + 2; i < to; i += 2)
+					builder.stepTo(ints[i], ints[i + 1]);
+			}
+			return builder.build();
+		}
+
+		/**
+		 * Scan the lines between the offsets, which start at a line that starts a record.
+		 */
+		void scan(ByteBuffer buffer, int offset, int end) {
+
+			final int outside = 0, inSelection = 1, inPath = 2;
+			int state = outside;
+			int recordOffset = offset;
+			long terrain = -1;
+
+			while (offset < end) {
+				int lineEnd = offset;
+				while (lineEnd < end && buffer.get(lineEnd) != '\n')
+					lineEnd++;
+				int next = lineEnd + 1;
+				if (lineEnd > offset && buffer.get(lineEnd - 1) == '\r')
+					lineEnd--;
+				byte first = (lineEnd > offset) ? buffer.get(offset) : 0;
+				int length = lineEnd - offset;
+
+				try {
+					if (state == inSelection) {
+						if (first == '}' && length == 1) {
+							endRecord(SELECTION, terrain);
+							state = outside;
+						} else if (first == '[') {
+							addInt(readInt(buffer, offset + 1, lineEnd));
+							for (int i = 0; i < 3; i++) {
+								expect(buffer, cursor, lineEnd, ',');
+								addInt(readInt(buffer, cursor + 1, lineEnd));
+							}
+							expect(buffer, cursor, lineEnd, ',');
+							terrain = readInt(buffer, cursor + 1, lineEnd);
+							expect(buffer, cursor, lineEnd, ']');
+							expectEnd(cursor + 1, lineEnd);
+						} else {
+							expect(buffer, offset, lineEnd, '(');
+							addInt(readInt(buffer, offset + 1, lineEnd));
+							expect(buffer, cursor, lineEnd, ',');
+							addInt(readInt(buffer, cursor + 1, lineEnd));
+							addInt(1);
+							addInt(1);
+							expect(buffer, cursor, lineEnd, ',');
+							terrain = readInt(buffer, cursor + 1, lineEnd);
+							expect(buffer, cursor, lineEnd, ')');
+							expectEnd(cursor + 1, lineEnd);
+						}
+					} else if (state == inPath) {
+						if (first == '>' && length == 1) {
+							endRecord(PATH, 0);
+							state = outside;
+						} else if (first == '(') {
+							addInt(readInt(buffer, offset + 1, lineEnd));
+							expect(buffer, cursor, lineEnd, ',');
+							addInt(readInt(buffer, cursor + 1, lineEnd));
+							expect(buffer, cursor, lineEnd, ')');
+							expectEnd(cursor + 1, lineEnd);
+						} else {
+							for (int i = offset; i < lineEnd; i++)
+								addStep((byte) (buffer.get(i) - '0'));
+						}
+					} else {
+						recordOffset = offset;
+						if (first == '{' && length == 1) {
+							terrain = -1;
+							state = inSelection;
+						} else if (first == '<' && length == 1) {
+							state = inPath;
+						} else if (matches(buffer, offset, lineEnd, clearSelections)) {
+							if (length == clearSelections.length)
+								endRecord(CLEAR_SELECTIONS, 0);
+						} else if (matches(buffer, offset, lineEnd, removePath)) {
+							long index = readInt(buffer, offset + removePath.length, lineEnd);
+							expectEnd(cursor, lineEnd);
+							endRecord(REMOVE_PATH, index);
+						} else if (matches(buffer, offset, lineEnd, generation)) {
+							long value = readInt(buffer, offset + generation.length, lineEnd);
+							expectEnd(cursor, lineEnd);
+							endRecord(GENERATION, value);
+						}
+						//anything else outside of a record is ignored, as it always was
+					}
+				} catch (NumberFormatException e) {
+					//a record cut off by a crash only ever comes last
+					brokenAt = recordOffset;
+					intCount = dataStart[count];
+					stepCount = stepStart[count];
+					return;
+				}
+
+				offset = next;
+			}
+
+			//a record that never ended was cut off too
+			if (state != outside)
+				brokenAt = recordOffset;
+			intCount = dataStart[count];
+			stepCount = stepStart[count];
+
+		}
+
+		private static boolean matches(ByteBuffer buffer, int offset, int end, byte[] literal) {
+			if (end - offset < literal.length)
+				return false;
+			for (int i = 0; i < literal.length; i++)
+				if (buffer.get(offset + i) != literal[i])
+					return false;
+			return true;
+		}
+
+		private static void expect(ByteBuffer buffer, int offset, int end, char expected) {
+			if (offset >= end || buffer.get(offset) != expected)
+				throw new NumberFormatException("Expected '" + expected + "'.");
+		}
+
+		private static void expectEnd(int offset, int end) {
+			if (offset != end)
+				throw new NumberFormatException("Unexpected text at the end of a line.");
+		}
+
+		/**
+		 * Read a decimal number starting at the offset, leaving {@link cursor} just after it.
+		 */
+		private long readInt(ByteBuffer buffer, int offset, int end) {
+			boolean negative = offset < end && buffer.get(offset) == '-';
+			if (negative)
+				offset++;
+			long value = 0;
+			int digits = 0;
+			for (; offset < end; offset++, digits++) {
+				int digit = buffer.get(offset) - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				value = value * 10 + digit;
+			}
+			if (digits == 0 || digits > 18)
+				throw new NumberFormatException("Expected a number.");
+			cursor = offset;
+			return negative ? -value : value;
+		}
+
+		private void addInt(long value) {
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+				throw new NumberFormatException(value + " is out of range.");
+			if (intCount == ints.length)
+				ints = Arrays.copyOf(ints, 2 * ints.length);
+			ints[intCount++] = (int) value;
+		}
+
+		private void addStep(byte step) {
+			if (stepCount == steps.length)
+				steps = Arrays.copyOf(steps, 2 * steps.length);
+			steps[stepCount++] = step;
+		}
+
+		private void endRecord(int kind, long value) {
+			if (count + 1 == dataStart.length) {
+				kinds = Arrays.copyOf(kinds, 2 * kinds.length);
+				values = Arrays.copyOf(values, 2 * values.length);
+				dataStart = Arrays.copyOf(dataStart, 2 * dataStart.length - 1);
+				stepStart = Arrays.copyOf(stepStart, 2 * stepStart.length - 1);
+			}
+			kinds[count] = (byte) kind;
+			values[count] = value;
+			count++;
+			dataStart[count] = intCount;
+			stepStart[count] = stepCount;
+		}
+
+		/**
+		 * Add the records of the part of the file that comes right after this one.
+		 */
+		void append(Records other) {
+			int records = count + other.count;
+			if (records + 1 > dataStart.length) {
+				kinds = Arrays.copyOf(kinds, records);
+				values = Arrays.copyOf(values, records);
+				dataStart = Arrays.copyOf(dataStart, records + 1);
+				stepStart = Arrays.copyOf(stepStart, records + 1);
+			}
+			System.arraycopy(other.kinds, 0, kinds, count, other.count);
+			System.arraycopy(other.values, 0, values, count, other.count);
+			for (int record = 1; record <= other.count; record++) {
+				dataStart[count + record] = intCount + other.dataStart[record];
+				stepStart[count + record] = stepCount + other.stepStart[record];
+			}
+			count = records;
+
+			if (intCount + other.intCount > ints.length)
+				ints = Arrays.copyOf(ints, Math.max(2 * ints.length, intCount + other.intCount));
+			System.arraycopy(other.ints, 0, ints, intCount, other.intCount);
+			intCount += other.intCount;
+			if (stepCount + other.stepCount > steps.length)
+				steps = Arrays.copyOf(steps, Math.max(2 * steps.length, stepCount + other.stepCount));
+			System.arraycopy(other.steps, 0, steps, stepCount, other.stepCount);
+			stepCount += other.stepCount;
+
+			brokenAt = other.brokenAt;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores a byte array as a sequence of independently deflated blocks, preceded by an index of their
+ * compressed sizes.
+ *
+ * Grids and the data computed from them are mostly long runs of identical bits, so they deflate very well.
+ * Compressing the whole thing as one stream would mean inflating everything to read any part of it; with
+ * blocks, reading a tile only inflates the block(s) it lies in, and {@link Reader} seeks straight to them
+ * using the index.
+ *
+ * Layout: magic, block size, uncompressed length (long), block count, the compressed size of every block,
+ * then the blocks themselves.
+ */
+public final class BlockCompressedStore {
+
+	/**
+	 * Written at the start of every store, so we don't try to decode something else.
+	 */
+	private static final int MAGIC = 0x42434D50; // "BCMP"
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private BlockCompressedStore() {
+	}
+
+	public static void write(byte[] data, DataOutput out) throws IOException {
+		write(data, data.length, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, out);
+	}
+
+	/**
+	 * Compress the first length bytes of data into blocks of blockSize bytes each (before compression).
+	 */
+	public static void write(byte[] data, int length, int blockSize, int level, DataOutput out) throws IOException {
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("The block size must be positive.");
+
+		int blockCount = (length + blockSize - 1) / blockSize;
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 8));
+		int[] compressedSizes = new int[blockCount];
+		byte[] buffer = new byte[blockSize + 64];
+		Deflater deflater = new Deflater(level);
+		try {
+			for (int block = 0; block < blockCount; block++) {
+				int start = block * blockSize;
+				deflater.reset();
+				deflater.setInput(data, start, Math.min(blockSize, length - start));
+				deflater.finish();
+				int before = compressed.size();
+				while (!deflater.finished()) {
+					int written = deflater.deflate(buffer);
+					compressed.write(buffer, 0, written);
+				}
+				compressedSizes[block] = compressed.size() - before;
+			}
+		} finally {
+			deflater.end();
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(blockSize);
+		out.writeLong(length);
+		out.writeInt(blockCount);
+		for (int size : compressedSizes)
+			out.writeInt(size);
+		out.write(compressed.toByteArray());
+	}
+
+	/**
+	 * Random access to a store inside a file. Only the index is read up front; blocks are read and inflated
+	 * when a byte inside them is asked for. The most recently inflated block is kept, so reading a block
+	 * front to back only inflates it once.
+	 *
+	 * Not thread safe.
+	 */
+	public static class Reader {
+		private final RandomAccessFile file;
+		private final int blockSize;
+		private final long length;
+
+		/**
+		 * File offset of every block, plus the end of the last block.
+		 */
+		private final long[] blockOffsets;
+
+		private final Inflater inflater = new Inflater();
+		private byte[] compressedBuffer = new byte[0];
+		private int cachedBlock = -1;
+		private byte[] cachedData = null;
+		private int cachedLength = 0;
+
+		/**
+		 * Read the index of the store starting at the current position of the file.
+		 */
+		public Reader(RandomAccessFile file) throws IOException {
+			this.file = file;
+			if (file.readInt() != MAGIC)
+				throw new IOException("Not a block compressed store.");
+			this.blockSize = file.readInt();
+			this.length = file.readLong();
+			int blockCount = file.readInt();
+			if (blockSize <= 0 || length < 0 || blockCount != (int) ((length + blockSize - 1) / blockSize))
+				throw new IOException("Corrupt block compressed store header.");
+
+			blockOffsets = new long[blockCount + 1];
+			int[] sizes = new int[blockCount];
+			for (int block = 0; block < blockCount; block++)
+				sizes[block] = file.readInt();
+			blockOffsets[0] = file.getFilePointer();
+			for (int block = 0; block < blockCount; block++)
+				blockOffsets[block + 1] = blockOffsets[block] + sizes[block];
+			if (blockOffsets[blockCount] > file.length())
+				throw new IOException("Block compressed store is truncated.");
+		}
+
+		/**
+		 * Length of the data before compression.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		public int getBlockSize() {
+			return blockSize;
+		}
+
+		public int getBlockCount() {
+			return blockOffsets.length - 1;
+		}
+
+		/**
+		 * Size of all the compressed blocks, not counting the index.
+		 */
+		public long getCompressedLength() {
+			return blockOffsets[blockOffsets.length - 1] - blockOffsets[0];
+		}
+
+		/**
+		 * Copy len bytes starting at position (in the uncompressed data) into b, inflating only the blocks
+		 * they lie in.
+		 */
+		public void read(long position, byte[] b, int off, int len) throws IOException {
+			if (position < 0 || position + len > length)
+				throw new EOFException("Reading past the end of the store.");
+			while (len > 0) {
+				int block = (int) (position / blockSize);
+				int inBlock = (int) (position - (long) block * blockSize);
+				inflate(block);
+				int count = Math.min(len, cachedLength - inBlock);
+				System.arraycopy(cachedData, inBlock, b, off, count);
+				position += count;
+				off += count;
+				len -= count;
+			}
+		}
+
+		private void inflate(int block) throws IOException {
+			if (block == cachedBlock)
+				return;
+
+			int compressedLength = (int) (blockOffsets[block + 1] - blockOffsets[block]);
+			if (compressedBuffer.length < compressedLength)
+				compressedBuffer = new byte[compressedLength];
+			file.seek(blockOffsets[block]);
+			file.readFully(compressedBuffer, 0, compressedLength);
+
+			int expected = (int) Math.min(blockSize, length - (long) block * blockSize);
+			if (cachedData == null)
+				cachedData = new byte[blockSize];
+			cachedBlock = -1;
+			inflater.reset();
+			inflater.setInput(compressedBuffer, 0, compressedLength);
+			try {
+				int inflated = 0;
+				while (inflated < expected && !inflater.finished()) {
+					int count = inflater.inflate(cachedData, inflated, expected - inflated);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					inflated += count;
+				}
+				if (inflated != expected)
+					throw new IOException("Block " + block + " is corrupt.");
+			} catch (DataFormatException e) {
+				throw new IOException("Block " + block + " is corrupt.", e);
+			}
+			cachedBlock = block;
+			cachedLength = expected;
+		}
+
+		/**
+		 * Stream over the whole uncompressed data, inflating one block at a time.
+		 */
+		public InputStream openStream() {
+			return new InputStream() {
+				private long position = 0;
+
+				@Override
+				public int read() throws IOException {
+					if (position >= length)
+						return -1;
+					int block = (int) (position / blockSize);
+					inflate(block);
+					return cachedData[(int) (position++ - (long) block * blockSize)] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (len == 0)
+						return 0;
+					if (position >= length)
+						return -1;
+					// Never cross a block boundary in one call, so each call costs at most one inflate.
+					int inBlock = (int) (position % blockSize);
+					int count = (int) Math.min(len, Math.min(blockSize - inBlock, length - position));
+					Reader.this.read(position, b, off, count);
+					position += count;
+					return count;
+				}
+			};
+		}
+
+		/**
+		 * Release the inflater and close the file.
+		 */
+		public void close() throws IOException {
+			inflater.end();
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+import com.caucho.hessian.io.AbstractDeserializer;
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.AbstractSerializer;
+import com.caucho.hessian.io.AbstractSerializerFactory;
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.Serializer;
+
+import Map.GridSnapshot;
+import Map.Node;
+import Map.Route;
+import Map.Terrain;
+import Map.WalkabilityBitmap;
+
+/**
+ * Hessian serializers for the map types, registered by {@link HessianSerializer}.
+ *
+ * The default serializer writes every field it finds through reflection. For a {@link Node} that includes its
+ * four neighbors, so writing one node walks (and overflows the stack on) the whole graph, which is why
+ * {@link Map.EdgelessNode} exists. These serializers write only what is needed to rebuild a value:
+ * <ul>
+ * <li>a node as its coordinates, terrain and valid flag, without its neighbors,</li>
+ * <li>a {@link Route} as its start and two bits per step,</li>
+ * <li>a {@link WalkabilityBitmap} or {@link GridSnapshot} as its packed bits, one bit per node.</li>
+ * </ul>
+ * Each is written as a Hessian object, so the field names are only sent once per message.
+ */
+public class CompactSerializerFactory extends AbstractSerializerFactory {
+
+	// AbstractSerializerFactory declares these with a raw Class, and an override must keep its erasure.
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Serializer getSerializer(Class cl) {
+		if (cl == Node.class)
+			return NODE_SERIALIZER;
+		if (cl == Route.class)
+			return ROUTE_SERIALIZER;
+		if (cl == WalkabilityBitmap.class)
+			return BITMAP_SERIALIZER;
+		if (cl == GridSnapshot.class)
+			return SNAPSHOT_SERIALIZER;
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Deserializer getDeserializer(Class cl) {
+		if (cl == Node.class)
+			return NODE_DESERIALIZER;
+		if (cl == Route.class)
+			return ROUTE_DESERIALIZER;
+		if (cl == WalkabilityBitmap.class)
+			return BITMAP_DESERIALIZER;
+		if (cl == GridSnapshot.class)
+			return SNAPSHOT_DESERIALIZER;
+		return null;
+	}
+
+	/**
+	 * Writes a value as a Hessian object with a fixed list of fields.
+	 */
+	private static abstract class FieldSerializer extends AbstractSerializer {
+		private final String[] fieldNames;
+
+		FieldSerializer(String... fieldNames) {
+			this.fieldNames = fieldNames;
+		}
+
+		@Override
+		protected void writeDefinition20(Class<?> cl, AbstractHessianOutput out) throws IOException {
+			out.writeClassFieldLength(fieldNames.length);
+			for (String name : fieldNames)
+				out.writeString(name);
+		}
+
+		/**
+		 * Write the value of every field, in the order the fields were named.
+		 */
+		@Override
+		protected abstract void writeInstance(Object obj, AbstractHessianOutput out) throws IOException;
+	}
+
+	/**
+	 * Reads the fields written by a {@link FieldSerializer}, in whatever order the writer defined them.
+	 */
+	private static abstract class FieldDeserializer extends AbstractDeserializer {
+		private final Class<?> type;
+
+		FieldDeserializer(Class<?> type) {
+			this.type = type;
+		}
+
+		@Override
+		public Class<?> getType() {
+			return type;
+		}
+
+		@Override
+		public Object[] createFields(int length) {
+			return new String[length];
+		}
+
+		@Override
+		public Object createField(String name) {
+			return name;
+		}
+
+		@Override
+		public Object readObject(AbstractHessianInput in, Object[] fields) throws IOException {
+			String[] names = new String[fields.length];
+			for (int i = 0; i < fields.length; i++)
+				names[i] = (String) fields[i];
+			return readObject(in, names);
+		}
+
+		@Override
+		public Object readObject(AbstractHessianInput in, String[] fieldNames) throws IOException {
+			Object[] values = new Object[fieldNames.length];
+			for (int i = 0; i < fieldNames.length; i++)
+				values[i] = in.readObject();
+			Object value = create(fieldNames, values);
+			// The writer registered the value as a reference before its fields, none of which are references
+			// themselves, so registering it now gives it the same number.
+			in.addRef(value);
+			return value;
+		}
+
+		abstract Object create(String[] fieldNames, Object[] values) throws IOException;
+
+		static Object field(String[] fieldNames, Object[] values, String name) throws IOException {
+			for (int i = 0; i < fieldNames.length; i++)
+				if (fieldNames[i].equals(name))
+					return values[i];
+			throw new IOException("Missing field " + name + ".");
+		}
+
+		static int intField(String[] fieldNames, Object[] values, String name) throws IOException {
+			return ((Number) field(fieldNames, values, name)).intValue();
+		}
+
+		static long longField(String[] fieldNames, Object[] values, String name) throws IOException {
+			return ((Number) field(fieldNames, values, name)).longValue();
+		}
+	}
+
+	private static final FieldSerializer NODE_SERIALIZER = new FieldSerializer("x", "y", "terrain", "valid") {
+		@Override
+		protected void writeInstance(Object obj, AbstractHessianOutput out) throws IOException {
+			Node node = (Node) obj;
+			out.writeInt(node.getX());
+			out.writeInt(node.getY());
+			out.writeInt((node.getTerrain() != null) ? node.getTerrain().ordinal() : -1);
+			out.writeBoolean(node.isValid());
+		}
+	};
+
+	private static final FieldDeserializer NODE_DESERIALIZER = new FieldDeserializer(Node.class) {
+		@Override
+		Object create(String[] fieldNames, Object[] values) throws IOException {
+			int terrain = intField(fieldNames, values, "terrain");
+			return new Node(-1, "", (Boolean) field(fieldNames, values, "valid"), (terrain >= 0) ? Terrain.values()[terrain] : null,
+					intField(fieldNames, values, "x"), intField(fieldNames, values, "y"), null, null, null, null);
+		}
+	};
+
+	private static final FieldSerializer ROUTE_SERIALIZER = new FieldSerializer("row", "col", "steps", "codes") {
+		@Override
+		protected void writeInstance(Object obj, AbstractHessianOutput out) throws IOException {
+			Route route = (Route) obj;
+			out.writeInt(route.getStartRow());
+			out.writeInt(route.getStartCol());
+			out.writeInt(route.getStepCount());
+			// Four steps per byte, the first step in the lowest two bits.
+			byte[] codes = new byte[(route.getStepCount() + 3) / 4];
+			for (int i = 0; i < route.getStepCount(); i++)
+				codes[i >> 2] |= route.getStep(i) << ((i & 3) << 1);
+			out.writeBytes(codes);
+		}
+	};
+
+	private static final FieldDeserializer ROUTE_DESERIALIZER = new FieldDeserializer(Route.class) {
+		@Override
+		Object create(String[] fieldNames, Object[] values) throws IOException {
+			byte[] codes = (byte[]) field(fieldNames, values, "codes");
+			int[] steps = new int[intField(fieldNames, values, "steps")];
+			if (codes.length < (steps.length + 3) / 4)
+				throw new IOException("Route has " + steps.length + " steps but only " + codes.length + " bytes of codes.");
+			for (int i = 0; i < steps.length; i++)
+				steps[i] = (codes[i >> 2] >> ((i & 3) << 1)) & 3;
+			return Route.of(intField(fieldNames, values, "row"), intField(fieldNames, values, "col"), steps);
+		}
+	};
+
+	private static final FieldSerializer BITMAP_SERIALIZER = new FieldSerializer("rows", "cols", "bits") {
+		@Override
+		protected void writeInstance(Object obj, AbstractHessianOutput out) throws IOException {
+			WalkabilityBitmap bitmap = (WalkabilityBitmap) obj;
+			out.writeInt(bitmap.getRows());
+			out.writeInt(bitmap.getCols());
+			out.writeBytes(packBits(bitmap));
+		}
+	};
+
+	private static final FieldDeserializer BITMAP_DESERIALIZER = new FieldDeserializer(WalkabilityBitmap.class) {
+		@Override
+		Object create(String[] fieldNames, Object[] values) throws IOException {
+			return unpackBits(intField(fieldNames, values, "rows"), intField(fieldNames, values, "cols"),
+					(byte[]) field(fieldNames, values, "bits"));
+		}
+	};
+
+	private static final FieldSerializer SNAPSHOT_SERIALIZER = new FieldSerializer("version", "rows", "cols", "bits") {
+		@Override
+		protected void writeInstance(Object obj, AbstractHessianOutput out) throws IOException {
+			GridSnapshot snapshot = (GridSnapshot) obj;
+			out.writeLong(snapshot.getVersion());
+			out.writeInt(snapshot.getRows());
+			out.writeInt(snapshot.getCols());
+			out.writeBytes(packBits(snapshot.toBitmap()));
+		}
+	};
+
+	private static final FieldDeserializer SNAPSHOT_DESERIALIZER = new FieldDeserializer(GridSnapshot.class) {
+		@Override
+		Object create(String[] fieldNames, Object[] values) throws IOException {
+			WalkabilityBitmap bitmap = unpackBits(intField(fieldNames, values, "rows"), intField(fieldNames, values, "cols"),
+					(byte[]) field(fieldNames, values, "bits"));
+			return GridSnapshot.fromBitmap(bitmap, longField(fieldNames, values, "version"));
+		}
+	};
+
+	/**
+	 * The words of the bitmap, row after row, as little-endian bytes.
+	 */
+	private static byte[] packBits(WalkabilityBitmap bitmap) {
+		ByteBuffer bytes = ByteBuffer.allocate(bitmap.getRows() * bitmap.getWordsPerRow() * 8).order(ByteOrder.LITTLE_ENDIAN);
+		LongBuffer words = bytes.asLongBuffer();
+		for (int row = 0; row < bitmap.getRows(); row++)
+			for (int word = 0; word < bitmap.getWordsPerRow(); word++)
+				words.put(bitmap.getWord(row, word));
+		return bytes.array();
+	}
+
+	private static WalkabilityBitmap unpackBits(int rows, int cols, byte[] bits) throws IOException {
+		WalkabilityBitmap bitmap = new WalkabilityBitmap(rows, cols);
+		if (bits.length != rows * bitmap.getWordsPerRow() * 8)
+			throw new IOException("Expected " + (rows * bitmap.getWordsPerRow() * 8) + " bytes of bits for a " + rows + " x " + cols
+					+ " grid but got " + bits.length + ".");
+		LongBuffer words = ByteBuffer.wrap(bits).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+		for (int row = 0; row < rows; row++)
+			for (int word = 0; word < bitmap.getWordsPerRow(); word++)
+				bitmap.setWord(row, word, words.get());
+		return bitmap;
+	}
+}
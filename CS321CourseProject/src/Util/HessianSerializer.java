@@ -3,7 +3,11 @@ package Util;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
@@ -13,6 +17,11 @@ import com.caucho.hessian.io.SerializerFactory;
  * Implements Hessian-protocol based serialization.
  * See <a href="http://hessian.caucho.com/">this</a> (the Hessian website) for more details.
  *
+ * Besides byte arrays, objects can be written straight to and read straight from streams (files, sockets)
+ * or {@link ByteBuffer}s, so a large grid or batch of routes never has to be held in memory twice. Every
+ * thread keeps its own {@link Hessian2Output}, {@link Hessian2Input} and scratch buffer and reuses them
+ * for each call instead of allocating new ones.
+ *
  */
 public class HessianSerializer {
 
@@ -22,40 +31,177 @@ public class HessianSerializer {
 	 */
 	private static SerializerFactory serializerFactory = new SerializerFactory();
 	
-	// Reference: https://gist.github.com/vongosling/10353488
-	public static Serializable deserialize(byte[] serializedObj) throws IOException {
-		Object deserializedObject = null;
-		
-		// A ByteArrayInputStream contains an internal buffer that contains bytes that may be read from the stream.
-		ByteArrayInputStream inputStream = new ByteArrayInputStream(serializedObj);
-		
-		// This object provides a reader for the Hessian 2.0 protocol, which we are using when we serialize.
-		Hessian2Input hessianInput = new Hessian2Input(inputStream);
-		
-		// Set the serializer factory (which provides serialization methods). We also want to close the stream once we're done.
-		hessianInput.setSerializerFactory(serializerFactory);
-		hessianInput.setCloseStreamOnClose(true);
-		
-		// Start the deserialization process.
-		hessianInput.startMessage();
+	static {
+		// Write nodes, routes and grids compactly instead of field by field.
+		serializerFactory.addFactory(new CompactSerializerFactory());
+	}
+	
+	/**
+	 * Scratch buffers that grew beyond this many bytes are dropped after use instead of being kept by the
+	 * thread, so one huge object doesn't pin its buffer forever.
+	 */
+	private static final int MAX_POOLED_BUFFER_SIZE = 1 << 20;
+	
+	/**
+	 * The reader, writer and scratch buffer of one thread.
+	 */
+	private static final ThreadLocal<Codec> codecs = new ThreadLocal<Codec>() {
+		@Override
+		protected Codec initialValue() {
+			return new Codec();
+		}
+	};
+	
+	/**
+	 * Reusable Hessian reader and writer. A codec is only used by one call at a time; a nested call on the
+	 * same thread (e.g. from inside a custom serializer) gets a fresh one.
+	 */
+	private static class Codec {
+		final Hessian2Output output = new Hessian2Output();
+		final Hessian2Input input = new Hessian2Input();
+		ScratchBuffer buffer = new ScratchBuffer();
+		boolean inUse = false;
 		
-		// Parse the input stream and output a deserialized object.
-		deserializedObject = hessianInput.readObject();
+		Codec() {
+			output.setSerializerFactory(serializerFactory);
+			input.setSerializerFactory(serializerFactory);
+		}
+	}
+	
+	/**
+	 * A byte array output stream that can hand out its contents without copying them.
+	 */
+	private static class ScratchBuffer extends ByteArrayOutputStream {
+		ScratchBuffer() {
+			super(8192);
+		}
 		
-		// Close the hessian input object, which in turn closes the ByteArrayInputStream object.
-		hessianInput.close();
+		byte[] array() {
+			return buf;
+		}
 		
-		return (Serializable)deserializedObject;
+		int capacity() {
+			return buf.length;
+		}
+	}
+	
+	private static Codec acquire() {
+		Codec codec = codecs.get();
+		if (codec.inUse)
+			codec = new Codec();
+		codec.inUse = true;
+		return codec;
+	}
+	
+	private static void release(Codec codec) {
+		// Don't keep the last stream (or what it references) alive through the thread local.
+		codec.output.init(null);
+		codec.input.init(null);
+		codec.buffer.reset();
+		if (codec.buffer.capacity() > MAX_POOLED_BUFFER_SIZE)
+			codec.buffer = new ScratchBuffer();
+		codec.inUse = false;
+	}
+	
+	// Reference: https://gist.github.com/vongosling/10353488
+	public static Serializable deserialize(byte[] serializedObj) throws IOException {
+		// A ByteArrayInputStream contains an internal buffer that contains bytes that may be read from the stream.
+		return deserialize(new ByteArrayInputStream(serializedObj));
+	}
+	
+	/**
+	 * Read one object from the stream. The stream is left open.
+	 *
+	 * The reader buffers its input, so it may read past the end of the message; the stream should hold
+	 * nothing else afterwards (or be positioned by the caller again).
+	 */
+	public static Serializable deserialize(InputStream inputStream) throws IOException {
+		Codec codec = acquire();
+		try {
+			// This object provides a reader for the Hessian 2.0 protocol, which we are using when we serialize.
+			Hessian2Input hessianInput = codec.input;
+			hessianInput.init(inputStream);
+			
+			// Start the deserialization process.
+			hessianInput.startMessage();
+			
+			// Parse the input stream and output a deserialized object.
+			Object deserializedObject = hessianInput.readObject();
+			hessianInput.completeMessage();
+			
+			return (Serializable)deserializedObject;
+		} finally {
+			release(codec);
+		}
+	}
+	
+	/**
+	 * Read one object from the remaining bytes of the buffer, which must hold exactly one message. The
+	 * buffer's position is moved to its limit.
+	 */
+	public static Serializable deserialize(ByteBuffer buffer) throws IOException {
+		return deserialize(new ByteBufferInputStream(buffer));
 	}
 	
 	public static byte[] serialize(Object obj) throws IOException {
-		// Output stream in which the data is written into a byte array.
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		
-		// Output stream for Hessian 2 requests.
-		Hessian2Output hessianOutput = new Hessian2Output(outputStream);
-		hessianOutput.setSerializerFactory(serializerFactory);
-		hessianOutput.setCloseStreamOnClose(true);
+		Codec codec = acquire();
+		try {
+			// Write into the thread's scratch buffer, so the only allocation is the returned copy.
+			write(codec, obj, codec.buffer);
+			return codec.buffer.toByteArray();
+		} finally {
+			release(codec);
+		}
+	}
+	
+	/**
+	 * Write the object straight to the stream, a few kilobytes at a time. The stream is flushed but left open.
+	 */
+	public static void serialize(Object obj, OutputStream outputStream) throws IOException {
+		Codec codec = acquire();
+		try {
+			write(codec, obj, outputStream);
+		} finally {
+			release(codec);
+		}
+	}
+	
+	/**
+	 * Write the object into the buffer, starting at its position and advancing it.
+	 *
+	 * @throws BufferOverflowException if the object doesn't fit into the remaining bytes. The buffer's
+	 *         position is left where it was.
+	 */
+	public static void serialize(Object obj, ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		try {
+			serialize(obj, new ByteBufferOutputStream(buffer));
+		} catch (BufferOverflowException e) {
+			buffer.position(start);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Serialize the object into a new buffer that is ready to be read or written to a channel.
+	 */
+	public static ByteBuffer serializeToBuffer(Object obj) throws IOException {
+		Codec codec = acquire();
+		try {
+			write(codec, obj, codec.buffer);
+			ByteBuffer buffer = ByteBuffer.allocate(codec.buffer.size());
+			buffer.put(codec.buffer.array(), 0, codec.buffer.size());
+			buffer.flip();
+			return buffer;
+		} finally {
+			release(codec);
+		}
+	}
+	
+	private static void write(Codec codec, Object obj, OutputStream outputStream) throws IOException {
+		// Output stream for Hessian 2 requests. Initializing it again also forgets the references of the last object.
+		Hessian2Output hessianOutput = codec.output;
+		hessianOutput.init(outputStream);
 		
 		// Start the serialization process.
 		hessianOutput.startMessage();
@@ -63,11 +209,61 @@ public class HessianSerializer {
 		// Serialize the object.
 		hessianOutput.writeObject(obj);
 		
-		// Finish the process.
+		// Finish the process and push what's still buffered out to the stream.
 		hessianOutput.completeMessage();
-		hessianOutput.close();
+		hessianOutput.flush();
+	}
+	
+	/**
+	 * Reads the remaining bytes of a buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+		
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+	
+	/**
+	 * Writes into a buffer, throwing {@link BufferOverflowException} once it is full.
+	 */
+	private static class ByteBufferOutputStream extends OutputStream {
+		private final ByteBuffer buffer;
+		
+		ByteBufferOutputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public void write(int b) {
+			buffer.put((byte) b);
+		}
 		
-		// Return the byte array representation of our object.
-		return outputStream.toByteArray();
+		@Override
+		public void write(byte[] b, int off, int len) {
+			buffer.put(b, off, len);
+		}
 	}
 }